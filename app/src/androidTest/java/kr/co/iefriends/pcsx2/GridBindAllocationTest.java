@@ -0,0 +1,100 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2;
+
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Debug;
+import android.util.Log;
+import android.widget.FrameLayout;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import kr.co.iefriends.pcsx2.MainActivity.GameEntry;
+import kr.co.iefriends.pcsx2.MainActivity.GamesAdapter;
+import kr.co.iefriends.pcsx2.util.BitmapCache;
+
+/**
+ * Rebinds one grid cell whose cover is already in memory, the common case while scrolling back
+ * over seen games, and counts what the bind path allocates on the main thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GridBindAllocationTest {
+    private static final String TAG = "GridBindAllocation";
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 2000;
+    private static final int COVER_WIDTH = 120;
+    private static final int COVER_HEIGHT = 180;
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void warmBindDoesNotAllocate() throws Exception {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            scenario.onActivity(activity -> {
+                GameEntry entry = new GameEntry("Bind Benchmark.iso", Uri.parse("file:///bind-benchmark/Bind%20Benchmark.iso"));
+                List<GameEntry> data = new ArrayList<>();
+                data.add(entry);
+                GamesAdapter adapter = new GamesAdapter(data, e -> { });
+                adapter.setGridCoverSize(COVER_WIDTH, COVER_HEIGHT);
+
+                File cover = new File(activity.getCacheDir(), "bind-benchmark.png");
+                Bitmap bmp = Bitmap.createBitmap(COVER_WIDTH, COVER_HEIGHT, Bitmap.Config.ARGB_8888);
+                try (FileOutputStream out = new FileOutputStream(cover)) {
+                    bmp.compress(Bitmap.CompressFormat.PNG, 100, out);
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+                GamesAdapter.registerCachedCover(entry, cover);
+                BitmapCache.get().putBitmap(CoverLoader.cacheKey(cover.getAbsolutePath(), COVER_WIDTH, COVER_HEIGHT), bmp);
+
+                GamesAdapter.VH holder = adapter.onCreateViewHolder(new FrameLayout(activity), 0);
+                for (int i = 0; i < WARMUP; i++) {
+                    adapter.onBindViewHolder(holder, 0);
+                }
+
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    adapter.onBindViewHolder(holder, 0);
+                }
+                Debug.stopAllocCounting();
+                int allocs = Debug.getThreadAllocCount();
+                int bytes = Debug.getThreadAllocSize();
+
+                Log.i(TAG, allocs + " allocations (" + bytes + " bytes) over " + ITERATIONS + " binds");
+                cover.delete();
+                // A stray allocation from the runtime is tolerated; one per bind is a regression.
+                assertTrue(allocs + " allocations over " + ITERATIONS + " binds", allocs < ITERATIONS / 10);
+            });
+        }
+    }
+}
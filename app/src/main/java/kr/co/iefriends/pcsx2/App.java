@@ -29,6 +29,9 @@ import androidx.annotation.NonNull;
 
 import com.google.android.material.color.DynamicColors;
 
+import kr.co.iefriends.pcsx2.util.BitmapCache;
+import kr.co.iefriends.pcsx2.util.NetworkState;
+
 public class App extends Application {
     @Override
     public void onCreate() {
@@ -36,6 +39,7 @@ public class App extends Application {
         // Apply Material You !
         DynamicColors.applyToActivitiesIfAvailable(this);
         DiscordBridge.initialize(this);
+        NetworkState.start(this);
         registerActivityLifecycleCallbacks(new ActivityLifecycleCallbacks() {
             @Override
             public void onActivityCreated(@NonNull Activity activity, Bundle savedInstanceState) {
@@ -68,4 +72,16 @@ public class App extends Application {
             }
         });
     }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        BitmapCache.get().onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        BitmapCache.get().onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
 }
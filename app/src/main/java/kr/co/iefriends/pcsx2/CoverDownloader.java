@@ -0,0 +1,412 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kr.co.iefriends.pcsx2.util.DebugLog;
+
+/**
+ * Bulk cover download for the prefetch. Games are fetched in parallel on a small pool, with at most
+ * {@link #MAX_PER_HOST} requests in flight per host so a cover mirror is not flooded. Bodies are
+ * always read to the end and closed without {@code disconnect()}, which lets HttpURLConnection keep
+ * the socket alive for the next request to the same host.
+ * <p>
+ * A 429 or 5xx pauses that host (honouring {@code Retry-After}, otherwise doubling from one second)
+ * and retries. Covers already on disk are revalidated with {@code If-None-Match} /
+ * {@code If-Modified-Since} once {@link #REVALIDATE_AFTER_MS} has passed.
+ * <p>
+ * Games can share a candidate URL (discs of one game share the title-based ones), so each URL is
+ * requested once per run: later games reuse a 404 or failure as is, and get their own copy of a
+ * cover the URL served.
+ */
+final class CoverDownloader {
+    private static final String TAG = "CoverDownload";
+    private static final int THREADS = 6;
+    private static final int MAX_PER_HOST = 4;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long MAX_BACKOFF_MS = 60_000L;
+    private static final long REVALIDATE_AFTER_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final int CONNECT_TIMEOUT_MS = 4000;
+    private static final int READ_TIMEOUT_MS = 6000;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final int FOUND = 0;
+    private static final int NOT_FOUND = 1;
+    private static final int FAILED = 2;
+
+    interface Listener {
+        /** Download thread; the file is already in the covers directory and {@link CoverIndex}. */
+        void onStored(MainActivity.GameEntry entry, File file);
+
+        /** Download thread, after each game. */
+        void onProgress(int done, int total);
+    }
+
+    static final class Job {
+        final MainActivity.GameEntry entry;
+        final String baseName;
+        final List<String> urls;
+        /** The cover already cached for this game, to be revalidated rather than fetched. */
+        @Nullable final File existing;
+
+        Job(MainActivity.GameEntry entry, String baseName, List<String> urls, @Nullable File existing) {
+            this.entry = entry;
+            this.baseName = baseName;
+            this.urls = urls;
+            this.existing = existing;
+        }
+    }
+
+    /** The one request made for a URL; games that share the URL wait for it. */
+    private static final class Attempt {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile int result = FAILED;
+        // Set when the URL served a cover.
+        @Nullable volatile File file;
+        @Nullable volatile String ext;
+        @Nullable volatile String etag;
+        @Nullable volatile String lastModified;
+    }
+
+    private static final class Host {
+        final Semaphore permits = new Semaphore(MAX_PER_HOST);
+        private long blockedUntil;
+        private int failures;
+
+        synchronized long waitMillis() {
+            return blockedUntil - SystemClock.elapsedRealtime();
+        }
+
+        synchronized void backOff(long retryAfterMs) {
+            failures++;
+            long delay = retryAfterMs > 0 ? retryAfterMs : 1000L << Math.min(failures - 1, 6);
+            blockedUntil = Math.max(blockedUntil, SystemClock.elapsedRealtime() + Math.min(delay, MAX_BACKOFF_MS));
+        }
+
+        synchronized void succeeded() {
+            failures = 0;
+        }
+    }
+
+    private final Context appContext;
+    private final Listener listener;
+    private final CoverSourceCache sources;
+    private final ConcurrentHashMap<String, Host> hosts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Attempt> attempts = new ConcurrentHashMap<>();
+    private final AtomicInteger stored = new AtomicInteger();
+
+    CoverDownloader(Context context, Listener listener) {
+        this.appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        this.listener = listener;
+        this.sources = CoverSourceCache.get(appContext);
+    }
+
+    /** Downloads or revalidates every job and blocks until all are done. @return covers written. */
+    int run(List<Job> jobs) throws InterruptedException {
+        if (jobs.isEmpty()) {
+            return 0;
+        }
+        final int total = jobs.size();
+        final AtomicInteger done = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(total);
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(THREADS, total), r -> {
+            Thread t = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "CoverDownload-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        long start = SystemClock.elapsedRealtime();
+        for (Job job : jobs) {
+            pool.execute(() -> {
+                try {
+                    process(job);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Throwable t) {
+                    try { DebugLog.e(TAG, "Cover job failed for " + job.baseName + ": " + t.getMessage()); } catch (Throwable ignored) {}
+                } finally {
+                    listener.onProgress(done.incrementAndGet(), total);
+                    latch.countDown();
+                }
+            });
+        }
+        try {
+            latch.await();
+        } finally {
+            pool.shutdownNow();
+            sources.saveAsync();
+        }
+        long elapsed = Math.max(1L, SystemClock.elapsedRealtime() - start);
+        try {
+            DebugLog.d(TAG, String.format(Locale.ROOT, "%d games, %d covers stored in %d ms (%.1f games/s)",
+                    total, stored.get(), elapsed, total * 1000f / elapsed));
+        } catch (Throwable ignored) {}
+        return stored.get();
+    }
+
+    private void process(Job job) throws InterruptedException {
+        CoverSourceCache.Source source = sources.resolved(job.baseName);
+        if (job.existing != null) {
+            if (source != null && System.currentTimeMillis() - source.checkedAt >= REVALIDATE_AFTER_MS) {
+                fetch(job, source.url, source, null);
+            }
+            return;
+        }
+        if (sources.isKnownMissing(job.baseName)) {
+            return;
+        }
+        // The cover file was deleted but we know where it came from; try that URL before the rest.
+        if (source != null && fetchShared(job, source.url) == FOUND) {
+            return;
+        }
+        boolean allNotFound = true;
+        boolean tried = false;
+        for (String url : job.urls) {
+            if (TextUtils.isEmpty(url) || url.contains("${")) {
+                continue;
+            }
+            int result = fetchShared(job, url);
+            if (result == FOUND) {
+                return;
+            }
+            tried = true;
+            allNotFound &= result == NOT_FOUND;
+        }
+        if (tried && allNotFound) {
+            sources.putMissing(job.baseName);
+        }
+    }
+
+    /**
+     * {@link #fetch} for the first game that asks for {@code url} in this run. Later games wait for
+     * that request, take over a 404 or failure, and copy the cover it stored under their own name.
+     */
+    private int fetchShared(Job job, String url) throws InterruptedException {
+        Attempt mine = new Attempt();
+        Attempt first = attempts.putIfAbsent(url, mine);
+        if (first == null) {
+            try {
+                mine.result = fetch(job, url, null, mine);
+            } finally {
+                mine.done.countDown();
+            }
+            return mine.result;
+        }
+        first.done.await();
+        if (first.result != FOUND || first.file == null) {
+            return first.result;
+        }
+        return storeCopy(job, url, first) ? FOUND : FAILED;
+    }
+
+    /**
+     * @param shared records the stored cover for games sharing the URL; null for a revalidation.
+     * @return {@link #FOUND} once a cover was stored or the cached one is current, {@link #NOT_FOUND} on 404.
+     */
+    private int fetch(Job job, String url, @Nullable CoverSourceCache.Source validators, @Nullable Attempt shared) throws InterruptedException {
+        Host host = hostFor(url);
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long wait;
+            while ((wait = host.waitMillis()) > 0) {
+                Thread.sleep(wait);
+            }
+            host.permits.acquire();
+            HttpURLConnection c = null;
+            try {
+                c = (HttpURLConnection) new URL(url).openConnection();
+                c.setConnectTimeout(CONNECT_TIMEOUT_MS);
+                c.setReadTimeout(READ_TIMEOUT_MS);
+                c.setInstanceFollowRedirects(true);
+                c.setRequestMethod("GET");
+                if (validators != null) {
+                    if (validators.etag != null) c.setRequestProperty("If-None-Match", validators.etag);
+                    if (validators.lastModified != null) c.setRequestProperty("If-Modified-Since", validators.lastModified);
+                }
+                int code = c.getResponseCode();
+                if (code == HttpURLConnection.HTTP_OK) {
+                    host.succeeded();
+                    return store(job, url, c, shared) ? FOUND : FAILED;
+                }
+                drain(c, code);
+                if (code == HttpURLConnection.HTTP_NOT_MODIFIED && validators != null) {
+                    host.succeeded();
+                    sources.touch(job.baseName, System.currentTimeMillis());
+                    return FOUND;
+                }
+                if (code == 429 || code >= 500) {
+                    host.backOff(retryAfterMillis(c));
+                    try { DebugLog.d(TAG, "HTTP " + code + " from " + url + ", backing off"); } catch (Throwable ignored) {}
+                    continue;
+                }
+                return code == HttpURLConnection.HTTP_NOT_FOUND ? NOT_FOUND : FAILED;
+            } catch (IOException e) {
+                // A half-read connection must not go back to the pool.
+                if (c != null) c.disconnect();
+                try { DebugLog.d(TAG, "Error loading cover " + url + ": " + e.getMessage()); } catch (Throwable ignored) {}
+                return FAILED;
+            } finally {
+                host.permits.release();
+            }
+        }
+        return FAILED;
+    }
+
+    private boolean store(Job job, String url, HttpURLConnection c, @Nullable Attempt shared) throws IOException {
+        CoverIndex index = CoverIndex.get(appContext);
+        if (index == null) {
+            drain(c, HttpURLConnection.HTTP_OK);
+            return false;
+        }
+        String ext = MainActivity.guessImageExtension(url, c.getContentType());
+        File partial = index.newPartialFile(ext);
+        long length = 0;
+        try (InputStream in = c.getInputStream(); FileOutputStream out = new FileOutputStream(partial)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                length += read;
+            }
+        } catch (IOException e) {
+            partial.delete();
+            throw e;
+        }
+        if (length == 0) {
+            partial.delete();
+            return false;
+        }
+        File target = index.commit(partial, job.baseName, ext);
+        if (target == null) {
+            return false;
+        }
+        String etag = c.getHeaderField("ETag");
+        String lastModified = c.getHeaderField("Last-Modified");
+        sources.putResolved(job.baseName, url, etag, lastModified);
+        if (shared != null) {
+            shared.ext = ext;
+            shared.etag = etag;
+            shared.lastModified = lastModified;
+            shared.file = target;
+        }
+        stored.incrementAndGet();
+        listener.onStored(job.entry, target);
+        return true;
+    }
+
+    /** Stores the cover another game downloaded from {@code url} under this game's name too. */
+    private boolean storeCopy(Job job, String url, Attempt first) {
+        CoverIndex index = CoverIndex.get(appContext);
+        File source = first.file;
+        String ext = first.ext;
+        if (index == null || source == null || ext == null) {
+            return false;
+        }
+        File partial;
+        try {
+            partial = index.newPartialFile(ext);
+        } catch (IOException e) {
+            return false;
+        }
+        try (InputStream in = new FileInputStream(source); FileOutputStream out = new FileOutputStream(partial)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            partial.delete();
+            try { DebugLog.d(TAG, "Failed to copy cover for " + job.baseName + ": " + e.getMessage()); } catch (Throwable ignored) {}
+            return false;
+        }
+        File target = index.commit(partial, job.baseName, ext);
+        if (target == null) {
+            return false;
+        }
+        sources.putResolved(job.baseName, url, first.etag, first.lastModified);
+        stored.incrementAndGet();
+        listener.onStored(job.entry, target);
+        return true;
+    }
+
+    private Host hostFor(String url) {
+        String host = Uri.parse(url).getHost();
+        if (host == null) host = "";
+        Host h = hosts.get(host);
+        if (h == null) {
+            Host created = new Host();
+            h = hosts.putIfAbsent(host, created);
+            if (h == null) h = created;
+        }
+        return h;
+    }
+
+    /** Reads the rest of an error or empty body so the connection can be reused. */
+    private static void drain(HttpURLConnection c, int code) {
+        try (InputStream in = code >= 400 ? c.getErrorStream() : c.getInputStream()) {
+            if (in == null) return;
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) != -1) {
+                // discard
+            }
+        } catch (IOException ignored) {
+            c.disconnect();
+        }
+    }
+
+    private static long retryAfterMillis(HttpURLConnection c) {
+        String value = c.getHeaderField("Retry-After");
+        if (value == null) {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(value.trim()) * 1000L;
+        } catch (NumberFormatException e) {
+            // HTTP-date form; fall back to exponential backoff.
+            return -1L;
+        }
+    }
+}
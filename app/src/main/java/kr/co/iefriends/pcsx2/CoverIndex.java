@@ -0,0 +1,286 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2;
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import kr.co.iefriends.pcsx2.util.DebugLog;
+
+/**
+ * Lookup table for the covers directory: lowercase base name (file name without its image
+ * extension) to file name. It is built by one directory listing and then kept current by the code
+ * that stores or deletes covers, so finding a game's cover no longer lists the directory.
+ * <p>
+ * The table is saved in the library index together with the directory's last-modified time; a
+ * directory touched outside the app no longer matches and is listed again on the next start.
+ */
+final class CoverIndex {
+    private static final String TAG = "CoverIndex";
+    // Downloads in progress; kept in the covers directory so the final rename stays on one filesystem.
+    private static final String PARTIAL_DIR = ".partial";
+
+    private static final Object INSTANCE_LOCK = new Object();
+    private static CoverIndex sInstance;
+
+    /** Immutable copy of the table as written to, or read from, the library index. */
+    static final class Snapshot {
+        final String dirPath;
+        final long dirModified;
+        final Map<String, String> names;
+
+        Snapshot(String dirPath, long dirModified, Map<String, String> names) {
+            this.dirPath = dirPath;
+            this.dirModified = dirModified;
+            this.names = names;
+        }
+
+        static void write(DataOutputStream out, @Nullable Snapshot s) throws IOException {
+            out.writeBoolean(s != null);
+            if (s == null) {
+                return;
+            }
+            out.writeUTF(s.dirPath);
+            out.writeLong(s.dirModified);
+            out.writeInt(s.names.size());
+            for (Map.Entry<String, String> e : s.names.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue());
+            }
+        }
+
+        @Nullable
+        static Snapshot read(DataInputStream in) throws IOException {
+            if (!in.readBoolean()) {
+                return null;
+            }
+            String dirPath = in.readUTF();
+            long dirModified = in.readLong();
+            int count = in.readInt();
+            Map<String, String> names = new HashMap<>(Math.max(16, count * 2));
+            for (int i = 0; i < count; i++) {
+                names.put(in.readUTF(), in.readUTF());
+            }
+            return new Snapshot(dirPath, dirModified, names);
+        }
+    }
+
+    private final File dir;
+    private final HashMap<String, String> names = new HashMap<>();
+    private long dirModified;
+
+    private CoverIndex(File dir) {
+        this.dir = dir;
+    }
+
+    @Nullable
+    static CoverIndex get(Context context) {
+        synchronized (INSTANCE_LOCK) {
+            if (sInstance == null) {
+                File dir = MainActivity.getCoversCacheDir(context);
+                if (dir == null) {
+                    return null;
+                }
+                CoverIndex index = new CoverIndex(dir);
+                index.deletePartials();
+                GameLibraryIndex library = GameLibraryIndex.get(context);
+                if (!index.restore(library.takeSavedCovers())) {
+                    index.rebuild();
+                    library.markDirty();
+                }
+                sInstance = index;
+            }
+            return sInstance;
+        }
+    }
+
+    @Nullable
+    static CoverIndex peek() {
+        synchronized (INSTANCE_LOCK) {
+            return sInstance;
+        }
+    }
+
+    static void reset() {
+        synchronized (INSTANCE_LOCK) {
+            sInstance = null;
+        }
+    }
+
+    /** The cover stored as {@code baseName} with any image extension, matched case-insensitively. */
+    @Nullable
+    File find(String baseName) {
+        if (TextUtils.isEmpty(baseName)) {
+            return null;
+        }
+        String key = baseName.toLowerCase(Locale.US);
+        String name;
+        synchronized (this) {
+            name = names.get(key);
+        }
+        if (name == null) {
+            return null;
+        }
+        File file = new File(dir, name);
+        if (!file.isFile()) {
+            // Deleted behind our back; forget it so the caller downloads a fresh copy.
+            remove(file);
+            return null;
+        }
+        return file;
+    }
+
+    void remove(File file) {
+        synchronized (this) {
+            String key = keyFor(file.getName());
+            if (!file.getName().equals(names.get(key))) {
+                return;
+            }
+            names.remove(key);
+            dirModified = dir.lastModified();
+        }
+        markLibraryDirty();
+    }
+
+    /** A new, empty file to stream a download into before {@link #commit} moves it into place. */
+    File newPartialFile(String ext) throws IOException {
+        File partials = new File(dir, PARTIAL_DIR);
+        if (!partials.exists() && !partials.mkdirs()) {
+            throw new IOException("Cannot create " + partials);
+        }
+        return File.createTempFile("cover", ext, partials);
+    }
+
+    /**
+     * Renames a finished download to {@code baseName + ext}, replacing any cover stored for the same
+     * game under another extension. The partial file is deleted if the rename fails.
+     */
+    @Nullable
+    File commit(File partial, String baseName, String ext) {
+        File target = moveIntoPlace(partial, baseName, ext);
+        if (target != null) {
+            putAll(Collections.singletonList(target));
+        }
+        return target;
+    }
+
+    /**
+     * The rename half of {@link #commit}, for batches: the file is in the covers directory but not in
+     * the table until {@link #putAll}. The partial file is deleted if the rename fails.
+     */
+    @Nullable
+    File moveIntoPlace(File partial, String baseName, String ext) {
+        File target = new File(dir, baseName + ext);
+        if (!partial.renameTo(target)) {
+            partial.delete();
+            return null;
+        }
+        return target;
+    }
+
+    /**
+     * Records covers already moved into the directory in one update of the table and the library
+     * index. A cover stored for the same game under another extension is deleted.
+     */
+    void putAll(Collection<File> files) {
+        if (files.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            for (File file : files) {
+                String previous = names.put(keyFor(file.getName()), file.getName());
+                if (previous != null && !previous.equals(file.getName())) {
+                    new File(dir, previous).delete();
+                }
+            }
+            dirModified = dir.lastModified();
+        }
+        markLibraryDirty();
+    }
+
+    synchronized Snapshot snapshot() {
+        return new Snapshot(dir.getAbsolutePath(), dirModified, new HashMap<>(names));
+    }
+
+    private boolean restore(@Nullable Snapshot s) {
+        if (s == null || !dir.getAbsolutePath().equals(s.dirPath) || dir.lastModified() != s.dirModified) {
+            return false;
+        }
+        names.putAll(s.names);
+        dirModified = s.dirModified;
+        try { DebugLog.d(TAG, "Restored " + names.size() + " covers"); } catch (Throwable ignored) {}
+        return true;
+    }
+
+    private void rebuild() {
+        dirModified = dir.lastModified();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File child : files) {
+            if (child == null || !child.isFile()) continue;
+            String name = child.getName();
+            // Half-written downloads left by older versions, which wrote next to the covers.
+            if (name.contains("_tmp.")) continue;
+            String key = keyFor(name);
+            if (!names.containsKey(key)) {
+                names.put(key, name);
+            }
+        }
+        try { DebugLog.d(TAG, "Indexed " + names.size() + " covers in " + dir); } catch (Throwable ignored) {}
+    }
+
+    private void deletePartials() {
+        File[] leftovers = new File(dir, PARTIAL_DIR).listFiles();
+        if (leftovers == null) {
+            return;
+        }
+        for (File f : leftovers) {
+            f.delete();
+        }
+    }
+
+    private static void markLibraryDirty() {
+        GameLibraryIndex library = GameLibraryIndex.peek();
+        if (library != null) {
+            library.markDirty();
+        }
+    }
+
+    private static String keyFor(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+        return base.toLowerCase(Locale.US);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Set;
+
+import kr.co.iefriends.pcsx2.util.BitmapCache;
+
+/**
+ * Decodes cover art at the size of the cell that shows it. Bounds are read first and the image is
+ * subsampled by the largest power of two that still covers the target, so a 1000px box scan
+ * becomes a ~250px bitmap for a phone grid. Opaque JPEGs decode to RGB_565, halving memory again.
+ * <p>
+ * Hardware bitmaps are not used: they cannot be handed back as {@code inBitmap} for reuse, and
+ * any software drawing of the grid (shared-element snapshots, the blur background) would force a
+ * copy back into the Java heap.
+ */
+final class CoverLoader {
+    private CoverLoader() {
+    }
+
+    /** In-memory covers, keyed by {@link #cacheKey}; shared with avatars and backgrounds. */
+    static BitmapCache memoryCache() {
+        return BitmapCache.get();
+    }
+
+    /** The same source decoded for a grid cell and a list row are different bitmaps. */
+    static String cacheKey(String source, int width, int height) {
+        return source + "@" + width + "x" + height;
+    }
+
+    /** Forgets the in-memory bitmaps of {@code sources} at every size, after their files were replaced. */
+    static void forget(Set<String> sources) {
+        if (sources.isEmpty()) {
+            return;
+        }
+        BitmapCache.get().removeIf(key -> {
+            int at = key.lastIndexOf('@');
+            return at > 0 && sources.contains(key.substring(0, at));
+        });
+    }
+
+    @Nullable
+    static Bitmap decodeFile(File file, int width, int height) {
+        String path = file.getAbsolutePath();
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, opts);
+        if (opts.outWidth <= 0 || opts.outHeight <= 0) {
+            return null;
+        }
+        configure(opts, width, height);
+        return decode(opts, o -> BitmapFactory.decodeFile(path, o));
+    }
+
+    @Nullable
+    static Bitmap decodeUri(ContentResolver cr, Uri uri, int width, int height) {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        try (InputStream is = cr.openInputStream(uri)) {
+            if (is == null) return null;
+            BitmapFactory.decodeStream(is, null, opts);
+        } catch (Throwable t) {
+            return null;
+        }
+        if (opts.outWidth <= 0 || opts.outHeight <= 0) {
+            return null;
+        }
+        configure(opts, width, height);
+        return decode(opts, o -> {
+            try (InputStream is = cr.openInputStream(uri)) {
+                return is != null ? BitmapFactory.decodeStream(is, null, o) : null;
+            }
+        });
+    }
+
+    @Nullable
+    static Bitmap decodeBytes(byte[] data, int width, int height) {
+        BitmapFactory.Options opts = new BitmapFactory.Options();
+        opts.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, opts);
+        if (opts.outWidth <= 0 || opts.outHeight <= 0) {
+            return null;
+        }
+        configure(opts, width, height);
+        return decode(opts, o -> BitmapFactory.decodeByteArray(data, 0, data.length, o));
+    }
+
+    /** Decodes into a pooled bitmap when one fits; see {@link BitmapCache#decode}. */
+    @Nullable
+    private static Bitmap decode(BitmapFactory.Options opts, BitmapCache.Decoder decoder) {
+        try {
+            return BitmapCache.get().decode(opts, decoder);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    private static void configure(BitmapFactory.Options opts, int width, int height) {
+        opts.inSampleSize = sampleSize(opts.outWidth, opts.outHeight, width, height);
+        // PNG and WebP covers may carry transparency; only JPEG is known to be opaque.
+        opts.inPreferredConfig = "image/jpeg".equals(opts.outMimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        opts.inJustDecodeBounds = false;
+    }
+
+    /** Largest power of two that keeps both dimensions at or above the target. */
+    static int sampleSize(int srcWidth, int srcHeight, int width, int height) {
+        int sample = 1;
+        if (width <= 0 || height <= 0) {
+            return sample;
+        }
+        while (srcWidth / (sample * 2) >= width && srcHeight / (sample * 2) >= height) {
+            sample *= 2;
+        }
+        return sample;
+    }
+}
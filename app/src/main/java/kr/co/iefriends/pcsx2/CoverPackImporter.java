@@ -0,0 +1,239 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2;
+
+import android.content.Context;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import kr.co.iefriends.pcsx2.util.BitmapCache;
+import kr.co.iefriends.pcsx2.util.DebugLog;
+
+/**
+ * Imports a zip of covers named after their game ({@code SLUS-20312.jpg}, as cover packs and the
+ * cover URL template use) straight into the covers directory, with no network involved.
+ * <p>
+ * The zip is read once, front to back; each image is streamed into a partial file and handed to a
+ * small pool that checks it decodes, moves it into place and builds the grid thumbnail. The pool
+ * has a bounded backlog so a fast reader cannot fill the disk with partial files. The cover table
+ * and library index are updated once, at the end, also for the covers placed before a read error.
+ */
+final class CoverPackImporter {
+    private static final String TAG = "CoverPack";
+    private static final int MAX_THREADS = 4;
+    // Partial files written but not yet processed, per worker.
+    private static final int BACKLOG_PER_THREAD = 4;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    interface Listener {
+        /** Reader thread, every few entries. */
+        void onProgress(int imported);
+    }
+
+    private final Context appContext;
+    private final int thumbWidth;
+    private final int thumbHeight;
+    private final Listener listener;
+    private final List<File> placed = new ArrayList<>();
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    CoverPackImporter(Context context, int thumbWidth, int thumbHeight, Listener listener) {
+        this.appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        this.thumbWidth = thumbWidth;
+        this.thumbHeight = thumbHeight;
+        this.listener = listener;
+    }
+
+    /**
+     * Reads the whole archive and blocks until every cover is in place. @return covers imported.
+     * If reading fails, the covers placed so far are kept and {@link #imported} counts them.
+     */
+    int run(InputStream archive) throws IOException, InterruptedException {
+        CoverIndex index = CoverIndex.get(appContext);
+        if (index == null) {
+            throw new IOException("Covers directory unavailable.");
+        }
+        ThumbnailCache thumbs = ThumbnailCache.get(appContext);
+        int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+        Semaphore backlog = new Semaphore(threads * BACKLOG_PER_THREAD);
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                r.run();
+            }, "CoverPack-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        long start = SystemClock.elapsedRealtime();
+        // First entry wins when a pack holds the same game twice (e.g. .jpg and .png).
+        Set<String> seen = new HashSet<>();
+        int queued = 0;
+        try (ZipInputStream zis = new ZipInputStream(new BufferedInputStream(archive))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                String ext = entry.isDirectory() ? null : imageExtension(entry.getName());
+                String baseName = ext != null ? baseName(entry.getName()) : null;
+                if (TextUtils.isEmpty(baseName) || seen.contains(baseName.toLowerCase(Locale.US))) {
+                    zis.closeEntry();
+                    continue;
+                }
+                File partial = index.newPartialFile(ext);
+                long length = 0;
+                try (FileOutputStream out = new FileOutputStream(partial)) {
+                    int read;
+                    while ((read = zis.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                        length += read;
+                    }
+                } catch (IOException e) {
+                    partial.delete();
+                    throw e;
+                }
+                zis.closeEntry();
+                if (length == 0) {
+                    partial.delete();
+                    skipped.incrementAndGet();
+                    continue;
+                }
+                seen.add(baseName.toLowerCase(Locale.US));
+                backlog.acquire();
+                queued++;
+                pool.execute(() -> {
+                    try {
+                        place(index, thumbs, partial, baseName, ext);
+                    } finally {
+                        backlog.release();
+                    }
+                });
+                if (queued % 25 == 0) {
+                    listener.onProgress(queued);
+                }
+            }
+        } finally {
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } finally {
+                commit(index, start);
+            }
+        }
+        return imported();
+    }
+
+    /** Covers moved into place so far. */
+    int imported() {
+        synchronized (placed) {
+            return placed.size();
+        }
+    }
+
+    /** Registers the placed covers with the cover table and library index. */
+    private void commit(CoverIndex index, long start) {
+        List<File> files;
+        synchronized (placed) {
+            files = new ArrayList<>(placed);
+        }
+        index.putAll(files);
+        Set<String> sources = new HashSet<>();
+        for (File f : files) {
+            sources.add(f.getAbsolutePath());
+        }
+        CoverLoader.forget(sources);
+        GameLibraryIndex.get(appContext).saveAsync();
+        long elapsed = Math.max(1L, SystemClock.elapsedRealtime() - start);
+        try {
+            DebugLog.d(TAG, String.format(Locale.ROOT, "%d covers imported, %d skipped in %d ms",
+                    files.size(), skipped.get(), elapsed));
+        } catch (Throwable ignored) {}
+    }
+
+    private void place(CoverIndex index, ThumbnailCache thumbs, File partial, String baseName, String ext) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(partial.getAbsolutePath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            partial.delete();
+            skipped.incrementAndGet();
+            return;
+        }
+        File target = index.moveIntoPlace(partial, baseName, ext);
+        if (target == null) {
+            skipped.incrementAndGet();
+            return;
+        }
+        synchronized (placed) {
+            placed.add(target);
+        }
+        if (thumbs != null && thumbWidth > 0 && thumbHeight > 0) {
+            try {
+                BitmapCache.get().offer(thumbs.getOrCreate(target.getAbsolutePath(), target.lastModified(),
+                        thumbWidth, thumbHeight, () -> CoverLoader.decodeFile(target, thumbWidth, thumbHeight)));
+            } catch (Throwable t) {
+                try { DebugLog.d(TAG, "Thumbnail failed for " + target.getName() + ": " + t.getMessage()); } catch (Throwable ignored) {}
+            }
+        }
+    }
+
+    /** {@code .jpg}, {@code .png} or {@code .webp} for an image entry; null for anything else. */
+    private static String imageExtension(String entryName) {
+        String name = entryName.toLowerCase(Locale.US);
+        if (name.endsWith(".jpg") || name.endsWith(".jpeg")) return ".jpg";
+        if (name.endsWith(".png")) return ".png";
+        if (name.endsWith(".webp")) return ".webp";
+        return null;
+    }
+
+    /** File name without folders or extension, sanitised like a downloaded cover's; null for macOS metadata. */
+    private static String baseName(String entryName) {
+        String name = entryName.replace('\\', '/');
+        if (name.startsWith("__MACOSX/") || name.contains("/__MACOSX/")) {
+            return null;
+        }
+        name = name.substring(name.lastIndexOf('/') + 1);
+        if (name.startsWith(".")) {
+            return null;
+        }
+        int dot = name.lastIndexOf('.');
+        return MainActivity.sanitizeCoverFileComponent(dot > 0 ? name.substring(0, dot) : name);
+    }
+}
@@ -0,0 +1,300 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.view.View;
+import android.widget.ImageView;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import kr.co.iefriends.pcsx2.util.BitmapCache;
+
+/**
+ * Schedules cover loads for the game grid. Requests run newest-first, and those a visible cell is
+ * waiting for run before read-ahead ones, so after a fling the cells on screen load first instead of
+ * waiting behind every cell scrolled past. A request whose cells were all recycled is dropped before
+ * it starts, and a network step can poll {@link Request#isCancelled()} between URLs.
+ * <p>
+ * Requests are coalesced by key: binding the same game twice, or reading ahead a game that is already
+ * queued, joins the existing request. Each request decodes on the local lane first (memory, disk,
+ * thumbnails) and moves to the network lane only if that found nothing, so slow downloads never hold
+ * up decodes.
+ */
+final class CoverRequestScheduler {
+    private static final int DECODE_THREADS = 2;
+    private static final int NETWORK_THREADS = 3;
+    // Read-ahead requests beyond this are dropped, oldest first, so a long fling cannot pile them up.
+    private static final int MAX_QUEUED_PREFETCH = 48;
+
+    interface Step {
+        @Nullable
+        Bitmap run(Request request) throws Exception;
+    }
+
+    /** A cell waiting for a cover; it still wants the result while its view is bound to game {@code id}. */
+    static final class Target {
+        final ImageView view;
+        final long id;
+        @Nullable final View hideOnLoad;
+
+        Target(ImageView view, long id, @Nullable View hideOnLoad) {
+            this.view = view;
+            this.id = id;
+            this.hideOnLoad = hideOnLoad;
+        }
+
+        boolean isCurrent() {
+            Object bound = view.getTag(R.id.tag_request_key);
+            return bound instanceof MainActivity.GameEntry && ((MainActivity.GameEntry) bound).id == id;
+        }
+    }
+
+    final class Request {
+        final long key;
+        private final Step local;
+        @Nullable private final Step remote;
+        private final List<Target> targets = new ArrayList<>(1);
+        private boolean prefetch;
+        private boolean running;
+        private long seq;
+        @Nullable private Lane lane;
+
+        private Request(long key, Step local, @Nullable Step remote) {
+            this.key = key;
+            this.local = local;
+            this.remote = remote;
+        }
+
+        /** True once no cell is waiting and nobody asked for a read-ahead; long steps should give up. */
+        boolean isCancelled() {
+            synchronized (CoverRequestScheduler.this) {
+                return targets.isEmpty() && !prefetch;
+            }
+        }
+    }
+
+    // Visible requests first, then newest first.
+    private static final Comparator<Request> ORDER = (a, b) -> {
+        boolean av = !a.targets.isEmpty();
+        boolean bv = !b.targets.isEmpty();
+        if (av != bv) return av ? -1 : 1;
+        return Long.compare(b.seq, a.seq);
+    };
+
+    private final class Lane {
+        final String name;
+        final int threads;
+        final PriorityQueue<Request> queue = new PriorityQueue<>(32, ORDER);
+        int started;
+
+        Lane(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+        }
+
+        /** Caller holds the scheduler lock. */
+        void enqueue(Request r) {
+            r.lane = this;
+            queue.add(r);
+            if (started < threads) {
+                started++;
+                Thread t = new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    work(this);
+                }, name + "-" + started);
+                t.setDaemon(true);
+                t.start();
+            } else {
+                CoverRequestScheduler.this.notifyAll();
+            }
+        }
+    }
+
+    private static final CoverRequestScheduler INSTANCE = new CoverRequestScheduler();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Lane decodeLane = new Lane("CoverDecode", DECODE_THREADS);
+    private final Lane networkLane = new Lane("CoverFetch", NETWORK_THREADS);
+    private final Map<Long, Request> active = new HashMap<>();
+    private final Map<ImageView, Request> byView = new HashMap<>();
+    private long seq;
+
+    private CoverRequestScheduler() {
+    }
+
+    static CoverRequestScheduler get() {
+        return INSTANCE;
+    }
+
+    /** Request key for game {@code id}'s cover at a cell size; a manual cover is a different request. */
+    static long key(long id, @Nullable String manual, int width, int height) {
+        long k = id;
+        k = k * 31 + (manual != null ? manual.hashCode() : 0);
+        k = k * 31 + width;
+        return k * 31 + height;
+    }
+
+    /**
+     * Queues a load for {@code key}, or joins the request already queued or running for it.
+     *
+     * @param target the cell to update, or null for a read-ahead that only warms the caches
+     * @param remote network fallback, run only when {@code local} returns null
+     */
+    synchronized void submit(long key, @Nullable Target target, Step local, @Nullable Step remote) {
+        if (target != null) {
+            detach(target.view);
+        }
+        Request r = active.get(key);
+        if (r == null) {
+            r = new Request(key, local, remote);
+            active.put(key, r);
+        } else if (!r.running && r.lane != null) {
+            r.lane.queue.remove(r);
+        }
+        if (target != null) {
+            r.targets.add(target);
+            byView.put(target.view, r);
+        } else {
+            r.prefetch = true;
+        }
+        r.seq = ++seq;
+        if (!r.running) {
+            (r.lane != null ? r.lane : decodeLane).enqueue(r);
+        }
+        if (target == null) {
+            trimPrefetch(r.lane != null ? r.lane : decodeLane);
+        }
+    }
+
+    /** The cell behind {@code view} was recycled or rebound; it no longer wants its pending cover. */
+    synchronized void cancel(ImageView view) {
+        detach(view);
+    }
+
+    private void detach(ImageView view) {
+        Request r = byView.remove(view);
+        if (r == null) {
+            return;
+        }
+        for (Iterator<Target> it = r.targets.iterator(); it.hasNext(); ) {
+            if (it.next().view == view) it.remove();
+        }
+        if (r.running || r.lane == null) {
+            return;
+        }
+        r.lane.queue.remove(r);
+        if (r.targets.isEmpty() && !r.prefetch) {
+            active.remove(r.key);
+        } else {
+            // Re-insert so the queue sees the changed priority.
+            r.lane.queue.add(r);
+        }
+    }
+
+    private void trimPrefetch(Lane lane) {
+        int prefetchOnly = 0;
+        for (Request r : lane.queue) {
+            if (r.targets.isEmpty()) prefetchOnly++;
+        }
+        while (prefetchOnly > MAX_QUEUED_PREFETCH) {
+            Request oldest = null;
+            for (Request r : lane.queue) {
+                if (r.targets.isEmpty() && (oldest == null || r.seq < oldest.seq)) oldest = r;
+            }
+            if (oldest == null) break;
+            lane.queue.remove(oldest);
+            active.remove(oldest.key);
+            prefetchOnly--;
+        }
+    }
+
+    private void work(Lane lane) {
+        while (true) {
+            Request r;
+            synchronized (this) {
+                r = lane.queue.poll();
+                while (r == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    r = lane.queue.poll();
+                }
+                if (r.targets.isEmpty() && !r.prefetch) {
+                    active.remove(r.key);
+                    continue;
+                }
+                r.running = true;
+            }
+            Bitmap bmp = null;
+            try {
+                bmp = lane == networkLane ? (r.remote != null ? r.remote.run(r) : null) : r.local.run(r);
+            } catch (Throwable ignored) {}
+            synchronized (this) {
+                r.running = false;
+                if (bmp == null && lane == decodeLane && r.remote != null && (!r.targets.isEmpty() || r.prefetch)) {
+                    networkLane.enqueue(r);
+                    continue;
+                }
+                if (active.get(r.key) == r) {
+                    active.remove(r.key);
+                }
+                r.lane = null;
+                for (Target t : r.targets) {
+                    if (byView.get(t.view) == r) byView.remove(t.view);
+                }
+            }
+            if (bmp != null) {
+                deliver(r, bmp);
+            }
+        }
+    }
+
+    private void deliver(Request r, Bitmap bmp) {
+        List<Target> targets;
+        synchronized (this) {
+            targets = new ArrayList<>(r.targets);
+        }
+        if (targets.isEmpty()) {
+            return;
+        }
+        mainHandler.post(() -> {
+            for (Target t : targets) {
+                if (!t.isCurrent()) continue;
+                BitmapCache.get().setImage(t.view, bmp);
+                if (t.hideOnLoad != null) t.hideOnLoad.setVisibility(View.GONE);
+            }
+        });
+    }
+}
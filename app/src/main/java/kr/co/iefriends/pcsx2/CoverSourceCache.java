@@ -0,0 +1,238 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import kr.co.iefriends.pcsx2.util.DebugLog;
+
+/**
+ * How each game's cover was resolved, keyed by its lowercase cover base name (the serial or title
+ * the cached file is named after, so discs of one game share a record). A resolved record holds the
+ * URL that served the cover plus the {@code ETag}/{@code Last-Modified} validators, so a later
+ * prefetch can revalidate with a conditional request; a missing record means every candidate URL
+ * answered 404 and is trusted until it expires. Both survive restarts, and the whole cache is
+ * cleared when the cover URL template changes.
+ */
+final class CoverSourceCache {
+    private static final String TAG = "CoverSources";
+    private static final String FILE_NAME = "cover_sources.idx";
+    private static final int MAGIC = 0x41584353; // "AXCS"
+    private static final int VERSION = 2;
+    private static final long MISSING_TTL_MS = 3L * 24 * 60 * 60 * 1000;
+
+    private static final ExecutorService SAVE_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "CoverSourcesSave");
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    static final class Source {
+        /** Null for a game known to have no cover. */
+        @Nullable String url;
+        @Nullable String etag;
+        @Nullable String lastModified;
+        /** Wall-clock time of the last 200 or 304 from {@link #url}, or of the last all-404 probe. */
+        long checkedAt;
+        /** Wall-clock expiry of a missing record; 0 for a resolved one. */
+        long missingUntil;
+    }
+
+    private static final Object INSTANCE_LOCK = new Object();
+    private static CoverSourceCache sInstance;
+
+    private final File file;
+    private final HashMap<String, Source> sources = new HashMap<>();
+    private boolean dirty;
+
+    private CoverSourceCache(File file) {
+        this.file = file;
+    }
+
+    static CoverSourceCache get(Context context) {
+        synchronized (INSTANCE_LOCK) {
+            if (sInstance == null) {
+                Context appCtx = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+                File dir = new File(DataDirectoryManager.getDataRoot(appCtx), GameLibraryIndex.DIR_NAME);
+                sInstance = new CoverSourceCache(new File(dir, FILE_NAME));
+                sInstance.load();
+            }
+            return sInstance;
+        }
+    }
+
+    static void reset() {
+        synchronized (INSTANCE_LOCK) {
+            sInstance = null;
+        }
+    }
+
+    /** The URL that last served this game's cover, with its validators; null if unresolved or missing. */
+    @Nullable
+    synchronized Source resolved(String baseName) {
+        Source s = sources.get(baseName.toLowerCase(Locale.US));
+        return s != null && s.url != null ? s : null;
+    }
+
+    /** True while an earlier probe found no cover at any candidate URL. */
+    synchronized boolean isKnownMissing(String baseName) {
+        Source s = sources.get(baseName.toLowerCase(Locale.US));
+        return s != null && s.url == null && s.missingUntil > System.currentTimeMillis();
+    }
+
+    synchronized void putResolved(String baseName, String url, @Nullable String etag, @Nullable String lastModified) {
+        Source s = new Source();
+        s.url = url;
+        s.etag = etag;
+        s.lastModified = lastModified;
+        s.checkedAt = System.currentTimeMillis();
+        sources.put(baseName.toLowerCase(Locale.US), s);
+        dirty = true;
+    }
+
+    synchronized void putMissing(String baseName) {
+        Source s = new Source();
+        s.checkedAt = System.currentTimeMillis();
+        s.missingUntil = s.checkedAt + MISSING_TTL_MS;
+        sources.put(baseName.toLowerCase(Locale.US), s);
+        dirty = true;
+    }
+
+    /** Records a 304: the cover on disk is still what {@code source.url} serves. */
+    synchronized void touch(String baseName, long now) {
+        Source s = sources.get(baseName.toLowerCase(Locale.US));
+        if (s != null && s.url != null) {
+            s.checkedAt = now;
+            dirty = true;
+        }
+    }
+
+    /** Forgets every resolution; the URLs were built from a template that is no longer in use. */
+    synchronized void clear() {
+        if (!sources.isEmpty()) {
+            sources.clear();
+            dirty = true;
+        }
+    }
+
+    void saveAsync() {
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+        }
+        try {
+            SAVE_EXECUTOR.execute(this::save);
+        } catch (Throwable ignored) {}
+    }
+
+    void save() {
+        Map<String, Source> snapshot;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            snapshot = new HashMap<>(sources);
+            dirty = false;
+        }
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Source> e : snapshot.entrySet()) {
+                Source s = e.getValue();
+                out.writeUTF(e.getKey());
+                writeNullable(out, s.url);
+                writeNullable(out, s.etag);
+                writeNullable(out, s.lastModified);
+                out.writeLong(s.checkedAt);
+                out.writeLong(s.missingUntil);
+            }
+        } catch (IOException e) {
+            temp.delete();
+            synchronized (this) { dirty = true; }
+            try { DebugLog.e(TAG, "Failed to write cover sources: " + e.getMessage()); } catch (Throwable ignored) {}
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            synchronized (this) { dirty = true; }
+        }
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                Source s = new Source();
+                s.url = readNullable(in);
+                s.etag = readNullable(in);
+                s.lastModified = readNullable(in);
+                s.checkedAt = in.readLong();
+                s.missingUntil = in.readLong();
+                sources.put(key, s);
+            }
+        } catch (IOException e) {
+            sources.clear();
+            try { DebugLog.e(TAG, "Failed to read cover sources: " + e.getMessage()); } catch (Throwable ignored) {}
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, @Nullable String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    @Nullable
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,430 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import kr.co.iefriends.pcsx2.util.DebugLog;
+
+/**
+ * Persistent game-library index stored under the data root.
+ * Entries are keyed by document URI and only trusted while the document's
+ * last-modified time and size are unchanged, so a rescan only re-probes new or changed files.
+ */
+final class GameLibraryIndex {
+    private static final String TAG = "LibraryIndex";
+    static final String DIR_NAME = "armsx2_library";
+    private static final String FILE_NAME = "library.idx";
+    private static final int MAGIC = 0x41584C49; // "AXLI"
+    // Older versions are dropped on load, which only costs one full rescan. Versions 3 and 4 lack
+    // only the manual cover table and the entry ids, and are still read.
+    private static final int VERSION = 5;
+    private static final int VERSION_WITHOUT_IDS = 4;
+    private static final int VERSION_WITHOUT_MANUAL_COVERS = 3;
+
+    private static final Object INSTANCE_LOCK = new Object();
+    private static GameLibraryIndex sInstance;
+
+    private static final ExecutorService SAVE_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "LibraryIndexSave");
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    static final class Record {
+        String rootUri;
+        String documentUri;
+        long id;
+        String documentId;
+        String title;
+        String serial;
+        String gameTitle;
+        String coverPath;
+        String volumeId;
+        String discDate;
+        long lastModified;
+        long size;
+        boolean metadataResolved;
+    }
+
+    private final File file;
+    // rootUri -> (documentUri -> record), insertion ordered so cached listings keep scan order
+    private final Map<String, LinkedHashMap<String, Record>> roots = new HashMap<>();
+    private boolean dirty;
+    // Cover table read from disk, held until CoverIndex claims it.
+    @Nullable private CoverIndex.Snapshot savedCovers;
+    // game key -> file name in the manual covers directory; see ManualCovers
+    private final HashMap<String, String> manualCovers = new HashMap<>();
+
+    private GameLibraryIndex(File file) {
+        this.file = file;
+    }
+
+    static GameLibraryIndex get(Context context) {
+        synchronized (INSTANCE_LOCK) {
+            if (sInstance == null) {
+                Context appCtx = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+                File dir = new File(DataDirectoryManager.getDataRoot(appCtx), DIR_NAME);
+                sInstance = new GameLibraryIndex(new File(dir, FILE_NAME));
+                sInstance.load();
+            }
+            return sInstance;
+        }
+    }
+
+    @Nullable
+    static GameLibraryIndex peek() {
+        synchronized (INSTANCE_LOCK) {
+            return sInstance;
+        }
+    }
+
+    /** Drops the loaded instance so the next {@link #get} re-reads from the (possibly moved) data root. */
+    static void reset() {
+        synchronized (INSTANCE_LOCK) {
+            sInstance = null;
+        }
+    }
+
+    synchronized List<MainActivity.GameEntry> entriesForRoot(Uri root) {
+        List<MainActivity.GameEntry> out = new ArrayList<>();
+        if (root == null) {
+            return out;
+        }
+        LinkedHashMap<String, Record> records = roots.get(root.toString());
+        if (records == null) {
+            return out;
+        }
+        for (Record r : records.values()) {
+            out.add(toEntry(r));
+        }
+        return out;
+    }
+
+    /** The indexed entry for a document under any root, or null if it was never scanned. */
+    @Nullable
+    synchronized MainActivity.GameEntry entryFor(Uri document) {
+        if (document == null) {
+            return null;
+        }
+        String documentUri = document.toString();
+        for (LinkedHashMap<String, Record> records : roots.values()) {
+            Record r = records.get(documentUri);
+            if (r != null) {
+                return toEntry(r);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copies cached metadata into {@code entry} when the index holds a record for the same
+     * document with an identical last-modified time and size.
+     *
+     * @return true if the entry was satisfied from the index and needs no probing.
+     */
+    synchronized boolean applyCached(Uri root, MainActivity.GameEntry entry) {
+        if (root == null || entry == null || entry.uri == null) {
+            return false;
+        }
+        LinkedHashMap<String, Record> records = roots.get(root.toString());
+        if (records == null) {
+            return false;
+        }
+        Record r = records.get(entry.uri.toString());
+        if (r == null || r.lastModified != entry.lastModified || r.size != entry.size) {
+            return false;
+        }
+        entry.serial = r.serial;
+        entry.gameTitle = r.gameTitle;
+        entry.coverPath = r.coverPath;
+        entry.volumeId = r.volumeId;
+        entry.discDate = r.discDate;
+        entry.metadataResolved = r.metadataResolved;
+        return true;
+    }
+
+    synchronized void replaceRoot(Uri root, List<MainActivity.GameEntry> entries) {
+        if (root == null) {
+            return;
+        }
+        String rootKey = root.toString();
+        LinkedHashMap<String, Record> records = new LinkedHashMap<>();
+        if (entries != null) {
+            for (MainActivity.GameEntry e : entries) {
+                if (e == null || e.uri == null) continue;
+                Record r = toRecord(rootKey, e);
+                records.put(r.documentUri, r);
+            }
+        }
+        roots.put(rootKey, records);
+        dirty = true;
+    }
+
+    /** Applies an incremental change under {@code root}: upserts {@code changed}, then drops {@code removed}. */
+    synchronized void applyChanges(Uri root, List<MainActivity.GameEntry> changed, List<Uri> removed) {
+        if (root == null) {
+            return;
+        }
+        String rootKey = root.toString();
+        LinkedHashMap<String, Record> records = roots.get(rootKey);
+        if (records == null) {
+            records = new LinkedHashMap<>();
+            roots.put(rootKey, records);
+        }
+        for (Uri uri : removed) {
+            if (uri != null) records.remove(uri.toString());
+        }
+        for (MainActivity.GameEntry e : changed) {
+            if (e == null || e.uri == null) continue;
+            Record r = toRecord(rootKey, e);
+            records.put(r.documentUri, r);
+        }
+        dirty = true;
+    }
+
+    /** Refreshes the stored metadata of an already indexed entry (serial, Redump name, cover). */
+    synchronized void update(MainActivity.GameEntry entry) {
+        if (entry == null || entry.uri == null) {
+            return;
+        }
+        String documentUri = entry.uri.toString();
+        for (Map.Entry<String, LinkedHashMap<String, Record>> root : roots.entrySet()) {
+            if (root.getValue().containsKey(documentUri)) {
+                root.getValue().put(documentUri, toRecord(root.getKey(), entry));
+                dirty = true;
+            }
+        }
+    }
+
+    @Nullable
+    synchronized CoverIndex.Snapshot takeSavedCovers() {
+        CoverIndex.Snapshot s = savedCovers;
+        savedCovers = null;
+        return s;
+    }
+
+    @Nullable
+    synchronized String manualCover(String gameKey) {
+        return manualCovers.get(gameKey);
+    }
+
+    /** Records the manual cover file for a game, or forgets it when {@code fileName} is null. @return the previous file name. */
+    @Nullable
+    synchronized String putManualCover(String gameKey, @Nullable String fileName) {
+        String previous = fileName != null ? manualCovers.put(gameKey, fileName) : manualCovers.remove(gameKey);
+        dirty = true;
+        return previous;
+    }
+
+    synchronized void markDirty() {
+        dirty = true;
+    }
+
+    void saveAsync() {
+        try {
+            SAVE_EXECUTOR.execute(this::save);
+        } catch (Throwable ignored) {}
+    }
+
+    void save() {
+        List<Record> snapshot;
+        Map<String, String> manual;
+        // Taken before our own lock; CoverIndex calls markDirty() while holding its lock.
+        CoverIndex liveCovers = CoverIndex.peek();
+        CoverIndex.Snapshot covers = liveCovers != null ? liveCovers.snapshot() : null;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            snapshot = new ArrayList<>();
+            for (LinkedHashMap<String, Record> records : roots.values()) {
+                snapshot.addAll(records.values());
+            }
+            if (covers == null) {
+                covers = savedCovers;
+            }
+            manual = new HashMap<>(manualCovers);
+            dirty = false;
+        }
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            try { DebugLog.e(TAG, "Failed to create index directory: " + parent); } catch (Throwable ignored) {}
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Record r : snapshot) {
+                out.writeUTF(r.rootUri);
+                out.writeUTF(r.documentUri);
+                out.writeLong(r.id);
+                writeNullable(out, r.documentId);
+                writeNullable(out, r.title);
+                writeNullable(out, r.serial);
+                writeNullable(out, r.gameTitle);
+                writeNullable(out, r.coverPath);
+                writeNullable(out, r.volumeId);
+                writeNullable(out, r.discDate);
+                out.writeLong(r.lastModified);
+                out.writeLong(r.size);
+                out.writeBoolean(r.metadataResolved);
+            }
+            CoverIndex.Snapshot.write(out, covers);
+            out.writeInt(manual.size());
+            for (Map.Entry<String, String> e : manual.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue());
+            }
+            out.flush();
+        } catch (IOException e) {
+            try { DebugLog.e(TAG, "Failed to write library index: " + e.getMessage()); } catch (Throwable ignored) {}
+            temp.delete();
+            synchronized (this) { dirty = true; }
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            synchronized (this) { dirty = true; }
+            try { DebugLog.e(TAG, "Failed to replace library index " + file); } catch (Throwable ignored) {}
+            return;
+        }
+        try { DebugLog.d(TAG, "Saved " + snapshot.size() + " library entries"); } catch (Throwable ignored) {}
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version != VERSION && version != VERSION_WITHOUT_IDS && version != VERSION_WITHOUT_MANUAL_COVERS) {
+                try { DebugLog.w(TAG, "Ignoring library index with unknown format"); } catch (Throwable ignored) {}
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Record r = new Record();
+                r.rootUri = in.readUTF();
+                r.documentUri = in.readUTF();
+                r.id = version == VERSION ? in.readLong() : MainActivity.GameEntry.identity(r.documentUri);
+                r.documentId = readNullable(in);
+                r.title = readNullable(in);
+                r.serial = readNullable(in);
+                r.gameTitle = readNullable(in);
+                r.coverPath = readNullable(in);
+                r.volumeId = readNullable(in);
+                r.discDate = readNullable(in);
+                r.lastModified = in.readLong();
+                r.size = in.readLong();
+                r.metadataResolved = in.readBoolean();
+                LinkedHashMap<String, Record> records = roots.get(r.rootUri);
+                if (records == null) {
+                    records = new LinkedHashMap<>();
+                    roots.put(r.rootUri, records);
+                }
+                records.put(r.documentUri, r);
+            }
+            savedCovers = CoverIndex.Snapshot.read(in);
+            if (version != VERSION_WITHOUT_MANUAL_COVERS) {
+                int manualCount = in.readInt();
+                for (int i = 0; i < manualCount; i++) {
+                    manualCovers.put(in.readUTF(), in.readUTF());
+                }
+            }
+            if (version != VERSION) {
+                // Rewritten in the current format on the next save.
+                dirty = true;
+            }
+            try { DebugLog.d(TAG, "Loaded " + count + " library entries"); } catch (Throwable ignored) {}
+        } catch (IOException e) {
+            roots.clear();
+            savedCovers = null;
+            manualCovers.clear();
+            try { DebugLog.e(TAG, "Failed to read library index: " + e.getMessage()); } catch (Throwable ignored) {}
+        }
+    }
+
+    private static MainActivity.GameEntry toEntry(Record r) {
+        MainActivity.GameEntry e = new MainActivity.GameEntry(r.title, Uri.parse(r.documentUri), r.id);
+        e.documentId = r.documentId;
+        e.lastModified = r.lastModified;
+        e.size = r.size;
+        e.serial = r.serial;
+        e.gameTitle = r.gameTitle;
+        e.coverPath = r.coverPath;
+        e.volumeId = r.volumeId;
+        e.discDate = r.discDate;
+        e.metadataResolved = r.metadataResolved;
+        return e;
+    }
+
+    private static Record toRecord(String rootKey, MainActivity.GameEntry e) {
+        Record r = new Record();
+        r.rootUri = rootKey;
+        r.documentUri = e.uri.toString();
+        r.id = e.id;
+        r.documentId = e.documentId;
+        r.title = e.title;
+        r.serial = e.serial;
+        r.gameTitle = e.gameTitle;
+        r.coverPath = e.coverPath;
+        r.volumeId = e.volumeId;
+        r.discDate = e.discDate;
+        r.lastModified = e.lastModified;
+        r.size = e.size;
+        r.metadataResolved = e.metadataResolved;
+        return r;
+    }
+
+    private static void writeNullable(DataOutputStream out, @Nullable String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    @Nullable
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.provider.DocumentsContract;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kr.co.iefriends.pcsx2.util.DebugLog;
+
+/**
+ * Walks a SAF tree and probes game images on bounded worker pools.
+ * Directory listing and file probing have separate concurrency limits so a slow
+ * ISO read never starves the listing of the remaining folders. Results are
+ * delivered on the main thread in small batches while the scan is running.
+ */
+final class GameScanEngine {
+    private static final String TAG = "GameScanEngine";
+    static final int DEFAULT_LIST_CONCURRENCY = 2;
+    static final int DEFAULT_PROBE_CONCURRENCY = 3;
+    static final int MAX_DEPTH = 3;
+    private static final long DELIVERY_INTERVAL_MS = 120L;
+
+    interface Listener {
+        /** Entries found since the previous call, in discovery order. */
+        void onEntriesFound(List<MainActivity.GameEntry> batch);
+
+        /** Every entry of the scan; not called when the session was cancelled. */
+        void onScanFinished(List<MainActivity.GameEntry> all);
+    }
+
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+
+    private final ContentResolver resolver;
+    private final ExecutorService listExecutor;
+    private final ExecutorService probeExecutor;
+
+    GameScanEngine(Context context, int listConcurrency, int probeConcurrency) {
+        this.resolver = context.getApplicationContext().getContentResolver();
+        this.listExecutor = newPool("GameScanList", Math.max(1, listConcurrency));
+        this.probeExecutor = newPool("GameScanProbe", Math.max(1, probeConcurrency));
+    }
+
+    GameScanEngine(Context context) {
+        this(context, DEFAULT_LIST_CONCURRENCY, DEFAULT_PROBE_CONCURRENCY);
+    }
+
+    /**
+     * Starts scanning {@code treeUri}. Cached entries from {@code index} are delivered without
+     * opening the file; everything else is probed on the probe pool.
+     */
+    Session scan(Uri treeUri, @Nullable GameLibraryIndex index, @Nullable Listener listener) {
+        Session session = new Session(treeUri, index, listener);
+        try {
+            String rootId = DocumentsContract.getTreeDocumentId(treeUri);
+            session.submitListing(rootId, 0);
+        } catch (Exception e) {
+            try { DebugLog.e(TAG, "Cannot scan " + treeUri + ": " + e.getMessage()); } catch (Throwable ignored) {}
+        }
+        session.taskDone();
+        return session;
+    }
+
+    /** Runs a scan to completion on the calling (background) thread. */
+    List<MainActivity.GameEntry> scanBlocking(Uri treeUri, @Nullable GameLibraryIndex index) {
+        return scan(treeUri, index, null).await();
+    }
+
+    final class Session {
+        private final Uri treeUri;
+        @Nullable private final GameLibraryIndex index;
+        @Nullable private final Listener listener;
+        // Starts at one for the scan() caller so the session cannot finish before the root listing is queued.
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final ConcurrentLinkedQueue<MainActivity.GameEntry> found = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<MainActivity.GameEntry> undelivered = new ConcurrentLinkedQueue<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean cancelled;
+        private boolean deliveryScheduled;
+
+        private final Runnable deliverRunnable = this::deliverBatch;
+
+        Session(Uri treeUri, @Nullable GameLibraryIndex index, @Nullable Listener listener) {
+            this.treeUri = treeUri;
+            this.index = index;
+            this.listener = listener;
+        }
+
+        void cancel() {
+            cancelled = true;
+            MAIN.removeCallbacks(deliverRunnable);
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        List<MainActivity.GameEntry> await() {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new ArrayList<>(found);
+        }
+
+        private void submitListing(String parentDocId, int depth) {
+            if (cancelled || depth > MAX_DEPTH) return;
+            pending.incrementAndGet();
+            try {
+                listExecutor.execute(() -> {
+                    try {
+                        listDirectory(parentDocId, depth);
+                    } finally {
+                        taskDone();
+                    }
+                });
+            } catch (Throwable t) {
+                taskDone();
+            }
+        }
+
+        private void submitProbe(MainActivity.GameEntry e) {
+            if (cancelled) return;
+            pending.incrementAndGet();
+            try {
+                probeExecutor.execute(() -> {
+                    try {
+                        if (cancelled) return;
+                        MainActivity.GameScanner.probeEntry(resolver, e);
+                        publish(e);
+                    } catch (Throwable t) {
+                        try { DebugLog.d(TAG, "Probe failed for " + e.title + ": " + t.getMessage()); } catch (Throwable ignored) {}
+                        publish(e);
+                    } finally {
+                        taskDone();
+                    }
+                });
+            } catch (Throwable t) {
+                publish(e);
+                taskDone();
+            }
+        }
+
+        private void listDirectory(String parentDocId, int depth) {
+            if (cancelled) return;
+            Uri children = DocumentsContract.buildChildDocumentsUriUsingTree(treeUri, parentDocId);
+            List<MainActivity.GameEntry> entries = new ArrayList<>();
+            Map<String, String> cueDocIds = new HashMap<>();
+            try (Cursor c = resolver.query(children, MainActivity.GameScanner.LIST_PROJECTION, null, null, null)) {
+                if (c == null) return;
+                while (c.moveToNext() && !cancelled) {
+                    if (MainActivity.GameScanner.isDirectoryMime(c.getString(2))) {
+                        submitListing(c.getString(0), depth + 1);
+                        continue;
+                    }
+                    if (MainActivity.GameScanner.isCueSheet(c.getString(1))) {
+                        cueDocIds.put(MainActivity.GameScanner.cueKey(c.getString(1)), c.getString(0));
+                        continue;
+                    }
+                    MainActivity.GameEntry e = MainActivity.GameScanner.entryFromCursor(treeUri, c);
+                    if (e != null) entries.add(e);
+                }
+            } catch (Exception ex) {
+                try { DebugLog.d(TAG, "Listing failed for " + parentDocId + ": " + ex.getMessage()); } catch (Throwable ignored) {}
+            }
+            // Cue sheets can be listed after their BIN, so pair them once the directory is complete.
+            MainActivity.GameScanner.attachCueSheets(treeUri, entries, cueDocIds);
+            for (MainActivity.GameEntry e : entries) {
+                if (cancelled) return;
+                if (index != null && index.applyCached(treeUri, e)) {
+                    publish(e);
+                    continue;
+                }
+                String fromName = MainActivity.GameScanner.parseSerialFromString(e.fileTitleNoExt());
+                if (fromName != null) e.serial = fromName;
+                if (MainActivity.GameScanner.needsContentProbe(e)) {
+                    submitProbe(e);
+                } else {
+                    publish(e);
+                }
+            }
+        }
+
+        private void publish(MainActivity.GameEntry e) {
+            if (cancelled) return;
+            found.add(e);
+            if (listener == null) return;
+            undelivered.add(e);
+            synchronized (this) {
+                if (deliveryScheduled) return;
+                deliveryScheduled = true;
+            }
+            MAIN.postDelayed(deliverRunnable, DELIVERY_INTERVAL_MS);
+        }
+
+        private void deliverBatch() {
+            synchronized (this) {
+                deliveryScheduled = false;
+            }
+            if (cancelled || listener == null) return;
+            List<MainActivity.GameEntry> batch = new ArrayList<>();
+            MainActivity.GameEntry e;
+            while ((e = undelivered.poll()) != null) {
+                batch.add(e);
+            }
+            if (!batch.isEmpty()) {
+                listener.onEntriesFound(batch);
+            }
+        }
+
+        private void taskDone() {
+            if (pending.decrementAndGet() != 0) return;
+            done.countDown();
+            if (listener == null || cancelled) return;
+            final List<MainActivity.GameEntry> all = new ArrayList<>(found);
+            MAIN.post(() -> {
+                if (cancelled) return;
+                MAIN.removeCallbacks(deliverRunnable);
+                deliverBatch();
+                listener.onScanFinished(all);
+            });
+        }
+    }
+
+    private static ExecutorService newPool(String name, int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 15L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }, name + "-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.view.KeyEvent;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * D-pad and controller navigation for the game grid. The target cell is computed from the grid
+ * position rather than left to the framework's focus search, and focus moves synchronously: a
+ * cell that is laid out is focused right away (the grid scrolls it into view), one that is not is
+ * scrolled to and focused when its view attaches. Presses that arrive before that happens start
+ * from the pending target, so a held direction never loses steps. When focus comes back to the
+ * grid, {@link #restoreFocus} returns it to the cell that had it last.
+ * <p>
+ * On Android TV the layout managers from {@link #newGridLayoutManager} lay out a row beyond each
+ * edge, so the next row is usually already there, and holding a direction speeds up to two and
+ * then four rows per key repeat.
+ */
+final class GridFocusNavigator implements RecyclerView.OnChildAttachStateChangeListener {
+    // Key repeats (about 20 per second) before a held up/down moves two, then four rows at a time.
+    private static final int REPEATS_BEFORE_FAST = 8;
+    private static final int REPEATS_BEFORE_FASTER = 24;
+    // A target that never attached (the list changed under it) is given up after this long.
+    private static final long PENDING_TIMEOUT_MS = 500L;
+
+    private final RecyclerView rv;
+    private final boolean tv;
+    private int pending = RecyclerView.NO_POSITION;
+    private long pendingSince;
+    private int lastFocused = RecyclerView.NO_POSITION;
+
+    GridFocusNavigator(RecyclerView rv, boolean tv) {
+        this.rv = rv;
+        this.tv = tv;
+        rv.addOnChildAttachStateChangeListener(this);
+        // Any cell that takes focus, by key, touch or the framework; focus leaving the grid keeps it.
+        rv.getViewTreeObserver().addOnGlobalFocusChangeListener((oldFocus, newFocus) -> {
+            if (newFocus != null && newFocus.getParent() == rv) {
+                int position = rv.getChildAdapterPosition(newFocus);
+                if (position != RecyclerView.NO_POSITION) lastFocused = position;
+            }
+        });
+    }
+
+    GridLayoutManager newGridLayoutManager(Context context, int span) {
+        return new GridLayoutManager(context, span) {
+            @Override
+            protected void calculateExtraLayoutSpace(@NonNull RecyclerView.State state, @NonNull int[] extraLayoutSpace) {
+                super.calculateExtraLayoutSpace(state, extraLayoutSpace);
+                addRowOfExtraSpace(this, extraLayoutSpace);
+            }
+        };
+    }
+
+    LinearLayoutManager newListLayoutManager(Context context) {
+        return new LinearLayoutManager(context) {
+            @Override
+            protected void calculateExtraLayoutSpace(@NonNull RecyclerView.State state, @NonNull int[] extraLayoutSpace) {
+                super.calculateExtraLayoutSpace(state, extraLayoutSpace);
+                addRowOfExtraSpace(this, extraLayoutSpace);
+            }
+        };
+    }
+
+    private void addRowOfExtraSpace(RecyclerView.LayoutManager lm, int[] extraLayoutSpace) {
+        if (!tv) {
+            return;
+        }
+        View first = lm.getChildCount() > 0 ? lm.getChildAt(0) : null;
+        int row = first != null && first.getHeight() > 0 ? first.getHeight() : lm.getHeight() / 3;
+        extraLayoutSpace[0] = Math.max(extraLayoutSpace[0], row);
+        extraLayoutSpace[1] = Math.max(extraLayoutSpace[1], row);
+    }
+
+    /** Key listener of a grid cell. */
+    boolean onKey(View cell, int keyCode, KeyEvent event) {
+        if (event.getAction() != KeyEvent.ACTION_DOWN) {
+            return false;
+        }
+        switch (keyCode) {
+            case KeyEvent.KEYCODE_BUTTON_A:
+            case KeyEvent.KEYCODE_BUTTON_START:
+            case KeyEvent.KEYCODE_ENTER:
+                cell.performClick();
+                return true;
+            case KeyEvent.KEYCODE_DPAD_LEFT:
+            case KeyEvent.KEYCODE_DPAD_RIGHT:
+            case KeyEvent.KEYCODE_DPAD_UP:
+            case KeyEvent.KEYCODE_DPAD_DOWN:
+                break;
+            default:
+                return false;
+        }
+        RecyclerView.LayoutManager lm = rv.getLayoutManager();
+        RecyclerView.Adapter<?> adapter = rv.getAdapter();
+        if (lm == null || adapter == null) {
+            return false;
+        }
+        int span = lm instanceof GridLayoutManager ? ((GridLayoutManager) lm).getSpanCount() : 1;
+        if (span == 1 && (keyCode == KeyEvent.KEYCODE_DPAD_LEFT || keyCode == KeyEvent.KEYCODE_DPAD_RIGHT)) {
+            // A list has nothing sideways; let the framework leave it.
+            return false;
+        }
+        int count = adapter.getItemCount();
+        if (pending != RecyclerView.NO_POSITION && SystemClock.uptimeMillis() - pendingSince > PENDING_TIMEOUT_MS) {
+            pending = RecyclerView.NO_POSITION;
+        }
+        int from = pending != RecyclerView.NO_POSITION ? pending : rv.getChildAdapterPosition(cell);
+        if (from == RecyclerView.NO_POSITION || from >= count) {
+            return false;
+        }
+        int rows = rowsPerPress(event);
+        int target = from;
+        switch (keyCode) {
+            case KeyEvent.KEYCODE_DPAD_LEFT:
+                if (from % span > 0) target = from - 1;
+                break;
+            case KeyEvent.KEYCODE_DPAD_RIGHT:
+                if (from + 1 < count) target = from + 1;
+                break;
+            case KeyEvent.KEYCODE_DPAD_UP:
+                target = from - rows * span;
+                // Stop on the first row rather than skip past it.
+                if (target < 0) target = from % span;
+                break;
+            case KeyEvent.KEYCODE_DPAD_DOWN:
+                target = from + rows * span;
+                // Same column on the last row that has it.
+                if (target >= count) target = from + ((count - 1 - from) / span) * span;
+                break;
+        }
+        if (target != from) {
+            focus(target);
+        }
+        // Consumed at the edges too, so focus stays in the grid.
+        return true;
+    }
+
+    /** Focuses the cell that was focused last, or the first one if none was or it is gone. */
+    void restoreFocus() {
+        RecyclerView.Adapter<?> adapter = rv.getAdapter();
+        int count = adapter != null ? adapter.getItemCount() : 0;
+        if (count == 0) {
+            return;
+        }
+        focus(lastFocused != RecyclerView.NO_POSITION && lastFocused < count ? lastFocused : 0);
+    }
+
+    /** Focuses the cell at {@code position} now if it is laid out, otherwise once it is. */
+    void focus(int position) {
+        RecyclerView.ViewHolder vh = rv.findViewHolderForAdapterPosition(position);
+        if (vh != null && vh.itemView.getParent() == rv) {
+            pending = RecyclerView.NO_POSITION;
+            vh.itemView.requestFocus();
+            return;
+        }
+        pending = position;
+        pendingSince = SystemClock.uptimeMillis();
+        // Jump, not smoothScrollToPosition: the cell has to attach in the next layout pass.
+        rv.scrollToPosition(position);
+    }
+
+    @Override
+    public void onChildViewAttachedToWindow(@NonNull View view) {
+        if (pending != RecyclerView.NO_POSITION && rv.getChildAdapterPosition(view) == pending) {
+            pending = RecyclerView.NO_POSITION;
+            view.requestFocus();
+        }
+    }
+
+    @Override
+    public void onChildViewDetachedFromWindow(@NonNull View view) {
+    }
+
+    private int rowsPerPress(KeyEvent event) {
+        if (!tv) {
+            return 1;
+        }
+        int repeats = event.getRepeatCount();
+        if (repeats >= REPEATS_BEFORE_FASTER) return 4;
+        if (repeats >= REPEATS_BEFORE_FAST) return 2;
+        return 1;
+    }
+}
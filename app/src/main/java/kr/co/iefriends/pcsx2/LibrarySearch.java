@@ -0,0 +1,371 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import kr.co.iefriends.pcsx2.MainActivity.GameEntry;
+import kr.co.iefriends.pcsx2.MainActivity.GamesAdapter.Row;
+import kr.co.iefriends.pcsx2.util.DebugLog;
+
+/**
+ * Filters the game list for the search box. Each game gets a normalised search key (file name,
+ * Redump name and serial; lower case, accents and punctuation dropped) and the keys are indexed by
+ * trigram, so a query only checks the games that contain all of its trigrams. The index is kept
+ * until the caller submits a new list version. A query that matches no game exactly falls back to
+ * a small edit distance against the words of each key, which catches typos and names typed letter
+ * by letter on a controller.
+ * <p>
+ * Typing is debounced and the filtering runs on one background thread; results come back on the
+ * main thread, and a result is dropped if a newer query or list was submitted meanwhile.
+ */
+final class LibrarySearch {
+    private static final String TAG = "LibrarySearch";
+    // Long enough to swallow key repeats and on-screen keyboard bursts, short enough to feel live.
+    static final long DEBOUNCE_MS = 150L;
+    // Query words shorter than this, or with digits (serials, sequel numbers), are only matched exactly.
+    private static final int FUZZY_MIN_LENGTH = 4;
+
+    interface Callback {
+        /** Main thread; {@code rows} is the filtered subset of the submitted rows, in their order. */
+        void onResults(List<Row> rows);
+    }
+
+    private static final ExecutorService sWorker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "LibrarySearch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Callback callback;
+    // Main thread only.
+    private int generation;
+    private Runnable pending;
+    // Worker thread only.
+    private Index index;
+    private final Map<GameEntry, Key> keys = new WeakHashMap<>();
+
+    LibrarySearch(Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Main thread. An empty query publishes {@code rows} right away; otherwise they are filtered in
+     * the background, after {@link #DEBOUNCE_MS} when {@code debounce} is set (the user is typing).
+     * {@code version} must change whenever the rows or their labels or serials do; the index built
+     * for a version is reused by every query against it.
+     */
+    void submit(List<Row> rows, int version, String query, boolean debounce) {
+        final int gen = ++generation;
+        if (pending != null) {
+            mainHandler.removeCallbacks(pending);
+            pending = null;
+        }
+        final String[] words = words(query);
+        if (words.length == 0) {
+            callback.onResults(rows);
+            return;
+        }
+        pending = () -> {
+            pending = null;
+            sWorker.execute(() -> {
+                List<Row> result = filter(rows, version, words);
+                mainHandler.post(() -> {
+                    if (gen == generation) {
+                        callback.onResults(result);
+                    }
+                });
+            });
+        };
+        if (debounce) {
+            mainHandler.postDelayed(pending, DEBOUNCE_MS);
+        } else {
+            pending.run();
+        }
+    }
+
+    private List<Row> filter(List<Row> rows, int version, String[] words) {
+        long start = SystemClock.elapsedRealtime();
+        if (index == null || index.version != version) {
+            index = new Index(rows, version, keysFor(rows));
+        }
+        List<Row> out = index.search(words);
+        try {
+            DebugLog.d(TAG, out.size() + " of " + rows.size() + " for \"" + TextUtils.join(" ", words) + "\" in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+        } catch (Throwable ignored) {}
+        return out;
+    }
+
+    /** Search keys for the rows, reusing those of games whose name and serial did not change. */
+    private String[] keysFor(List<Row> rows) {
+        String[] out = new String[rows.size()];
+        for (int i = 0; i < out.length; i++) {
+            Row row = rows.get(i);
+            Key key = keys.get(row.entry);
+            if (key == null || !TextUtils.equals(key.label, row.label) || !TextUtils.equals(key.serial, row.serial)) {
+                key = new Key(row);
+                keys.put(row.entry, key);
+            }
+            out[i] = key.text;
+        }
+        return out;
+    }
+
+    private static final class Key {
+        final String label;
+        final String serial;
+        final String text;
+
+        Key(Row row) {
+            label = row.label;
+            serial = row.serial;
+            StringBuilder sb = new StringBuilder();
+            GameEntry e = row.entry;
+            String file = normalize(e.title != null ? e.fileTitleNoExt() : null);
+            if (!file.isEmpty()) sb.append(file).append(' ');
+            if (!TextUtils.equals(label, e.title)) {
+                String name = normalize(label);
+                if (!name.isEmpty() && !name.equals(file)) sb.append(name).append(' ');
+            }
+            if (!TextUtils.isEmpty(serial)) {
+                appendWords(sb, serial);
+                // "SLUS-20312" is typed as "slus20312" just as often as with the dash.
+                String compact = normalize(serial).replace(" ", "");
+                if (!compact.isEmpty()) sb.append(compact).append(' ');
+            }
+            text = sb.toString().trim();
+        }
+
+        private static void appendWords(StringBuilder sb, String s) {
+            String n = normalize(s);
+            if (!n.isEmpty()) sb.append(n).append(' ');
+        }
+    }
+
+    /** Trigram postings over the search keys of one list version. */
+    private static final class Index {
+        final List<Row> rows;
+        final int version;
+        final String[] keys;
+        final Map<Long, int[]> postings = new HashMap<>();
+        // Scratch for the edit distance; the index is only used on the worker thread.
+        private int[] prevRow = new int[32];
+        private int[] curRow = new int[32];
+
+        Index(List<Row> rows, int version, String[] keys) {
+            this.rows = rows;
+            this.version = version;
+            this.keys = keys;
+            Map<Long, int[]> building = new HashMap<>();
+            for (int doc = 0; doc < keys.length; doc++) {
+                String k = keys[doc];
+                for (int i = 0; i + 3 <= k.length(); i++) {
+                    long gram = trigram(k, i);
+                    int[] list = building.get(gram);
+                    if (list == null) {
+                        list = new int[]{0, -1, -1, -1};
+                        building.put(gram, list);
+                    }
+                    // list[0] is the count; a game adds each trigram once.
+                    int n = list[0];
+                    if (n > 0 && list[n] == doc) continue;
+                    if (n + 1 == list.length) {
+                        list = Arrays.copyOf(list, list.length * 2);
+                        building.put(gram, list);
+                    }
+                    list[n + 1] = doc;
+                    list[0] = n + 1;
+                }
+            }
+            for (Map.Entry<Long, int[]> e : building.entrySet()) {
+                int[] list = e.getValue();
+                postings.put(e.getKey(), Arrays.copyOfRange(list, 1, list[0] + 1));
+            }
+        }
+
+        List<Row> search(String[] words) {
+            boolean[] candidate = null;
+            for (String w : words) {
+                if (w.length() < 3) continue;
+                boolean[] hit = new boolean[keys.length];
+                boolean first = true;
+                for (int i = 0; i + 3 <= w.length(); i++) {
+                    int[] docs = postings.get(trigram(w, i));
+                    if (docs == null) {
+                        Arrays.fill(hit, false);
+                        break;
+                    }
+                    if (first) {
+                        for (int d : docs) hit[d] = true;
+                        first = false;
+                    } else {
+                        boolean[] both = new boolean[keys.length];
+                        for (int d : docs) both[d] = hit[d];
+                        hit = both;
+                    }
+                }
+                if (candidate == null) {
+                    candidate = hit;
+                } else {
+                    for (int d = 0; d < hit.length; d++) candidate[d] &= hit[d];
+                }
+            }
+            List<Row> out = new ArrayList<>();
+            for (int d = 0; d < keys.length; d++) {
+                if ((candidate == null || candidate[d]) && containsAll(keys[d], words)) {
+                    out.add(rows.get(d));
+                }
+            }
+            if (!out.isEmpty()) {
+                return out;
+            }
+            // Nothing matched as typed; try close misses, in library order.
+            boolean canFuzz = false;
+            for (String w : words) canFuzz |= fuzzable(w);
+            if (!canFuzz) {
+                return out;
+            }
+            for (int d = 0; d < keys.length; d++) {
+                if (matchesFuzzy(keys[d], words)) out.add(rows.get(d));
+            }
+            return out;
+        }
+
+        private static boolean containsAll(String key, String[] words) {
+            for (String w : words) {
+                if (!key.contains(w)) return false;
+            }
+            return true;
+        }
+
+        /** Every word is in the key, or starts one of its words give or take one or two edits. */
+        private boolean matchesFuzzy(String key, String[] words) {
+            for (String w : words) {
+                if (key.contains(w)) continue;
+                if (!fuzzable(w)) return false;
+                int budget = w.length() >= 8 ? 2 : 1;
+                boolean found = false;
+                int from = 0;
+                while (from < key.length() && !found) {
+                    int end = key.indexOf(' ', from);
+                    if (end < 0) end = key.length();
+                    found = prefixDistance(w, key, from, end, budget) <= budget;
+                    from = end + 1;
+                }
+                if (!found) return false;
+            }
+            return true;
+        }
+
+        private static boolean fuzzable(String w) {
+            if (w.length() < FUZZY_MIN_LENGTH) return false;
+            for (int i = 0; i < w.length(); i++) {
+                if (Character.isDigit(w.charAt(i))) return false;
+            }
+            return true;
+        }
+
+        /**
+         * Levenshtein distance from {@code w} to the closest prefix of {@code key[from, end)}, so a
+         * half-typed word still matches; gives up once every cell exceeds {@code budget}.
+         */
+        private int prefixDistance(String w, String key, int from, int end, int budget) {
+            int n = end - from;
+            if (n + budget < w.length()) return budget + 1;
+            if (prevRow.length <= n) {
+                prevRow = new int[n + 1];
+                curRow = new int[n + 1];
+            }
+            int[] prev = prevRow;
+            int[] cur = curRow;
+            for (int j = 0; j <= n; j++) prev[j] = j;
+            for (int i = 1; i <= w.length(); i++) {
+                cur[0] = i;
+                int rowMin = i;
+                char c = w.charAt(i - 1);
+                for (int j = 1; j <= n; j++) {
+                    int cost = key.charAt(from + j - 1) == c ? 0 : 1;
+                    int v = Math.min(Math.min(cur[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                    cur[j] = v;
+                    if (v < rowMin) rowMin = v;
+                }
+                if (rowMin > budget) return budget + 1;
+                int[] t = prev;
+                prev = cur;
+                cur = t;
+            }
+            int best = budget + 1;
+            for (int j = 0; j <= n; j++) best = Math.min(best, prev[j]);
+            return best;
+        }
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    /** The query split the same way the keys are; empty for a blank query. */
+    static String[] words(String query) {
+        String n = normalize(query);
+        return n.isEmpty() ? new String[0] : n.split(" ");
+    }
+
+    /** Lower case letters and digits with accents removed, everything else folded into single spaces. */
+    static String normalize(String s) {
+        if (TextUtils.isEmpty(s)) return "";
+        String d = Normalizer.normalize(s, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(d.length());
+        boolean space = true;
+        for (int i = 0; i < d.length(); i++) {
+            char c = d.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+                space = false;
+            } else if (!space) {
+                sb.append(' ');
+                space = true;
+            }
+        }
+        int len = sb.length();
+        if (len > 0 && sb.charAt(len - 1) == ' ') sb.setLength(len - 1);
+        return sb.toString();
+    }
+}
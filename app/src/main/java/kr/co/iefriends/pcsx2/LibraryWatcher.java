@@ -0,0 +1,450 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.provider.DocumentsContract;
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import kr.co.iefriends.pcsx2.util.DebugLog;
+
+/**
+ * Keeps the library index current between full scans. Every directory of a game root (down to
+ * {@link GameScanEngine#MAX_DEPTH}) is watched with a {@link FileObserver} when the tree maps to a
+ * path we can read directly. Otherwise one {@link ContentObserver} per root, registered for
+ * descendants of the root's child-documents URI, receives the provider's change notifications and
+ * routes each to the folder it names; listing cursors are closed right away. A change relists
+ * only that directory and diffs it against the previous listing; a file that disappears while
+ * another with the same size and mtime appears is treated as a rename and keeps its metadata
+ * instead of being probed again.
+ */
+final class LibraryWatcher {
+    private static final String TAG = "LibraryWatcher";
+    private static final String EXTERNAL_STORAGE_AUTHORITY = "com.android.externalstorage.documents";
+    // Copies fire a burst of CREATE/MODIFY/CLOSE_WRITE; wait for the directory to settle.
+    private static final long DEBOUNCE_MS = 750L;
+    private static final int FILE_EVENTS = FileObserver.CREATE | FileObserver.DELETE | FileObserver.MOVED_FROM
+            | FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE | FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    interface Listener {
+        /** Main thread. {@code changed} holds new, renamed and rewritten games; the index is already updated. */
+        void onLibraryChanged(Uri root, List<MainActivity.GameEntry> changed, List<Uri> removed);
+    }
+
+    private final Context appContext;
+    private final ContentResolver resolver;
+    private final Listener listener;
+    private final Handler main = new Handler(Looper.getMainLooper());
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "LibraryWatcher");
+        t.setDaemon(true);
+        return t;
+    });
+    // Only touched on the worker thread.
+    private final Map<String, Dir> dirs = new HashMap<>();
+    private Set<Uri> roots = new LinkedHashSet<>();
+    // Provider-backed roots only.
+    private final Map<Uri, ContentObserver> rootObservers = new HashMap<>();
+    // Bumped by start/stop so stale debounced refreshes are dropped.
+    private volatile int generation;
+
+    LibraryWatcher(Context context, Listener listener) {
+        this.appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        this.resolver = appContext.getContentResolver();
+        this.listener = listener;
+    }
+
+    /** Watches {@code newRoots}, replacing the previous set; a no-op if the roots are unchanged. */
+    void start(Collection<Uri> newRoots) {
+        final Set<Uri> wanted = new LinkedHashSet<>(newRoots);
+        final int gen = ++generation;
+        worker.execute(() -> {
+            if (gen != generation || wanted.equals(roots)) return;
+            unwatchAll();
+            roots = wanted;
+            for (Uri root : wanted) {
+                try {
+                    String rootId = DocumentsContract.getTreeDocumentId(root);
+                    File path = directPath(root);
+                    if (path == null) observeProvider(root, rootId);
+                    watch(root, rootId, path, 0, null);
+                } catch (Throwable t) {
+                    try { DebugLog.d(TAG, "Cannot watch " + root + ": " + t.getMessage()); } catch (Throwable ignored) {}
+                }
+            }
+            try { DebugLog.d(TAG, "Watching " + dirs.size() + " folders in " + wanted.size() + " roots"); } catch (Throwable ignored) {}
+        });
+    }
+
+    /** Releases every observer and the worker thread; the watcher cannot be started again. */
+    void stop() {
+        ++generation;
+        worker.execute(() -> {
+            unwatchAll();
+            roots = new LinkedHashSet<>();
+        });
+        worker.shutdown();
+    }
+
+    /** Directory of a tree on local storage, when files there can be read without the provider. */
+    @Nullable
+    private File directPath(Uri root) {
+        if (!EXTERNAL_STORAGE_AUTHORITY.equals(root.getAuthority())) return null;
+        String path = DataDirectoryManager.resolveTreeUriToPath(appContext, root);
+        if (TextUtils.isEmpty(path)) return null;
+        File dir = new File(path);
+        if (!dir.isDirectory() || !DataDirectoryManager.canUseDirectFileAccess(dir)) return null;
+        return dir;
+    }
+
+    private static String key(Uri root, String docId) {
+        return root + "|" + docId;
+    }
+
+    /**
+     * Lists {@code docId}, records the listing as its baseline and watches it and its subfolders.
+     * When {@code appeared} is non-null the folder is new, so its games are reported as added.
+     */
+    private void watch(Uri root, String docId, @Nullable File path, int depth, @Nullable List<MainActivity.GameEntry> appeared) {
+        if (depth > GameScanEngine.MAX_DEPTH || dirs.containsKey(key(root, docId))) return;
+        Dir dir = new Dir(root, docId, path, depth);
+        dirs.put(dir.key, dir);
+        Listing listing = dir.list();
+        dir.games = listing.games;
+        dir.subdirs = listing.subdirs;
+        dir.observe();
+        if (appeared != null) {
+            for (MainActivity.GameEntry e : listing.games.values()) {
+                prepare(e, null);
+                appeared.add(e);
+            }
+        }
+        for (Map.Entry<String, File> sub : listing.subdirs.entrySet()) {
+            watch(root, sub.getKey(), sub.getValue(), depth + 1, appeared);
+        }
+    }
+
+    private void unwatch(Dir dir, @Nullable List<Uri> removed) {
+        dir.close();
+        dirs.remove(dir.key);
+        if (removed != null) {
+            for (MainActivity.GameEntry e : dir.games.values()) removed.add(e.uri);
+        }
+        for (String sub : dir.subdirs.keySet()) {
+            Dir child = dirs.get(key(dir.root, sub));
+            if (child != null) unwatch(child, removed);
+        }
+    }
+
+    private void unwatchAll() {
+        for (Dir dir : dirs.values()) dir.close();
+        dirs.clear();
+        for (ContentObserver observer : rootObservers.values()) {
+            try { resolver.unregisterContentObserver(observer); } catch (Throwable ignored) {}
+        }
+        rootObservers.clear();
+    }
+
+    private void observeProvider(Uri root, String rootId) {
+        ContentObserver observer = new ContentObserver(main) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, @Nullable Uri uri) {
+                if (!worker.isShutdown()) worker.execute(() -> dispatchProviderChange(root, uri));
+            }
+        };
+        resolver.registerContentObserver(DocumentsContract.buildChildDocumentsUriUsingTree(root, rootId), true, observer);
+        rootObservers.put(root, observer);
+    }
+
+    /** Worker thread. Relists the folder a notification names, or every folder of the root if it names none we watch. */
+    private void dispatchProviderChange(Uri root, @Nullable Uri uri) {
+        String docId = null;
+        if (uri != null) {
+            try { docId = DocumentsContract.getDocumentId(uri); } catch (Throwable ignored) {}
+        }
+        Dir dir = docId != null ? dirs.get(key(root, docId)) : null;
+        if (dir != null) {
+            dir.onChanged();
+            return;
+        }
+        for (Dir d : dirs.values()) {
+            if (d.root.equals(root)) d.onChanged();
+        }
+    }
+
+    private void refresh(Dir dir, int gen) {
+        if (gen != generation || dirs.get(dir.key) != dir) return;
+        Listing listing = dir.list();
+        List<MainActivity.GameEntry> changed = new ArrayList<>();
+        List<MainActivity.GameEntry> added = new ArrayList<>();
+        List<Uri> removed = new ArrayList<>();
+        Map<String, MainActivity.GameEntry> gone = new LinkedHashMap<>(dir.games);
+        Map<String, MainActivity.GameEntry> current = new LinkedHashMap<>();
+        for (MainActivity.GameEntry e : listing.games.values()) {
+            MainActivity.GameEntry before = gone.remove(e.documentId);
+            if (before != null && before.size == e.size && before.lastModified == e.lastModified) {
+                current.put(e.documentId, before);
+                continue;
+            }
+            if (before == null) {
+                added.add(e);
+            } else {
+                // Rewritten in place, e.g. a copy that was still in progress at the last listing.
+                prepare(e, null);
+                changed.add(e);
+            }
+            current.put(e.documentId, e);
+        }
+        // Pair each new file with a vanished one of identical size and mtime: a rename in place.
+        for (MainActivity.GameEntry e : added) {
+            MainActivity.GameEntry renamedFrom = null;
+            for (Iterator<MainActivity.GameEntry> it = gone.values().iterator(); it.hasNext(); ) {
+                MainActivity.GameEntry old = it.next();
+                if (old.size == e.size && old.lastModified == e.lastModified) {
+                    renamedFrom = old;
+                    it.remove();
+                    break;
+                }
+            }
+            if (renamedFrom != null) removed.add(renamedFrom.uri);
+            prepare(e, renamedFrom);
+            changed.add(e);
+        }
+        for (MainActivity.GameEntry old : gone.values()) removed.add(old.uri);
+        dir.games = current;
+
+        for (Map.Entry<String, File> sub : listing.subdirs.entrySet()) {
+            if (!dir.subdirs.containsKey(sub.getKey())) {
+                watch(dir.root, sub.getKey(), sub.getValue(), dir.depth + 1, changed);
+            }
+        }
+        for (String sub : dir.subdirs.keySet()) {
+            if (!listing.subdirs.containsKey(sub)) {
+                Dir child = dirs.get(key(dir.root, sub));
+                if (child != null) unwatch(child, removed);
+            }
+        }
+        dir.subdirs = listing.subdirs;
+        if (!dir.isWatching()) dir.observe();
+
+        if (changed.isEmpty() && removed.isEmpty()) return;
+        try { DebugLog.d(TAG, "Folder " + dir.docId + ": " + changed.size() + " changed, " + removed.size() + " removed"); } catch (Throwable ignored) {}
+        GameLibraryIndex index = GameLibraryIndex.get(appContext);
+        index.applyChanges(dir.root, changed, removed);
+        index.saveAsync();
+        main.post(() -> {
+            if (gen == generation) listener.onLibraryChanged(dir.root, changed, removed);
+        });
+    }
+
+    /** Fills in serial and volume info, from the renamed file, the index, or by probing the image. */
+    private void prepare(MainActivity.GameEntry e, @Nullable MainActivity.GameEntry renamedFrom) {
+        if (renamedFrom != null) {
+            e.serial = renamedFrom.serial;
+            e.gameTitle = renamedFrom.gameTitle;
+            e.coverPath = renamedFrom.coverPath;
+            e.volumeId = renamedFrom.volumeId;
+            e.discDate = renamedFrom.discDate;
+            e.metadataResolved = renamedFrom.metadataResolved;
+            return;
+        }
+        GameLibraryIndex index = GameLibraryIndex.get(appContext);
+        MainActivity.GameEntry cached = index.entryFor(e.uri);
+        if (cached != null && cached.size == e.size && cached.lastModified == e.lastModified) {
+            e.serial = cached.serial;
+            e.gameTitle = cached.gameTitle;
+            e.coverPath = cached.coverPath;
+            e.volumeId = cached.volumeId;
+            e.discDate = cached.discDate;
+            e.metadataResolved = cached.metadataResolved;
+            return;
+        }
+        String fromName = MainActivity.GameScanner.parseSerialFromString(e.fileTitleNoExt());
+        if (fromName != null) e.serial = fromName;
+        if (MainActivity.GameScanner.needsContentProbe(e)) {
+            try {
+                MainActivity.GameScanner.probeEntry(resolver, e);
+            } catch (Throwable t) {
+                try { DebugLog.d(TAG, "Probe failed for " + e.title + ": " + t.getMessage()); } catch (Throwable ignored) {}
+            }
+        }
+    }
+
+    private static final class Listing {
+        final Map<String, MainActivity.GameEntry> games = new LinkedHashMap<>();
+        // Subfolder document id -> its path in direct mode, null otherwise.
+        final Map<String, File> subdirs = new LinkedHashMap<>();
+    }
+
+    private final class Dir {
+        final Uri root;
+        final String docId;
+        final String key;
+        @Nullable final File path;
+        final int depth;
+        Map<String, MainActivity.GameEntry> games = new LinkedHashMap<>();
+        Map<String, File> subdirs = new LinkedHashMap<>();
+        @Nullable private FileObserver fileObserver;
+        private final Runnable refreshRunnable = () -> {
+            final int gen = generation;
+            if (!worker.isShutdown()) worker.execute(() -> refresh(this, gen));
+        };
+
+        Dir(Uri root, String docId, @Nullable File path, int depth) {
+            this.root = root;
+            this.docId = docId;
+            this.key = key(root, docId);
+            this.path = path;
+            this.depth = depth;
+        }
+
+        void onChanged() {
+            main.removeCallbacks(refreshRunnable);
+            main.postDelayed(refreshRunnable, DEBOUNCE_MS);
+        }
+
+        boolean isWatching() {
+            // Provider folders are covered by their root's observer.
+            return path == null || fileObserver != null;
+        }
+
+        Listing list() {
+            return path != null ? listDirect() : listProvider();
+        }
+
+        private Listing listDirect() {
+            Listing out = new Listing();
+            File[] files = path.listFiles();
+            if (files == null) return out;
+            Map<String, String> cueDocIds = new HashMap<>();
+            List<MainActivity.GameEntry> found = new ArrayList<>();
+            for (File f : files) {
+                String name = f.getName();
+                String childId = docId.endsWith(":") ? docId + name : docId + "/" + name;
+                if (f.isDirectory()) {
+                    out.subdirs.put(childId, f);
+                } else if (MainActivity.GameScanner.isCueSheet(name)) {
+                    cueDocIds.put(MainActivity.GameScanner.cueKey(name), childId);
+                } else {
+                    MainActivity.GameEntry e = MainActivity.GameScanner.entryFromListing(root, childId, name, null, f.lastModified(), f.length());
+                    if (e != null) found.add(e);
+                }
+            }
+            MainActivity.GameScanner.attachCueSheets(root, found, cueDocIds);
+            for (MainActivity.GameEntry e : found) out.games.put(e.documentId, e);
+            return out;
+        }
+
+        private Listing listProvider() {
+            Listing out = new Listing();
+            Uri children = DocumentsContract.buildChildDocumentsUriUsingTree(root, docId);
+            Map<String, String> cueDocIds = new HashMap<>();
+            List<MainActivity.GameEntry> found = new ArrayList<>();
+            try (Cursor c = resolver.query(children, MainActivity.GameScanner.LIST_PROJECTION, null, null, null)) {
+                if (c == null) return out;
+                while (c.moveToNext()) {
+                    if (MainActivity.GameScanner.isDirectoryMime(c.getString(2))) {
+                        out.subdirs.put(c.getString(0), null);
+                    } else if (MainActivity.GameScanner.isCueSheet(c.getString(1))) {
+                        cueDocIds.put(MainActivity.GameScanner.cueKey(c.getString(1)), c.getString(0));
+                    } else {
+                        MainActivity.GameEntry e = MainActivity.GameScanner.entryFromCursor(root, c);
+                        if (e != null) found.add(e);
+                    }
+                }
+            } catch (Exception ex) {
+                try { DebugLog.d(TAG, "Listing failed for " + docId + ": " + ex.getMessage()); } catch (Throwable ignored) {}
+            }
+            MainActivity.GameScanner.attachCueSheets(root, found, cueDocIds);
+            for (MainActivity.GameEntry e : found) out.games.put(e.documentId, e);
+            return out;
+        }
+
+        void observe() {
+            if (path != null) {
+                fileObserver = Build.VERSION.SDK_INT >= 29 ? new DirObserver(this, path) : new DirObserver(this, path.getPath());
+                fileObserver.startWatching();
+            }
+        }
+
+        void close() {
+            main.removeCallbacks(refreshRunnable);
+            if (fileObserver != null) {
+                fileObserver.stopWatching();
+                fileObserver = null;
+            }
+        }
+    }
+
+    private static final class DirObserver extends FileObserver {
+        private final Dir dir;
+
+        DirObserver(Dir dir, File path) {
+            super(path, FILE_EVENTS);
+            this.dir = dir;
+        }
+
+        @SuppressWarnings("deprecation")
+        DirObserver(Dir dir, String path) {
+            super(path, FILE_EVENTS);
+            this.dir = dir;
+        }
+
+        @Override
+        public void onEvent(int event, @Nullable String name) {
+            // Hidden and temporary files (including our own write probes) never hold games.
+            if (name != null && name.startsWith(".")) return;
+            dir.onChanged();
+        }
+    }
+}
@@ -46,6 +46,7 @@ import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.IdRes;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
@@ -54,12 +55,21 @@ import androidx.core.view.WindowCompat;
 import androidx.core.view.WindowInsetsCompat;
 import androidx.core.view.WindowInsetsControllerCompat;
 
+import kr.co.iefriends.pcsx2.util.BitmapCache;
 import kr.co.iefriends.pcsx2.util.DebugLog;
 import kr.co.iefriends.pcsx2.util.DeviceProfiles;
+import kr.co.iefriends.pcsx2.util.NetworkState;
 import kr.co.iefriends.pcsx2.input.ControllerMappingManager;
+import kr.co.iefriends.pcsx2.disc.CdImageProber;
+import kr.co.iefriends.pcsx2.disc.ChdReader;
+import kr.co.iefriends.pcsx2.disc.DiscReader;
+import kr.co.iefriends.pcsx2.disc.GzipDiscReader;
+import kr.co.iefriends.pcsx2.disc.Iso9660Walker;
+import kr.co.iefriends.pcsx2.disc.SafRandomAccessReader;
 import androidx.core.view.GravityCompat;
 import androidx.drawerlayout.widget.DrawerLayout;
 import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.navigation.NavigationView;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
@@ -139,13 +149,32 @@ public class MainActivity extends AppCompatActivity {
     private android.widget.ImageView bgImage;
     private RecyclerView rvGames;
     private GridLayoutManager gamesGridLayoutManager;
+    private GridFocusNavigator gridNavigator;
     private SpacingDecoration gameSpacingDecoration;
     private TextView tvEmpty;
     private GamesAdapter gamesAdapter;
     private boolean listMode = false;
     private Uri gamesFolderUri;
+    private int gamesScanGeneration = 0;
+    private GameScanEngine.Session activeScan;
+    private LibraryWatcher libraryWatcher;
+    private static GameScanEngine sScanEngine;
     private final Object coverPrefetchLock = new Object();
+    private final MetadataResolveQueue.Listener metadataResolveListener = new MetadataResolveQueue.Listener() {
+        @Override public void onProgress(int done, int total) {
+            androidx.appcompat.widget.Toolbar toolbar = findViewById(R.id.toolbar);
+            if (toolbar == null) return;
+            toolbar.setSubtitle(total > 0 ? getString(R.string.metadata_resolve_progress, done, total) : null);
+            MenuItem cancel = toolbar.getMenu().findItem(R.id.action_cancel_metadata);
+            if (cancel != null) cancel.setVisible(total > 0);
+        }
+
+        @Override public void onResolved(GameEntry entry) {
+            if (gamesAdapter != null) gamesAdapter.applyMetadata(entry);
+        }
+    };
     private boolean coverPrefetchRunning;
+    private boolean coverImportRunning;
     private boolean storagePromptShown = false;
     private String pendingChdCachePath;
     private String pendingChdDisplayName;
@@ -219,7 +248,7 @@ public class MainActivity extends AppCompatActivity {
         return dir;
     }
 
-    private static File getCoversCacheDir(Context ctx) {
+    static File getCoversCacheDir(Context ctx) {
         if (ctx == null) {
             return null;
         }
@@ -303,10 +332,19 @@ public class MainActivity extends AppCompatActivity {
     etSearch = findViewById(R.id.et_search);
     bgImage = findViewById(R.id.bg_image);
     if (rvGames != null) {
-        gamesGridLayoutManager = new GridLayoutManager(this, getGameGridSpanCount());
+        gridNavigator = new GridFocusNavigator(rvGames, DeviceProfiles.isAndroidTV(this));
+        gamesGridLayoutManager = gridNavigator.newGridLayoutManager(this, getGameGridSpanCount());
         rvGames.setLayoutManager(gamesGridLayoutManager);
         gamesAdapter = new GamesAdapter(new ArrayList<>(), entry -> onGameSelected(entry));
+        gamesAdapter.setNavigator(gridNavigator);
         rvGames.setAdapter(gamesAdapter);
+        gamesAdapter.setPrefetchRows(getSharedPreferences(PREFS, MODE_PRIVATE).getInt(PREF_COVER_PREFETCH_ROWS, DEFAULT_COVER_PREFETCH_ROWS));
+        rvGames.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                gamesAdapter.prefetchAhead(rv, dy);
+            }
+        });
+        migrateManualCovers();
         // Controller navigation
     rvGames.setFocusable(true);
     rvGames.setFocusableInTouchMode(true);
@@ -314,11 +352,8 @@ public class MainActivity extends AppCompatActivity {
         gameSpacingDecoration = new SpacingDecoration(getResources().getDimensionPixelSize(R.dimen.game_selector_tile_spacing));
         rvGames.addItemDecoration(gameSpacingDecoration);
         rvGames.setOnFocusChangeListener((v, hasFocus) -> {
-            if (hasFocus && gamesAdapter.getItemCount() > 0) {
-                rvGames.post(() -> {
-                    RecyclerView.ViewHolder vh = rvGames.findViewHolderForAdapterPosition(0);
-                    if (vh != null) vh.itemView.requestFocus();
-                });
+            if (hasFocus) {
+                gridNavigator.restoreFocus();
             }
         });
         applyGameGridConfig();
@@ -330,7 +365,7 @@ public class MainActivity extends AppCompatActivity {
                 @Override public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
                 @Override public void onTextChanged(CharSequence s, int start, int before, int count) {}
                 @Override public void afterTextChanged(android.text.Editable s) {
-                    if (gamesAdapter != null) gamesAdapter.setFilter(s != null ? s.toString() : "");
+                    if (gamesAdapter != null) gamesAdapter.setFilter(s != null ? s.toString() : "", true);
                 }
             });
         }
@@ -383,11 +418,11 @@ public class MainActivity extends AppCompatActivity {
                         listMode = !listMode;
                         if (rvGames != null) {
                             if (listMode) {
-                                rvGames.setLayoutManager(new androidx.recyclerview.widget.LinearLayoutManager(this));
+                                rvGames.setLayoutManager(gridNavigator.newListLayoutManager(this));
                                 item.setIcon(R.drawable.ic_view_grid_24);
                             } else {
                                 if (gamesGridLayoutManager == null) {
-                                    gamesGridLayoutManager = new GridLayoutManager(this, getGameGridSpanCount());
+                                    gamesGridLayoutManager = gridNavigator.newGridLayoutManager(this, getGameGridSpanCount());
                                 }
                                 gamesGridLayoutManager.setSpanCount(getGameGridSpanCount());
                                 rvGames.setLayoutManager(gamesGridLayoutManager);
@@ -396,6 +431,9 @@ public class MainActivity extends AppCompatActivity {
                             if (gamesAdapter != null) gamesAdapter.setListMode(listMode);
                         }
                         return true;
+                    } else if (itemId == R.id.action_cancel_metadata) {
+                        MetadataResolveQueue.get(this).cancel();
+                        return true;
                     } else if (itemId == R.id.action_open_rn) {
                         if (!BuildConfig.ENABLE_RN) {
                             return true;
@@ -430,6 +468,8 @@ public class MainActivity extends AppCompatActivity {
             else try { Toast.makeText(this, "Choose a games folder first", Toast.LENGTH_SHORT).show(); } catch (Throwable ignored) {}
         } else if (id == R.id.menu_covers) {
             promptForCoversUrl();
+        } else if (id == R.id.menu_import_covers) {
+            launchCoverPackPicker();
         } else if (id == R.id.menu_clear_cover_url) {
             setCoversUrlTemplate("");
             try { Toast.makeText(this, "Cover URL cleared.", Toast.LENGTH_SHORT).show(); } catch (Throwable ignored) {}
@@ -469,6 +509,7 @@ public class MainActivity extends AppCompatActivity {
 
     showHome(true);
     if (tvEmpty != null) tvEmpty.setVisibility(View.VISIBLE);
+    MetadataResolveQueue.get(this).setListener(metadataResolveListener);
 
     try {
         android.content.SharedPreferences sp = getSharedPreferences(PREFS, Context.MODE_PRIVATE);
@@ -476,6 +517,7 @@ public class MainActivity extends AppCompatActivity {
         if (saved != null) {
             gamesFolderUri = Uri.parse(saved);
             scanGamesFolder(gamesFolderUri);
+            MetadataResolveQueue.get(this).resume();
         }
         applySavedBackground();
     } catch (Throwable ignored) {}
@@ -509,27 +551,82 @@ public class MainActivity extends AppCompatActivity {
 
     // region Covers
     private static final String PREF_COVERS_URL = "covers_url_template";
-    private static final String PREF_MANUAL_COVER_PREFIX = "manual_cover:"; 
+    // Manual covers of older versions, as content URIs; moved into ManualCovers on start.
+    private static final String PREF_MANUAL_COVER_PREFIX = "manual_cover:";
+    // Rows of covers loaded ahead of the scroll direction; not exposed in settings.
+    private static final String PREF_COVER_PREFETCH_ROWS = "cover_prefetch_rows";
+    static final int DEFAULT_COVER_PREFETCH_ROWS = 2;
+    // Read once; every cover bind asks for it. Only setCoversUrlTemplate changes the preference.
+    private String coversUrlTemplate;
     private String getCoversUrlTemplate() {
-        return getSharedPreferences(PREFS, MODE_PRIVATE).getString(PREF_COVERS_URL, "");
+        if (coversUrlTemplate == null) {
+            coversUrlTemplate = getSharedPreferences(PREFS, MODE_PRIVATE).getString(PREF_COVERS_URL, "");
+        }
+        return coversUrlTemplate;
     }
     private void setCoversUrlTemplate(String s) {
-        getSharedPreferences(PREFS, MODE_PRIVATE).edit().putString(PREF_COVERS_URL, s == null ? "" : s).apply();
-    }
-    private String getManualCoverUri(String gameKey) {
-        try { return getSharedPreferences(PREFS, MODE_PRIVATE).getString(PREF_MANUAL_COVER_PREFIX + gameKey, null); } catch (Throwable ignored) { return null; }
+        String value = s == null ? "" : s;
+        if (value.equals(getCoversUrlTemplate())) {
+            return;
+        }
+        coversUrlTemplate = value;
+        getSharedPreferences(PREFS, MODE_PRIVATE).edit().putString(PREF_COVERS_URL, value).apply();
+        // Resolved URLs and known-missing games came from the old template, and so did the thumbnails.
+        CoverSourceCache sources = CoverSourceCache.get(this);
+        sources.clear();
+        sources.saveAsync();
+        ThumbnailCache thumbs = ThumbnailCache.get(this);
+        if (thumbs != null) {
+            thumbs.clearAsync();
+        }
+    }
+    /** Path of the game's copied manual cover; an in-memory lookup, safe on the UI thread. */
+    private String getManualCoverPath(String gameKey) {
+        ManualCovers manual = ManualCovers.get(this);
+        return manual != null ? manual.path(gameKey) : null;
+    }
+    private void setManualCover(String gameKey, Uri image) {
+        final int thumbWidth = gamesAdapter != null ? gamesAdapter.coverTargetWidth(this) : 0;
+        final int thumbHeight = gamesAdapter != null ? gamesAdapter.coverTargetHeight(this) : 0;
+        new Thread(() -> {
+            ManualCovers manual = ManualCovers.get(this);
+            File stored = manual != null ? manual.store(gameKey, image) : null;
+            if (stored != null) {
+                manual.prepareThumbnail(stored, thumbWidth, thumbHeight);
+                GameLibraryIndex.get(this).saveAsync();
+            }
+            runOnUiThread(() -> {
+                if (stored == null) {
+                    try { Toast.makeText(this, "Unable to use that image as a cover.", Toast.LENGTH_SHORT).show(); } catch (Throwable ignored) {}
+                    return;
+                }
+                GamesAdapter.clearLocalCoverCache();
+                if (gamesFolderUri != null) scanGamesFolder(gamesFolderUri);
+            });
+        }, "ManualCover").start();
     }
-    private void setManualCoverUri(String gameKey, String uri) {
+    private void removeManualCover(String gameKey) {
         try {
-            getSharedPreferences(PREFS, MODE_PRIVATE).edit().putString(PREF_MANUAL_COVER_PREFIX + gameKey, uri).apply();
+            ManualCovers manual = ManualCovers.get(this);
+            if (manual != null) {
+                manual.remove(gameKey);
+                GameLibraryIndex.get(this).saveAsync();
+            }
             GamesAdapter.clearLocalCoverCache();
         } catch (Throwable ignored) {}
     }
-    private void removeManualCoverUri(String gameKey) {
-        try {
-            getSharedPreferences(PREFS, MODE_PRIVATE).edit().remove(PREF_MANUAL_COVER_PREFIX + gameKey).apply();
-            GamesAdapter.clearLocalCoverCache();
-        } catch (Throwable ignored) {}
+    /** Copies manual covers kept as preference URIs by older versions; runs once, off the UI thread. */
+    private void migrateManualCovers() {
+        final android.content.SharedPreferences prefs = getSharedPreferences(PREFS, MODE_PRIVATE);
+        new Thread(() -> {
+            ManualCovers manual = ManualCovers.get(this);
+            if (manual != null && manual.migrate(prefs, PREF_MANUAL_COVER_PREFIX) > 0) {
+                runOnUiThread(() -> {
+                    GamesAdapter.clearLocalCoverCache();
+                    if (gamesAdapter != null) gamesAdapter.refreshCovers();
+                });
+            }
+        }, "ManualCoverMigration").start();
     }
     private void promptForCoversUrl() {
         View dialogView = LayoutInflater.from(this).inflate(R.layout.dialog_cover_template, null);
@@ -598,17 +695,36 @@ public class MainActivity extends AppCompatActivity {
             coverPrefetchRunning = true;
         }
         try { Toast.makeText(this, R.string.cover_prefetch_start, Toast.LENGTH_SHORT).show(); } catch (Throwable ignored) {}
-            new Thread(() -> {
-                int downloaded = 0;
-                try {
-                    for (Uri root : roots) {
-                    downloaded += prefetchCoversForRoot(root, template, cacheDir);
+        new Thread(() -> {
+            int downloaded = 0;
+            try {
+                List<CoverDownloader.Job> jobs = new ArrayList<>();
+                Set<String> baseNames = new HashSet<>();
+                for (Uri root : roots) {
+                    collectCoverJobs(root, template, jobs, baseNames);
+                }
+                CoverDownloader downloader = new CoverDownloader(this, new CoverDownloader.Listener() {
+                    @Override public void onStored(GameEntry entry, File file) {
+                        GamesAdapter.registerCachedCover(entry, file);
                     }
-                } finally {
-                    synchronized (coverPrefetchLock) {
-                        coverPrefetchRunning = false;
+
+                    @Override public void onProgress(int done, int total) {
+                        runOnUiThread(() -> {
+                            androidx.appcompat.widget.Toolbar toolbar = findViewById(R.id.toolbar);
+                            if (toolbar != null) {
+                                toolbar.setSubtitle(done < total ? getString(R.string.cover_prefetch_progress, done, total) : null);
+                            }
+                        });
                     }
+                });
+                downloaded = downloader.run(jobs);
+            } catch (InterruptedException ignored) {
+            } finally {
+                synchronized (coverPrefetchLock) {
+                    coverPrefetchRunning = false;
+                }
             }
+            GameLibraryIndex.get(this).saveAsync();
             final int total = downloaded;
             runOnUiThread(() -> {
                 try {
@@ -622,54 +738,61 @@ public class MainActivity extends AppCompatActivity {
         }, "CoverPrefetch").start();
     }
 
-    private int prefetchCoversForRoot(Uri root, String template, File cacheDir) {
+    /** Scans {@code root} and adds one download job per cover base name not seen yet. */
+    private void collectCoverJobs(Uri root, String template, List<CoverDownloader.Job> jobs, Set<String> baseNames) {
         if (root == null) {
-            return 0;
-        }
-        if (cacheDir == null) {
-            return 0;
+            return;
         }
-        List<GameEntry> entries = GameScanner.scanFolder(this, root);
+        GameLibraryIndex index = GameLibraryIndex.get(this);
+        List<GameEntry> entries = getScanEngine(this).scanBlocking(root, index);
+        sortGameEntries(entries);
         if (entries == null || entries.isEmpty()) {
-            return 0;
+            return;
         }
         resolveMetadataForEntries(entries);
-        int downloaded = 0;
-        Set<String> attempted = new HashSet<>();
+        index.replaceRoot(root, entries);
         for (GameEntry entry : entries) {
-            if (ensureCoverCachedForEntry(cacheDir, entry, template, attempted)) {
-                downloaded++;
+            List<String> urls = coverCandidateUrls(entry, template);
+            String baseName = computeCoverBaseName(entry);
+            if (urls.isEmpty() || TextUtils.isEmpty(baseName)) {
+                continue;
+            }
+            // Discs of one game share a cover file; fetch it once.
+            if (!baseNames.add(baseName.toLowerCase(Locale.US))) {
+                continue;
             }
+            File existing = findExistingCoverFile(this, baseName);
+            jobs.add(new CoverDownloader.Job(entry, baseName, urls,
+                    existing != null && existing.length() > 0 ? existing : null));
         }
-        return downloaded;
     }
 
     private void resolveMetadataForEntries(List<GameEntry> entries) {
         if (entries == null || entries.isEmpty()) {
             return;
         }
-        android.content.ContentResolver cr = getContentResolver();
-        for (GameEntry ge : entries) {
-            if (ge == null || ge.uri == null) {
-                continue;
-            }
-            try {
-                boolean needsSerial = TextUtils.isEmpty(ge.serial);
-                boolean needsTitle = TextUtils.isEmpty(ge.gameTitle);
-                if (!needsSerial && !needsTitle) {
-                    continue;
-                }
-                RedumpDB.Result rd = RedumpDB.lookupByFile(cr, ge.uri);
-                if (rd != null) {
-                    if (needsSerial && !TextUtils.isEmpty(rd.serial)) {
-                        ge.serial = rd.serial;
-                    }
-                    if (needsTitle && !TextUtils.isEmpty(rd.name)) {
-                        ge.gameTitle = rd.name;
-                    }
-                }
-            } catch (Throwable ignored) {}
+        try {
+            MetadataResolveQueue.get(this).resolveBlocking(entries);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** {@link #buildCoverCandidateUrls}, built once per entry until its template, serial or title changes. */
+    private static List<String> coverCandidateUrls(GameEntry entry, String template) {
+        if (entry == null || TextUtils.isEmpty(template)) {
+            return Collections.emptyList();
+        }
+        GameEntry.CoverUrls cached = entry.coverUrls;
+        if (cached != null && cached.template.equals(template)
+                && TextUtils.equals(cached.serial, entry.serial) && TextUtils.equals(cached.gameTitle, entry.gameTitle)) {
+            return cached.urls;
         }
+        String serial = entry.serial;
+        String gameTitle = entry.gameTitle;
+        List<String> urls = Collections.unmodifiableList(buildCoverCandidateUrls(entry, template));
+        entry.coverUrls = new GameEntry.CoverUrls(template, serial, gameTitle, urls);
+        return urls;
     }
 
     private static List<String> buildCoverCandidateUrls(GameEntry entry, String template) {
@@ -759,7 +882,7 @@ public class MainActivity extends AppCompatActivity {
         return new ArrayList<>(set);
     }
 
-    private static String sanitizeCoverFileComponent(String input) {
+    static String sanitizeCoverFileComponent(String input) {
         if (TextUtils.isEmpty(input)) {
             return "";
         }
@@ -790,28 +913,15 @@ public class MainActivity extends AppCompatActivity {
         return sanitized;
     }
 
-    private static File findExistingCoverFile(File dir, String baseName) {
-        if (dir == null || TextUtils.isEmpty(baseName)) {
-            return null;
-        }
-        String prefix = baseName.toLowerCase(Locale.US);
-        File[] files = dir.listFiles();
-        if (files == null) {
+    private static File findExistingCoverFile(Context ctx, String baseName) {
+        if (TextUtils.isEmpty(baseName)) {
             return null;
         }
-        for (File child : files) {
-            if (child == null || !child.isFile()) continue;
-            String name = child.getName();
-            if (name == null) continue;
-            String lower = name.toLowerCase(Locale.US);
-            if (lower.equals(prefix) || lower.startsWith(prefix + ".")) {
-                return child;
-            }
-        }
-        return null;
+        CoverIndex index = CoverIndex.get(ctx);
+        return index != null ? index.find(baseName) : null;
     }
 
-    private static String guessImageExtension(String url, String contentType) {
+    static String guessImageExtension(String url, String contentType) {
         if (contentType != null) {
             String type = contentType.toLowerCase(Locale.US);
             if (type.contains("png")) return ".png";
@@ -836,92 +946,6 @@ public class MainActivity extends AppCompatActivity {
         return ".jpg";
     }
 
-    private boolean downloadCoverToDirectory(File coversDir, String url, String baseName) {
-        HttpURLConnection connection = null;
-        InputStream in = null;
-        OutputStream out = null;
-        try {
-            connection = (HttpURLConnection) new URL(url).openConnection();
-            connection.setConnectTimeout(4000);
-            connection.setReadTimeout(6000);
-            connection.setInstanceFollowRedirects(true);
-            connection.setRequestMethod("GET");
-            int code = connection.getResponseCode();
-            if (code != HttpURLConnection.HTTP_OK) {
-                return false;
-            }
-            String extension = guessImageExtension(url, connection.getContentType());
-            String fileName = baseName + extension;
-            File existing = findExistingCoverFile(coversDir, baseName);
-            if (existing != null && existing.length() > 0) {
-                return false;
-            }
-            if (existing != null) {
-                if (!existing.delete()) {
-                    return false;
-                }
-            }
-            File file = new File(coversDir, fileName);
-            File parent = file.getParentFile();
-            if (parent != null && !parent.exists() && !parent.mkdirs()) {
-                return false;
-            }
-            out = new FileOutputStream(file);
-            in = connection.getInputStream();
-            byte[] buffer = new byte[8192];
-            int read;
-            while ((read = in.read(buffer)) != -1) {
-                out.write(buffer, 0, read);
-            }
-            out.flush();
-            return true;
-        } catch (Exception ignored) {
-            return false;
-        } finally {
-            if (in != null) {
-                try { in.close(); } catch (IOException ignored) {}
-            }
-            if (out != null) {
-                try { out.close(); } catch (IOException ignored) {}
-            }
-            if (connection != null) {
-                connection.disconnect();
-            }
-        }
-    }
-
-    private boolean ensureCoverCachedForEntry(File coversDir, GameEntry entry, String template, Set<String> attemptedUrls) {
-        List<String> urls = buildCoverCandidateUrls(entry, template);
-        if (urls.isEmpty()) {
-            return false;
-        }
-        String baseName = computeCoverBaseName(entry);
-        if (TextUtils.isEmpty(baseName)) {
-            return false;
-        }
-        File existing = findExistingCoverFile(coversDir, baseName);
-        if (existing != null && existing.length() > 0) {
-            return false;
-        }
-        for (String url : urls) {
-            if (TextUtils.isEmpty(url) || url.contains("${")) {
-                continue;
-            }
-            if (attemptedUrls != null && !attemptedUrls.add(url)) {
-                continue;
-            }
-            if (downloadCoverToDirectory(coversDir, url, baseName)) {
-                File stored = MainActivity.findExistingCoverFile(coversDir, baseName);
-                if (stored != null && stored.isFile()) {
-                    GamesAdapter.registerCachedCover(entry, stored);
-                }
-                try { DebugLog.d("Covers", "Cached cover for " + baseName + " from " + url); } catch (Throwable ignored) {}
-                return true;
-            }
-        }
-        return false;
-    }
-
     private LinkedHashSet<Uri> collectGameRootUris() {
         LinkedHashSet<Uri> roots = new LinkedHashSet<>();
         if (gamesFolderUri != null) {
@@ -943,26 +967,7 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private static boolean hasInternetConnection(Context context) {
-        if (context == null) {
-            return false;
-        }
-        try {
-            android.net.ConnectivityManager cm = (android.net.ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-            if (cm == null) return false;
-            if (android.os.Build.VERSION.SDK_INT >= 23) {
-                android.net.Network nw = cm.getActiveNetwork();
-                if (nw == null) return false;
-                android.net.NetworkCapabilities nc = cm.getNetworkCapabilities(nw);
-                return nc != null && (nc.hasTransport(android.net.NetworkCapabilities.TRANSPORT_WIFI)
-                        || nc.hasTransport(android.net.NetworkCapabilities.TRANSPORT_CELLULAR)
-                        || nc.hasTransport(android.net.NetworkCapabilities.TRANSPORT_ETHERNET));
-            } else {
-                android.net.NetworkInfo ni = cm.getActiveNetworkInfo();
-                return ni != null && ni.isConnected();
-            }
-        } catch (Throwable ignored) {
-            return false;
-        }
+        return NetworkState.isOnline(context);
     }
 
     private boolean hasInternetConnection() {
@@ -986,15 +991,11 @@ public class MainActivity extends AppCompatActivity {
                     Intent data = result.getData();
                     Uri img = data.getData();
                     if (img != null) {
-                        try {
-                            final int takeFlags = data.getFlags() & (Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
-                            getContentResolver().takePersistableUriPermission(img, takeFlags);
-                        } catch (SecurityException ignored) {}
+                        // Copied right away, so no persisted grant is needed.
                         String pendingKey = pendingManualCoverGameKey;
                         pendingManualCoverGameKey = null;
                         if (pendingKey != null) {
-                            setManualCoverUri(pendingKey, img.toString());
-                            if (gamesFolderUri != null) scanGamesFolder(gamesFolderUri);
+                            setManualCover(pendingKey, img);
                         }
                     }
                 }
@@ -1042,7 +1043,7 @@ public class MainActivity extends AppCompatActivity {
     private void promptChooseManualCover(GameEntry e) {
         if (e == null) return;
         String key = gameKeyFromEntry(e);
-        String existing = getManualCoverUri(key);
+        String existing = getManualCoverPath(key);
         android.widget.LinearLayout container = new android.widget.LinearLayout(this);
         container.setOrientation(android.widget.LinearLayout.VERTICAL);
         int pad = (int) (16 * getResources().getDisplayMetrics().density);
@@ -1072,7 +1073,7 @@ public class MainActivity extends AppCompatActivity {
             Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
             intent.addCategory(Intent.CATEGORY_OPENABLE);
             intent.setType("image/*");
-            intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_PERSISTABLE_URI_PERMISSION);
+            intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
             pendingManualCoverGameKey = key;
             startActivityResultPickImage.launch(intent);
         });
@@ -1087,7 +1088,7 @@ public class MainActivity extends AppCompatActivity {
             container.addView(remove);
             remove.setOnClickListener(v -> {
                 dlg.dismiss();
-                removeManualCoverUri(key);
+                removeManualCover(key);
                 if (gamesFolderUri != null) scanGamesFolder(gamesFolderUri);
             });
         }
@@ -2460,6 +2461,76 @@ public class MainActivity extends AppCompatActivity {
         }).start();
     }
 
+    /** Unpacks a zip of {@code <serial>.jpg} covers into the covers cache; see {@link CoverPackImporter}. */
+    private void importCoverPack(Uri uri) {
+        if (uri == null) {
+            return;
+        }
+        synchronized (coverPrefetchLock) {
+            if (coverImportRunning) {
+                try { Toast.makeText(this, R.string.cover_pack_import_running, Toast.LENGTH_SHORT).show(); } catch (Throwable ignored) {}
+                return;
+            }
+            coverImportRunning = true;
+        }
+        // Thumbnails are built for the cells the grid shows right now.
+        final int thumbWidth = gamesAdapter != null ? gamesAdapter.coverTargetWidth(this) : 0;
+        final int thumbHeight = gamesAdapter != null ? gamesAdapter.coverTargetHeight(this) : 0;
+        try { Toast.makeText(this, R.string.cover_pack_import_start, Toast.LENGTH_SHORT).show(); } catch (Throwable ignored) {}
+        new Thread(() -> {
+            int imported = 0;
+            String errorReason = null;
+            CoverPackImporter importer = new CoverPackImporter(this, thumbWidth, thumbHeight, count ->
+                    runOnUiThread(() -> {
+                        androidx.appcompat.widget.Toolbar toolbar = findViewById(R.id.toolbar);
+                        if (toolbar != null) toolbar.setSubtitle(getString(R.string.cover_pack_import_progress, count));
+                    }));
+            try (InputStream inputStream = getContentResolver().openInputStream(uri)) {
+                if (inputStream == null) {
+                    throw new IOException("Cover pack stream unavailable.");
+                }
+                imported = importer.run(inputStream);
+            } catch (InterruptedException ignored) {
+                imported = importer.imported();
+            } catch (Exception e) {
+                // Covers placed before the failure are already registered.
+                imported = importer.imported();
+                errorReason = e.getMessage();
+                if (errorReason == null || errorReason.trim().isEmpty()) {
+                    errorReason = e.getClass().getSimpleName();
+                }
+                try { DebugLog.e("CoverPack", "Import failed: " + errorReason); } catch (Throwable ignored) {}
+            } finally {
+                synchronized (coverPrefetchLock) {
+                    coverImportRunning = false;
+                }
+            }
+            final int total = imported;
+            final String finalError = errorReason;
+            runOnUiThread(() -> {
+                androidx.appcompat.widget.Toolbar toolbar = findViewById(R.id.toolbar);
+                if (toolbar != null) toolbar.setSubtitle(null);
+                if (finalError != null) {
+                    showDrawerImportFailureDialog(R.string.cover_pack_import_failed_title, total > 0
+                            ? getString(R.string.cover_pack_import_partial, total, finalError) : finalError);
+                } else {
+                    try {
+                        if (total > 0) {
+                            Toast.makeText(this, getString(R.string.cover_pack_import_done, total), Toast.LENGTH_SHORT).show();
+                        } else {
+                            Toast.makeText(this, R.string.cover_pack_import_none, Toast.LENGTH_SHORT).show();
+                        }
+                    } catch (Throwable ignored) {}
+                }
+                if (total > 0 && gamesAdapter != null) {
+                    // Games looked up before the import are remembered as having no local cover.
+                    GamesAdapter.clearLocalCoverCache();
+                    gamesAdapter.refreshCovers();
+                }
+            });
+        }, "CoverPackImport").start();
+    }
+
     private String getDisplayNameForUri(Uri uri) {
         if (uri == null) {
             return null;
@@ -2709,6 +2780,11 @@ public class MainActivity extends AppCompatActivity {
 	protected void onDestroy() {
 		stopEmuThread();
 		LogcatRecorder.shutdown();
+		MetadataResolveQueue.get(this).clearListener(metadataResolveListener);
+		if (libraryWatcher != null) {
+			libraryWatcher.stop();
+			libraryWatcher = null;
+		}
 		super.onDestroy();
 		////
 		if (mHIDDeviceManager != null) {
@@ -2824,6 +2900,13 @@ public class MainActivity extends AppCompatActivity {
 				NativeApp.setDataRootOverride(targetDir.getAbsolutePath());
 				NativeApp.reinitializeDataRoot(targetDir.getAbsolutePath());
 				LogcatRecorder.handleDataRootChanged();
+				GameLibraryIndex.reset();
+				RedumpMatcher.reset();
+				MetadataResolveQueue.reset();
+				ThumbnailCache.reset();
+				CoverIndex.reset();
+				CoverSourceCache.reset();
+				ManualCovers.reset();
 				DataDirectoryManager.copyAssetAll(getApplicationContext(), "resources");
 			}
 			runOnUiThread(() -> {
@@ -2890,6 +2973,8 @@ public class MainActivity extends AppCompatActivity {
         if(!isThread()) {
             isVmPaused = false;
             updatePauseButtonIcon();
+            // The core needs the memory more than the library grid does.
+            BitmapCache.get().setEmulationRunning(true);
             mEmulationThread = new Thread(() -> {
                 runOnUiThread(() -> {
                     try { if (NativeApp.isFullscreenUIEnabled()) setOnScreenControlsVisible(true); } catch (Throwable ignored) {}
@@ -2915,6 +3000,7 @@ public class MainActivity extends AppCompatActivity {
             }
             mEmulationThread = null;
         }
+        BitmapCache.get().setEmulationRunning(false);
     }
 
     private void restartEmuThread() {
@@ -3214,7 +3300,7 @@ public class MainActivity extends AppCompatActivity {
         final int span = getGameGridSpanCount();
         if (!listMode) {
             if (gamesGridLayoutManager == null) {
-                gamesGridLayoutManager = new GridLayoutManager(this, span);
+                gamesGridLayoutManager = gridNavigator.newGridLayoutManager(this, span);
                 rvGames.setLayoutManager(gamesGridLayoutManager);
             } else {
                 gamesGridLayoutManager.setSpanCount(span);
@@ -3229,6 +3315,13 @@ public class MainActivity extends AppCompatActivity {
         }
         final int padding = getResources().getDimensionPixelSize(R.dimen.game_selector_grid_padding);
         rvGames.setPadding(padding, padding, padding, padding);
+        rvGames.post(() -> {
+            if (gamesAdapter == null || rvGames == null || rvGames.getWidth() <= 0) return;
+            // Tile margin (8dp each side) and decoration spacing come off every cell.
+            int spacing = getResources().getDimensionPixelSize(R.dimen.game_selector_tile_spacing);
+            int cell = (rvGames.getWidth() - padding * 2) / span - dpToPx(16) - spacing;
+            if (cell > 0) gamesAdapter.setGridCoverSize(cell, cell * 3 / 2);
+        });
     }
 
     private int getGameGridSpanCount() {
@@ -3795,6 +3888,16 @@ public class MainActivity extends AppCompatActivity {
                 }
             });
 
+    private final ActivityResultLauncher<Intent> startActivityResultImportCovers = registerForActivityResult(
+            new ActivityResultContracts.StartActivityForResult(), result -> {
+                if (result.getResultCode() == Activity.RESULT_OK && result.getData() != null) {
+                    Uri uri = result.getData().getData();
+                    if (uri != null) {
+                        importCoverPack(uri);
+                    }
+                }
+            });
+
     private void pickGamesFolder() {
         Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT_TREE);
         intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_PERSISTABLE_URI_PERMISSION);
@@ -3821,65 +3924,103 @@ public class MainActivity extends AppCompatActivity {
         startActivityResultImportTextures.launch(intent);
     }
 
+    private void launchCoverPackPicker() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("application/zip");
+        intent.putExtra(Intent.EXTRA_TITLE, getString(R.string.cover_pack_picker_title));
+        intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[]{"application/zip", "application/x-zip-compressed"});
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivityResultImportCovers.launch(intent);
+    }
+
+    private static GameScanEngine getScanEngine(Context ctx) {
+        synchronized (MainActivity.class) {
+            if (sScanEngine == null) {
+                sScanEngine = new GameScanEngine(ctx);
+            }
+            return sScanEngine;
+        }
+    }
+
     private void scanGamesFolder(Uri folder) {
-    List<GameEntry> entries = GameScanner.scanFolder(this, folder);
+        if (folder == null) return;
+        final GameLibraryIndex index = GameLibraryIndex.get(this);
+        final int generation = ++gamesScanGeneration;
+        if (activeScan != null) {
+            activeScan.cancel();
+            activeScan = null;
+        }
+        // Show the last known library immediately; the rescan below only re-probes new or changed files.
+        List<GameEntry> cached = index.entriesForRoot(folder);
+        sortGameEntries(cached);
+        showScannedGames(cached, false);
+        activeScan = getScanEngine(this).scan(folder, index, new GameScanEngine.Listener() {
+            @Override public void onEntriesFound(List<GameEntry> batch) {
+                if (generation != gamesScanGeneration || gamesAdapter == null) return;
+                boolean wasEmpty = gamesAdapter.getItemCountTotal() == 0;
+                gamesAdapter.mergeEntries(batch);
+                if (wasEmpty && gamesAdapter.getItemCountTotal() > 0) {
+                    updateLibraryEmptyState(false);
+                    focusFirstGame();
+                }
+            }
+
+            @Override public void onScanFinished(List<GameEntry> all) {
+                if (generation != gamesScanGeneration || gamesAdapter == null) return;
+                activeScan = null;
+                sortGameEntries(all);
+                index.replaceRoot(folder, all);
+                index.saveAsync();
+                showScannedGames(all, true);
+                MetadataResolveQueue.get(MainActivity.this).enqueue(all);
+                startLibraryWatcher();
+            }
+        });
+    }
+
+    static final java.util.Comparator<GameEntry> GAME_ENTRY_ORDER = (a, b) -> {
+        String ta = a != null ? (a.title != null ? a.title : "") : "";
+        String tb = b != null ? (b.title != null ? b.title : "") : "";
+        int ga = sortGroup(ta);
+        int gb = sortGroup(tb);
+        if (ga != gb) return Integer.compare(ga, gb);
+        return ta.compareToIgnoreCase(tb);
+    };
+
+    private static void sortGameEntries(List<GameEntry> entries) {
         try {
-            java.util.Collections.sort(entries, (a, b) -> {
-                String ta = a != null ? (a.title != null ? a.title : "") : "";
-                String tb = b != null ? (b.title != null ? b.title : "") : "";
-                int ga = sortGroup(ta);
-                int gb = sortGroup(tb);
-                if (ga != gb) return Integer.compare(ga, gb);
-                return ta.compareToIgnoreCase(tb);
-            });
+            java.util.Collections.sort(entries, GAME_ENTRY_ORDER);
         } catch (Throwable ignored) {}
-    gamesAdapter.update(entries);
-        final List<GameEntry> toResolve = new ArrayList<>();
-        for (GameEntry ge : entries) {
-            try {
-                if (ge != null && (ge.serial == null || ge.serial.isEmpty())) {
-                    String name = ge.title != null ? ge.title.toLowerCase() : "";
-                    if (name.endsWith(".iso") || name.endsWith(".img") || name.endsWith(".bin"))
-                        toResolve.add(ge);
-                }
-            } catch (Throwable ignored) {}
-        }
-        if (!toResolve.isEmpty()) {
-            new Thread(() -> {
-                android.content.ContentResolver cr = getContentResolver();
-                int n = 0;
-                for (GameEntry ge : toResolve) {
-                    try {
-                        RedumpDB.Result rd = RedumpDB.lookupByFile(cr, ge.uri);
-                        if (rd != null && rd.serial != null && !rd.serial.isEmpty()) {
-                            ge.serial = rd.serial;
-                            ge.gameTitle = rd.name;
-                            n++;
-                            if (n % 2 == 1) {
-                                runOnUiThread(() -> gamesAdapter.notifyDataSetChanged());
-                            }
-                        }
-                    } catch (Throwable ignored) {}
-                }
-                if (n > 0) runOnUiThread(() -> gamesAdapter.notifyDataSetChanged());
-            }, "RedumpResolve").start();
-        }
+    }
+
+    private void showScannedGames(List<GameEntry> entries, boolean announce) {
+        boolean hadItems = gamesAdapter.getItemCountTotal() > 0;
+        gamesAdapter.update(entries);
         if (etSearch != null && etSearch.getText() != null && etSearch.length() > 0) {
             gamesAdapter.setFilter(etSearch.getText().toString());
         }
-        if (rvGames != null && gamesAdapter.getItemCount() > 0) {
-            rvGames.post(() -> {
-                rvGames.requestFocus(); 
-                rvGames.postDelayed(() -> {
-                    RecyclerView.ViewHolder vh = rvGames.findViewHolderForAdapterPosition(0);
-                    if (vh != null && vh.itemView != null) {
-                        vh.itemView.requestFocus();
-                    }
-                }, 100); 
-            });
+        if (!hadItems) {
+            focusFirstGame();
         }
         boolean empty = entries.isEmpty();
-    try { Toast.makeText(this, "Found " + entries.size() + " game(s)", Toast.LENGTH_SHORT).show(); } catch (Throwable ignored) {}
+        if (announce) {
+            try { Toast.makeText(this, "Found " + entries.size() + " game(s)", Toast.LENGTH_SHORT).show(); } catch (Throwable ignored) {}
+        }
+        if (empty && !announce) {
+            // Nothing cached yet; keep the current empty state until the scan reports.
+            return;
+        }
+        updateLibraryEmptyState(empty);
+    }
+
+    private void focusFirstGame() {
+        if (rvGames != null && gridNavigator != null && gamesAdapter.getItemCount() > 0) {
+            gridNavigator.focus(0);
+        }
+    }
+
+    private void updateLibraryEmptyState(boolean empty) {
         if (tvEmpty != null) {
             tvEmpty.setText(empty ? "No games detected in this folder" : "");
             tvEmpty.setVisibility(empty ? View.VISIBLE : View.GONE);
@@ -3887,7 +4028,21 @@ public class MainActivity extends AppCompatActivity {
         if (emptyContainer != null) emptyContainer.setVisibility(empty ? View.VISIBLE : View.GONE);
         if (rvGames != null) rvGames.setVisibility(empty ? View.GONE : View.VISIBLE);
         if (!empty) showHome(true);
+    }
 
+    private void startLibraryWatcher() {
+        if (libraryWatcher == null) {
+            libraryWatcher = new LibraryWatcher(this, (root, changed, removed) -> {
+                MetadataResolveQueue.get(this).enqueue(changed);
+                if (gamesAdapter == null || !root.equals(gamesFolderUri)) return;
+                // A full scan in flight will replace the adapter contents anyway.
+                if (activeScan != null) return;
+                gamesAdapter.removeEntries(removed);
+                gamesAdapter.mergeEntries(changed);
+                updateLibraryEmptyState(gamesAdapter.getItemCountTotal() == 0);
+            });
+        }
+        libraryWatcher.start(collectGameRootUris());
     }
 
     private static int sortGroup(String title) {
@@ -4057,25 +4212,30 @@ public class MainActivity extends AppCompatActivity {
         String p = sp.getString(PREF_BG_P, null);
         boolean isPortrait = getResources().getConfiguration().orientation == Configuration.ORIENTATION_PORTRAIT;
         String use = isPortrait ? (p != null ? p : l) : (l != null ? l : p);
-        if (use == null || use.isEmpty()) { bgImage.setImageDrawable(null); bgImage.setVisibility(View.GONE); return; }
-        try (InputStream is = getContentResolver().openInputStream(Uri.parse(use))) {
-            if (is != null) {
-                android.graphics.Bitmap bmp = android.graphics.BitmapFactory.decodeStream(is);
-                if (bmp != null) {
-                    bgImage.setImageBitmap(bmp);
-                    bgImage.setVisibility(View.VISIBLE);
-                    if (android.os.Build.VERSION.SDK_INT >= 31) {
-                        try {
-                            bgImage.setRenderEffect(android.graphics.RenderEffect.createBlurEffect(0f, 8f, android.graphics.Shader.TileMode.CLAMP));
-                        } catch (Throwable ignored) {}
-                    }
-                }
+        if (use == null || use.isEmpty()) { BitmapCache.get().setImage(bgImage, null); bgImage.setVisibility(View.GONE); return; }
+        // Decoded at screen size (it is blurred anyway) and kept in the shared cache for rotation.
+        android.util.DisplayMetrics dm = getResources().getDisplayMetrics();
+        String key = "bg:" + CoverLoader.cacheKey(use, dm.widthPixels, dm.heightPixels);
+        android.graphics.Bitmap bmp = BitmapCache.get().getBitmap(key);
+        if (bmp == null) {
+            try {
+                bmp = CoverLoader.decodeUri(getContentResolver(), Uri.parse(use), dm.widthPixels, dm.heightPixels);
+            } catch (Exception ignored) {}
+            if (bmp != null) BitmapCache.get().putBitmap(key, bmp);
+        }
+        if (bmp != null) {
+            BitmapCache.get().setImage(bgImage, bmp);
+            bgImage.setVisibility(View.VISIBLE);
+            if (android.os.Build.VERSION.SDK_INT >= 31) {
+                try {
+                    bgImage.setRenderEffect(android.graphics.RenderEffect.createBlurEffect(0f, 8f, android.graphics.Shader.TileMode.CLAMP));
+                } catch (Throwable ignored) {}
             }
-        } catch (Exception ignored) {}
+        }
     }
     private void clearBackgroundImages() {
         getSharedPreferences(PREFS, MODE_PRIVATE).edit().remove(PREF_BG_L).remove(PREF_BG_P).apply();
-        if (bgImage != null) { bgImage.setImageDrawable(null); bgImage.setVisibility(View.GONE); }
+        if (bgImage != null) { BitmapCache.get().setImage(bgImage, null); bgImage.setVisibility(View.GONE); }
         try { Toast.makeText(this, "Background cleared.", Toast.LENGTH_SHORT).show(); } catch (Throwable ignored) {}
     }
     // endregion Background image picker
@@ -4140,9 +4300,44 @@ public class MainActivity extends AppCompatActivity {
     static class GameEntry {
         final String title;      
         final Uri uri;
+        // 64-bit hash of the game key; the adapter's stable id and the key of its cover tables.
+        final long id;
         String serial;           
         String gameTitle;        
-        GameEntry(String t, Uri u) { title = t; uri = u; }
+        String documentId;
+        long lastModified;
+        long size = -1;
+        String coverPath;
+        String volumeId;
+        String discDate;
+        // Sibling cue sheet found while listing; only needed for the content probe, so not persisted.
+        Uri cueUri;
+        boolean metadataResolved;
+        // Cover URLs for the template in use; see coverCandidateUrls. Replaced whole, never mutated.
+        volatile CoverUrls coverUrls;
+        static final class CoverUrls {
+            final String template;
+            final String serial;
+            final String gameTitle;
+            final List<String> urls;
+            CoverUrls(String template, String serial, String gameTitle, List<String> urls) {
+                this.template = template;
+                this.serial = serial;
+                this.gameTitle = gameTitle;
+                this.urls = urls;
+            }
+        }
+        GameEntry(String t, Uri u) { this(t, u, identity(u != null ? u.toString() : "file://" + t)); }
+        GameEntry(String t, Uri u, long id) { title = t; uri = u; this.id = id; }
+        /** 64-bit FNV-1a of a game key (see {@link MainActivity#gameKeyFromEntry}). */
+        static long identity(String gameKey) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < gameKey.length(); i++) {
+                h ^= gameKey.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            return h;
+        }
         String fileTitleNoExt() {
             int i = title.lastIndexOf('.');
             return (i > 0) ? title.substring(0, i) : title;
@@ -4151,15 +4346,6 @@ public class MainActivity extends AppCompatActivity {
 
     static class GameScanner {
     static final String[] EXTS = new String[]{".iso", ".img", ".bin", ".chd", ".gz"};
-    static List<GameEntry> scanFolder(Context ctx, Uri treeUri) {
-            List<GameEntry> out = new ArrayList<>();
-            android.content.ContentResolver cr = ctx.getContentResolver();
-            try {
-                String rootId = android.provider.DocumentsContract.getTreeDocumentId(treeUri);
-                scanChildren(cr, treeUri, rootId, out, 0, 3);
-            } catch (Exception ignored) {}
-            return out;
-        }
 
         static List<String> debugList(Context ctx, Uri treeUri) {
             List<String> out = new ArrayList<>();
@@ -4171,60 +4357,124 @@ public class MainActivity extends AppCompatActivity {
             return out;
         }
 
-        private static void scanChildren(android.content.ContentResolver cr, Uri treeUri, String parentDocId,
-                                         List<GameEntry> out, int depth, int maxDepth) {
-            if (depth > maxDepth) return;
-            Uri children = android.provider.DocumentsContract.buildChildDocumentsUriUsingTree(treeUri, parentDocId);
-            try (android.database.Cursor c = cr.query(children, new String[]{
-                    android.provider.DocumentsContract.Document.COLUMN_DOCUMENT_ID,
-                    android.provider.DocumentsContract.Document.COLUMN_DISPLAY_NAME,
-                    android.provider.DocumentsContract.Document.COLUMN_MIME_TYPE
-            }, null, null, null)) {
-                if (c == null) return;
-                while (c.moveToNext()) {
-                    String docId = c.getString(0);
-                    String name = c.getString(1);
-                    String mime = c.getString(2);
-                    if (mime != null && mime.equals(android.provider.DocumentsContract.Document.MIME_TYPE_DIR)) {
-                        scanChildren(cr, treeUri, docId, out, depth + 1, maxDepth);
-                        continue;
-                    }
-                    if (name == null) name = "Unknown";
-                    String lower = name.toLowerCase();
-                    boolean matchExt = false;
-                    for (String ext : EXTS) { if (lower.endsWith(ext)) { matchExt = true; break; } }
-                    boolean matchMime = false;
-                    if (mime != null) {
-                        String lm = mime.toLowerCase();
-                        if (lm.contains("iso9660") || lm.equals("application/x-iso9660-image")) matchMime = true;
-                    }
-                    boolean match = matchExt || matchMime;
-                    if (!match) continue;
-                    Uri doc = android.provider.DocumentsContract.buildDocumentUriUsingTree(treeUri, docId);
-                    GameEntry e = new GameEntry(name, doc);
-                    String ft = e.fileTitleNoExt();
-                    String s = parseSerialFromString(ft);
-                    if (s != null) e.serial = s;
-                    String lowerName = name != null ? name.toLowerCase() : "";
-                    if (e.serial == null && (lowerName.endsWith(".iso") || lowerName.endsWith(".img"))) {
-                        try {
-                            String isoSerial = tryExtractIsoSerial(cr, doc);
-                            if (isoSerial != null) e.serial = isoSerial;
-                        } catch (Throwable t) {
-                            try { DebugLog.d("ISO", "Serial parse failed: " + t.getMessage()); } catch (Throwable ignored) {}
-                        }
-                    }
-                    if (e.serial == null && lowerName.endsWith(".bin")) {
-                        try {
-                            String quick = tryExtractBinSerialQuick(cr, doc);
-                            if (quick != null) e.serial = quick;
-                        } catch (Throwable t) {
-                            try { DebugLog.d("BIN", "Quick serial scan failed: " + t.getMessage()); } catch (Throwable ignored) {}
-                        }
-                    }
-                    out.add(e);
+        static final String[] LIST_PROJECTION = new String[]{
+                android.provider.DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+                android.provider.DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+                android.provider.DocumentsContract.Document.COLUMN_MIME_TYPE,
+                android.provider.DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+                android.provider.DocumentsContract.Document.COLUMN_SIZE
+        };
+
+        static boolean isCueSheet(String name) {
+            return name != null && name.toLowerCase(Locale.ROOT).endsWith(".cue");
+        }
+
+        /** Lower-cased base name pairing an image with its cue sheet; {@code Game (Track 1).bin} pairs with {@code Game.cue}. */
+        static String cueKey(String fileName) {
+            String base = stripExt(fileName).toLowerCase(Locale.ROOT);
+            return base.replaceFirst("\\s*\\(track\\s*0*1\\)$", "");
+        }
+
+        /** Points raw images at the cue sheet of the same directory, if one was listed. */
+        static void attachCueSheets(Uri treeUri, List<GameEntry> entries, java.util.Map<String, String> cueDocIds) {
+            if (cueDocIds.isEmpty()) return;
+            for (GameEntry e : entries) {
+                if (e.title == null) continue;
+                String lower = e.title.toLowerCase(Locale.ROOT);
+                if (!lower.endsWith(".bin") && !lower.endsWith(".img")) continue;
+                String cueId = cueDocIds.get(cueKey(e.title));
+                if (cueId != null) {
+                    e.cueUri = android.provider.DocumentsContract.buildDocumentUriUsingTree(treeUri, cueId);
                 }
-            } catch (Exception ignored) {}
+            }
+        }
+
+        static boolean isDirectoryMime(String mime) {
+            return mime != null && mime.equals(android.provider.DocumentsContract.Document.MIME_TYPE_DIR);
+        }
+
+        /** Builds an entry from a {@link #LIST_PROJECTION} row, or returns null if the document is not a game image. */
+        static GameEntry entryFromCursor(Uri treeUri, android.database.Cursor c) {
+            return entryFromListing(treeUri, c.getString(0), c.getString(1), c.getString(2),
+                    c.isNull(3) ? 0L : c.getLong(3), c.isNull(4) ? -1L : c.getLong(4));
+        }
+
+        /** Same as {@link #entryFromCursor} for listings that do not come from a provider query. */
+        static GameEntry entryFromListing(Uri treeUri, String docId, String name, String mime, long lastModified, long size) {
+            if (name == null) name = "Unknown";
+            String lower = name.toLowerCase();
+            boolean matchExt = false;
+            for (String ext : EXTS) { if (lower.endsWith(ext)) { matchExt = true; break; } }
+            boolean matchMime = false;
+            if (mime != null) {
+                String lm = mime.toLowerCase();
+                if (lm.contains("iso9660") || lm.equals("application/x-iso9660-image")) matchMime = true;
+            }
+            boolean match = matchExt || matchMime;
+            if (!match) return null;
+            Uri doc = android.provider.DocumentsContract.buildDocumentUriUsingTree(treeUri, docId);
+            GameEntry e = new GameEntry(name, doc);
+            e.documentId = docId;
+            e.lastModified = lastModified;
+            e.size = size;
+            return e;
+        }
+
+        /** Cheap check: whether {@link #probeEntry} would have to open the image for its serial or volume info. */
+        static boolean needsContentProbe(GameEntry e) {
+            if (e.serial != null && e.volumeId != null) return false;
+            String lowerName = e.title != null ? e.title.toLowerCase() : "";
+            return lowerName.endsWith(".iso") || lowerName.endsWith(".img") || lowerName.endsWith(".bin")
+                    || lowerName.endsWith(".chd") || lowerName.endsWith(".gz");
+        }
+
+        /** Fills in the serial from the file name, then serial and volume info from the image contents where supported. */
+        static void probeEntry(android.content.ContentResolver cr, GameEntry e) {
+            String ft = e.fileTitleNoExt();
+            String s = parseSerialFromString(ft);
+            if (s != null) e.serial = s;
+            if (!needsContentProbe(e)) return;
+            // One positional reader per file: every probe below shares its descriptor and sector cache.
+            try (SafRandomAccessReader reader = SafRandomAccessReader.open(cr, e.uri)) {
+                try {
+                    probeImageContents(cr, reader, e);
+                } catch (Throwable t) {
+                    try { DebugLog.d("ISO", "Serial parse failed: " + t.getMessage()); } catch (Throwable ignored) {}
+                }
+                try { DebugLog.d("Probe", e.title + ": read " + reader.bytesFromSource() + " bytes"); } catch (Throwable ignored) {}
+            } catch (Throwable t) {
+                try { DebugLog.d("Probe", "Cannot open " + e.title + ": " + t.getMessage()); } catch (Throwable ignored) {}
+            }
+        }
+
+        /**
+         * Unwraps CHD and gzip containers, finds the data track layout and reads the ISO9660 filesystem.
+         * Compressed images only decompress the hunks or blocks holding the descriptors and SYSTEM.CNF.
+         */
+        static void probeImageContents(android.content.ContentResolver cr, DiscReader file, GameEntry e) throws java.io.IOException {
+            String lowerName = e.title != null ? e.title.toLowerCase() : "";
+            DiscReader image = file;
+            CdImageProber.Layout hint = null;
+            if (lowerName.endsWith(".chd")) {
+                ChdReader chd = ChdReader.open(file);
+                image = chd;
+                hint = chd.layout();
+            } else if (lowerName.endsWith(".gz")) {
+                if (!GzipDiscReader.isGzip(file)) return;
+                image = new GzipDiscReader(file);
+            } else if (e.cueUri != null) {
+                hint = CdImageProber.parseCue(readCueSheet(cr, e.cueUri));
+            }
+            try {
+                CdImageProber.Layout layout = CdImageProber.detect(image, hint);
+                if (layout != null) {
+                    probeIsoFilesystem(CdImageProber.userData(image, layout), e);
+                } else {
+                    try { DebugLog.d("Probe", e.title + ": no ISO9660 filesystem found"); } catch (Throwable ignored) {}
+                }
+            } finally {
+                if (image != file) image.close();
+            }
         }
 
         private static void debugChildren(android.content.ContentResolver cr, Uri treeUri, String parentDocId,
@@ -4283,131 +4533,73 @@ public class MainActivity extends AppCompatActivity {
             return null;
         }
 
-        static String tryExtractIsoSerial(android.content.ContentResolver cr, Uri uri) throws java.io.IOException {
-            final int SECTOR = 2048;
-            byte[] pvd = readRange(cr, uri, 16L * SECTOR, SECTOR);
-            if (pvd == null || pvd.length < SECTOR) return null;
-            if (pvd[0] != 0x01 || pvd[1] != 'C' || pvd[2] != 'D' || pvd[3] != '0' || pvd[4] != '0' || pvd[5] != '1')
-                return null;
-            int rootLBA = u32le(pvd, 156 + 2);
-            int rootSize = u32le(pvd, 156 + 10);
-            if (rootLBA <= 0 || rootSize <= 0 || rootSize > 512 * 1024) rootSize = 64 * 1024;
-            byte[] dir = readRange(cr, uri, (long) rootLBA * SECTOR, rootSize);
-            if (dir == null) return null;
-            int off = 0;
-            while (off < dir.length) {
-                int len = u8(dir, off);
-                if (len == 0) {
-                    int next = ((off / SECTOR) + 1) * SECTOR;
-                    if (next <= off) break;
-                    off = next;
-                    continue;
+        /**
+         * Reads the ISO9660 volume descriptor and SYSTEM.CNF through {@code reader}.
+         * A serial already parsed from the file name is kept.
+         *
+         * @return false if the image has no ISO9660 filesystem.
+         */
+        static boolean probeIsoFilesystem(DiscReader reader, GameEntry e) throws java.io.IOException {
+            Iso9660Walker walker = Iso9660Walker.open(reader);
+            if (walker == null) return false;
+            Iso9660Walker.VolumeInfo volume = walker.volume();
+            if (!TextUtils.isEmpty(volume.volumeId)) e.volumeId = volume.volumeId;
+            if (volume.creationDate != null) e.discDate = volume.creationDate;
+            if (e.serial != null) return true;
+            Iso9660Walker.Entry cnf = walker.find("SYSTEM.CNF");
+            if (cnf != null && !cnf.directory) {
+                byte[] data = walker.readFile(cnf, 4096);
+                if (data != null) {
+                    e.serial = parseBootSerial(new String(data, java.nio.charset.StandardCharsets.US_ASCII));
                 }
-                if (off + len > dir.length) break;
-                int lba = u32le(dir, off + 2);
-                int size = u32le(dir, off + 10);
-                int nameLen = u8(dir, off + 32);
-                int namePos = off + 33;
-                if (namePos + nameLen <= dir.length && nameLen > 0) {
-                    String name = new String(dir, namePos, nameLen, java.nio.charset.StandardCharsets.US_ASCII);
-                    if (!(nameLen == 1 && (dir[namePos] == 0 || dir[namePos] == 1))) {
-                        String norm = name;
-                        int semi = norm.indexOf(';');
-                        if (semi >= 0) norm = norm.substring(0, semi);
-                        if ("SYSTEM.CNF".equalsIgnoreCase(norm)) {
-                            int readSize = Math.min(size, 4096);
-                            byte[] cnf = readRange(cr, uri, (long) lba * SECTOR, readSize);
-                            if (cnf != null) {
-                                String txt = new String(cnf, java.nio.charset.StandardCharsets.US_ASCII);
-                java.util.regex.Matcher m = java.util.regex.Pattern.compile(
-                    "BOOT\\d*\\s*=\\s*[^\\\\\\r\\n]*\\\\([A-Z0-9_\\.]+)",
-                    java.util.regex.Pattern.CASE_INSENSITIVE).matcher(txt);
-                                if (m.find()) {
-                                    String bootElf = m.group(1);
-                                    String serial = parseSerialFromString(bootElf);
-                                    if (serial != null) return serial;
-                                }
-                            }
-                            break;
-                        }
-                    }
-                }
-                off += len;
             }
-            return null;
+            if (e.serial == null) {
+                // No usable SYSTEM.CNF: the boot executable in the root is usually named after the serial.
+                final String[] found = new String[1];
+                walker.list(walker.root(), child -> {
+                    if (!child.directory) found[0] = parseSerialFromString(child.name);
+                    return found[0] == null;
+                });
+                e.serial = found[0];
+            }
+            return true;
         }
 
-        static String tryExtractBinSerialQuick(android.content.ContentResolver cr, Uri uri) throws java.io.IOException {
-            final int MAX = 8 * 1024 * 1024; 
-            byte[] buf;
-            try (java.io.InputStream in = cr.openInputStream(uri)) {
-                if (in == null) return null;
-                java.io.ByteArrayOutputStream bos = new java.io.ByteArrayOutputStream(Math.min(MAX, 1 << 20));
-                byte[] tmp = new byte[64 * 1024];
-                int total = 0;
-                while (total < MAX) {
-                    int want = Math.min(tmp.length, MAX - total);
-                    int r = in.read(tmp, 0, want);
-                    if (r <= 0) break;
-                    bos.write(tmp, 0, r);
-                    total += r;
-                }
-                buf = bos.toByteArray();
-            }
-            if (buf == null || buf.length == 0) return null;
-            String txt = new String(buf, java.nio.charset.StandardCharsets.US_ASCII);
+        /** Serial from the BOOT/BOOT2 line of a SYSTEM.CNF, e.g. {@code BOOT2 = cdrom0:\SLUS_203.12;1}. */
+        static String parseBootSerial(String cnfText) {
+            if (cnfText == null) return null;
             java.util.regex.Matcher m = java.util.regex.Pattern.compile(
                 "BOOT\\d*\\s*=\\s*[^\\\\\\r\\n]*\\\\([A-Z0-9_\\.]+)",
-                java.util.regex.Pattern.CASE_INSENSITIVE).matcher(txt);
+                java.util.regex.Pattern.CASE_INSENSITIVE).matcher(cnfText);
             if (m.find()) {
-                String bootElf = m.group(1);
-                String serial = parseSerialFromString(bootElf);
-                if (serial != null) return serial;
+                return parseSerialFromString(m.group(1));
             }
-            String s2 = parseSerialFromString(txt);
-            return s2;
+            return null;
         }
 
-        private static int u8(byte[] a, int i) { return (i >= 0 && i < a.length) ? (a[i] & 0xFF) : 0; }
-        private static int u32le(byte[] a, int i) {
-            if (i + 3 >= a.length) return 0;
-            return (a[i] & 0xFF) | ((a[i+1] & 0xFF) << 8) | ((a[i+2] & 0xFF) << 16) | ((a[i+3] & 0xFF) << 24);
-        }
-        private static byte[] readRange(android.content.ContentResolver cr, Uri uri, long offset, int size) throws java.io.IOException {
-            if (size <= 0) return null;
-            if (size > 2 * 1024 * 1024) size = 2 * 1024 * 1024;
-            try (java.io.InputStream in = cr.openInputStream(uri)) {
+        /** Reads a cue sheet; they are tiny, anything beyond 64 KB is not a cue sheet. */
+        static String readCueSheet(android.content.ContentResolver cr, Uri cueUri) {
+            try (InputStream in = cr.openInputStream(cueUri)) {
                 if (in == null) return null;
-                long toSkip = offset;
-                byte[] skipBuf = new byte[8192];
-                while (toSkip > 0) {
-                    long skipped = in.skip(toSkip);
-                    if (skipped <= 0) {
-                        int r = in.read(skipBuf, 0, (int) Math.min(skipBuf.length, toSkip));
-                        if (r <= 0) break;
-                        toSkip -= r;
-                    } else {
-                        toSkip -= skipped;
-                    }
-                }
-                byte[] buf = new byte[size];
-                int off2 = 0;
-                while (off2 < size) {
-                    int r = in.read(buf, off2, size - off2);
-                    if (r <= 0) break;
-                    off2 += r;
+                byte[] buf = new byte[64 * 1024];
+                int total = 0;
+                int r;
+                while (total < buf.length && (r = in.read(buf, total, buf.length - total)) > 0) {
+                    total += r;
                 }
-                if (off2 == 0) return null;
-                if (off2 < size) return java.util.Arrays.copyOf(buf, off2);
-                return buf;
+                return new String(buf, 0, total, java.nio.charset.StandardCharsets.UTF_8);
+            } catch (Throwable t) {
+                return null;
             }
         }
+
     }
 
     static class RedumpDB {
-        static class Result { String serial; String name; }
+        static class Result { String serial; String name; String md5; long size; }
         private static final Object LOCK = new Object();
-        private static java.util.Map<String, Result> sMd5SizeToResult = null; 
+        // Sorted by size and memory-mapped; see RedumpTable for where it comes from.
+        private static volatile RedumpTable sTable = null;
 
         private static String md5ToLower(String s) { return s != null ? s.trim().toLowerCase() : null; }
 
@@ -4417,131 +4609,141 @@ public class MainActivity extends AppCompatActivity {
         }
 
         private static void ensureLoaded(Context ctx) {
-            if (sMd5SizeToResult != null) return;
+            if (sTable != null) return;
             synchronized (LOCK) {
-                if (sMd5SizeToResult != null) return;
-                sMd5SizeToResult = new java.util.HashMap<>(8192);
-                File f = new File(externalResourcesPath(ctx), "RedumpDatabase.yaml");
-                java.io.BufferedReader br = null;
+                if (sTable != null) return;
+                RedumpTable table = null;
+                File yaml = new File(externalResourcesPath(ctx), "RedumpDatabase.yaml");
+                boolean external = yaml.isFile();
+                File compiled = new File(new File(DataDirectoryManager.getDataRoot(ctx), GameLibraryIndex.DIR_NAME), RedumpTable.FILE_NAME);
                 try {
-                    java.io.InputStream in;
-                    if (f.exists()) {
-                        in = new java.io.FileInputStream(f);
-                    } else {
-                        try { in = ctx.getAssets().open("resources/RedumpDatabase.yaml"); }
-                        catch (Exception e) {
-                            try { DebugLog.w("Redump", "Database not found (assets and external)"); } catch (Throwable ignored) {}
-                            return;
-                        }
+                    RedumpTable bundled = RedumpTable.mapAsset(ctx);
+                    if (bundled != null && !external) {
+                        table = bundled;
                     }
-                    br = new java.io.BufferedReader(new java.io.InputStreamReader(in, java.nio.charset.StandardCharsets.UTF_8));
-                    String line;
-                    java.util.List<String[]> pendingHashes = new java.util.ArrayList<>(); // each [md5,size]
-                    String curSerial = null;
-                    String curName = null;
-                    String pendingMd5 = null;
-                    String pendingSize = null;
-                    while ((line = br.readLine()) != null) {
-                        String t = line.trim();
-                        if (t.isEmpty() || t.startsWith("#")) continue;
-                        if (t.startsWith("- hashes:")) {
-                            if (curSerial != null && !pendingHashes.isEmpty()) {
-                                for (String[] hs : pendingHashes) {
-                                    String md5 = md5ToLower(hs[0]);
-                                    String size = hs[1] != null ? hs[1].trim() : null;
-                                    if (md5 != null && size != null) {
-                                        Result r = new Result();
-                                        r.serial = curSerial;
-                                        r.name = (curName != null ? curName : curSerial);
-                                        sMd5SizeToResult.put(md5 + "|" + size, r);
-                                    }
-                                }
-                            }
-                            pendingHashes.clear();
-                            curSerial = null;
-                            curName = null;
-                            pendingMd5 = null; pendingSize = null;
-                            continue;
-                        }
-                        if (t.startsWith("- md5:")) {
-                            int idx = t.indexOf(':');
-                            if (idx >= 0) { pendingMd5 = t.substring(idx + 1).trim(); }
-                            continue;
-                        }
-                        if (t.startsWith("md5:")) {
-                            int idx = t.indexOf(':');
-                            if (idx >= 0) { pendingMd5 = t.substring(idx + 1).trim(); }
-                            continue;
-                        }
-                        if (t.startsWith("size:")) {
-                            int idx = t.indexOf(':');
-                            if (idx >= 0) { pendingSize = t.substring(idx + 1).trim(); }
-                            if (pendingMd5 != null && pendingSize != null) {
-                                pendingHashes.add(new String[]{pendingMd5, pendingSize});
-                                pendingMd5 = null; pendingSize = null;
-                            }
-                            continue;
-                        }
-                        if (t.startsWith("serial:")) {
-                            int idx = t.indexOf(':');
-                            curSerial = (idx >= 0 ? t.substring(idx + 1).trim() : null);
-                            continue;
-                        }
-                        if (t.startsWith("name:")) {
-                            int idx = t.indexOf(':');
-                            curName = (idx >= 0 ? t.substring(idx + 1).trim() : null);
-                            continue;
+                    if (table == null && external) {
+                        RedumpTable cached = RedumpTable.mapFile(compiled);
+                        if (cached != null && cached.sourceLength == yaml.length() && cached.sourceModified == yaml.lastModified()) {
+                            table = cached;
                         }
                     }
-                    if (curSerial != null && !pendingHashes.isEmpty()) {
-                        for (String[] hs : pendingHashes) {
-                            String md5 = md5ToLower(hs[0]);
-                            String size = hs[1] != null ? hs[1].trim() : null;
-                            if (md5 != null && size != null) {
-                                Result r = new Result();
-                                r.serial = curSerial;
-                                r.name = (curName != null ? curName : curSerial);
-                                sMd5SizeToResult.put(md5 + "|" + size, r);
-                            }
+                    // The data-root YAML is usually an untouched copy of the bundled one; an edit of the
+                    // same length is told apart by its checksum. Caching the bundled table under the
+                    // copy's length and mtime lets the check above answer from then on.
+                    if (table == null && external && bundled != null && bundled.sourceLength == yaml.length()
+                            && bundled.sourceCrc == RedumpTable.crc32(yaml)) {
+                        table = bundled;
+                        try { bundled.writeTo(compiled, yaml.length(), yaml.lastModified()); }
+                        catch (IOException e) { try { DebugLog.w("Redump", "Failed to cache compiled DB: " + e.getMessage()); } catch (Throwable ignored) {} }
+                    }
+                    if (table == null) {
+                        table = parseYaml(ctx, external ? yaml : null);
+                        if (table != null && external) {
+                            try { table.writeTo(compiled); }
+                            catch (IOException e) { try { DebugLog.w("Redump", "Failed to cache compiled DB: " + e.getMessage()); } catch (Throwable ignored) {} }
                         }
                     }
-                    pendingHashes.clear();
-                    try { DebugLog.i("Redump", "Loaded hash map entries: " + sMd5SizeToResult.size()); } catch (Throwable ignored) {}
+                    if (table != null) {
+                        try { DebugLog.i("Redump", "Loaded dumps: " + table.size()); } catch (Throwable ignored) {}
+                    }
                 } catch (Exception ex) {
                     try { DebugLog.e("Redump", "Failed to load DB: " + ex.getMessage()); } catch (Throwable ignored) {}
                 } finally {
-                    if (br != null) try { br.close(); } catch (Exception ignored) {}
+                    // Published only once complete; a missing database leaves an empty table so we never retry.
+                    sTable = table != null ? table : RedumpTable.EMPTY;
                 }
             }
         }
 
-        static Result lookupByFile(android.content.ContentResolver cr, Uri file) {
-            Context ctx = NativeApp.getContext();
-            if (ctx == null) return null;
-            ensureLoaded(ctx);
-            if (sMd5SizeToResult == null || sMd5SizeToResult.isEmpty()) return null;
-            try {
-                MessageDigest md = MessageDigest.getInstance("MD5");
-                long total = 0;
-                final int BUF = 1024 * 1024;
-                byte[] buf = new byte[BUF];
-                try (java.io.InputStream in = cr.openInputStream(file)) {
-                    if (in == null) return null;
-                    while (true) {
-                        int r = in.read(buf);
-                        if (r <= 0) break;
-                        md.update(buf, 0, r);
-                        total += r;
+        /** Fallback for a user-supplied YAML or a build without the compiled table. */
+        @Nullable
+        private static RedumpTable parseYaml(Context ctx, @Nullable File f) throws IOException {
+            java.io.InputStream in;
+            if (f != null) {
+                in = new java.io.FileInputStream(f);
+            } else {
+                try { in = ctx.getAssets().open("resources/RedumpDatabase.yaml"); }
+                catch (Exception e) {
+                    try { DebugLog.w("Redump", "Database not found (assets and external)"); } catch (Throwable ignored) {}
+                    return null;
+                }
+            }
+            RedumpTable.Builder builder = new RedumpTable.Builder();
+            try (java.io.BufferedReader br = new java.io.BufferedReader(new java.io.InputStreamReader(in, java.nio.charset.StandardCharsets.UTF_8))) {
+                String line;
+                java.util.List<String[]> pendingHashes = new java.util.ArrayList<>(); // each [md5,size]
+                String curSerial = null;
+                String curName = null;
+                String pendingMd5 = null;
+                String pendingSize = null;
+                while ((line = br.readLine()) != null) {
+                    String t = line.trim();
+                    if (t.isEmpty() || t.startsWith("#")) continue;
+                    if (t.startsWith("- hashes:")) {
+                        if (curSerial != null && !pendingHashes.isEmpty()) {
+                            for (String[] hs : pendingHashes) {
+                                addResult(builder, hs, curSerial, curName);
+                            }
+                        }
+                        pendingHashes.clear();
+                        curSerial = null;
+                        curName = null;
+                        pendingMd5 = null; pendingSize = null;
+                        continue;
+                    }
+                    if (t.startsWith("- md5:")) {
+                        int idx = t.indexOf(':');
+                        if (idx >= 0) { pendingMd5 = t.substring(idx + 1).trim(); }
+                        continue;
+                    }
+                    if (t.startsWith("md5:")) {
+                        int idx = t.indexOf(':');
+                        if (idx >= 0) { pendingMd5 = t.substring(idx + 1).trim(); }
+                        continue;
+                    }
+                    if (t.startsWith("size:")) {
+                        int idx = t.indexOf(':');
+                        if (idx >= 0) { pendingSize = t.substring(idx + 1).trim(); }
+                        if (pendingMd5 != null && pendingSize != null) {
+                            pendingHashes.add(new String[]{pendingMd5, pendingSize});
+                            pendingMd5 = null; pendingSize = null;
+                        }
+                        continue;
+                    }
+                    if (t.startsWith("serial:")) {
+                        int idx = t.indexOf(':');
+                        curSerial = (idx >= 0 ? t.substring(idx + 1).trim() : null);
+                        continue;
+                    }
+                    if (t.startsWith("name:")) {
+                        int idx = t.indexOf(':');
+                        curName = (idx >= 0 ? t.substring(idx + 1).trim() : null);
+                        continue;
+                    }
+                }
+                if (curSerial != null && !pendingHashes.isEmpty()) {
+                    for (String[] hs : pendingHashes) {
+                        addResult(builder, hs, curSerial, curName);
                     }
                 }
-                String md5 = new java.math.BigInteger(1, md.digest()).toString(16);
-                while (md5.length() < 32) md5 = "0" + md5;
-                String key = md5ToLower(md5) + "|" + Long.toString(total);
-                Result r = sMd5SizeToResult.get(key);
-                return r;
-            } catch (Exception ignored) {
-                return null;
             }
+            return f != null ? builder.build(f.length(), f.lastModified(), 0L) : builder.build(-1L, 0L, 0L);
+        }
+
+        private static void addResult(RedumpTable.Builder builder, String[] hash, String serial, String name) {
+            String md5 = md5ToLower(hash[0]);
+            if (md5 == null || hash[1] == null) return;
+            long size;
+            try { size = Long.parseLong(hash[1].trim()); } catch (NumberFormatException e) { return; }
+            builder.add(md5, size, serial, name);
+        }
+
+        /** Dumps whose image is exactly {@code size} bytes; empty when the database is unavailable. */
+        static List<Result> candidatesForSize(Context ctx, long size) {
+            if (ctx == null || size <= 0) return Collections.emptyList();
+            ensureLoaded(ctx);
+            RedumpTable table = sTable;
+            return table != null ? table.candidatesForSize(size) : Collections.<Result>emptyList();
         }
     }
 
@@ -4570,142 +4772,261 @@ public class MainActivity extends AppCompatActivity {
             }
         }
         private final List<GameEntry> data;
-    private final List<GameEntry> filtered = new ArrayList<>();
+        // Rebind only what changed: a new Redump title touches the label, a new serial the cover too.
+        static final int PAYLOAD_TITLE = 1;
+        static final int PAYLOAD_COVER = 2;
+        /**
+         * What a cell shows of an entry, copied when the list is submitted. Entries are updated in
+         * place, so the differ compares these snapshots rather than the entries themselves.
+         */
+        static final class Row {
+            final GameEntry entry;
+            final String label;
+            final String serial;
+            Row(GameEntry entry) {
+                this.entry = entry;
+                this.label = entry.gameTitle != null ? entry.gameTitle : entry.title;
+                this.serial = entry.serial;
+            }
+        }
+        private static final androidx.recyclerview.widget.DiffUtil.ItemCallback<Row> ROW_DIFF = new androidx.recyclerview.widget.DiffUtil.ItemCallback<Row>() {
+            @Override public boolean areItemsTheSame(@NonNull Row a, @NonNull Row b) {
+                return a.entry == b.entry || (a.entry.uri != null && a.entry.uri.equals(b.entry.uri));
+            }
+            @Override public boolean areContentsTheSame(@NonNull Row a, @NonNull Row b) {
+                return TextUtils.equals(a.label, b.label) && TextUtils.equals(a.serial, b.serial);
+            }
+            @Override public Object getChangePayload(@NonNull Row a, @NonNull Row b) {
+                int changed = 0;
+                if (!TextUtils.equals(a.label, b.label)) changed |= PAYLOAD_TITLE;
+                // Without a serial the cover is looked up by title.
+                if (!TextUtils.equals(a.serial, b.serial) || (TextUtils.isEmpty(b.serial) && changed != 0)) changed |= PAYLOAD_COVER;
+                return changed;
+            }
+        };
+        // Diffs on a background thread and dispatches minimal notifyItem* calls.
+        private final androidx.recyclerview.widget.AsyncListDiffer<Row> differ = new androidx.recyclerview.widget.AsyncListDiffer<>(this, ROW_DIFF);
         private final OnClick onClick;
         private boolean listMode = false;
-        // Lightweight in-memory cache for cover bitmaps
-        private static final android.util.LruCache<String, android.graphics.Bitmap> sCoverCache;
+        // Covers decoded at cell size; keys come from CoverLoader.cacheKey
+        private static final BitmapCache sCoverCache = CoverLoader.memoryCache();
         private static final java.util.Set<String> sNegativeCache = java.util.Collections.synchronizedSet(new java.util.HashSet<>());
-        private static final java.util.concurrent.ExecutorService sExec = java.util.concurrent.Executors.newFixedThreadPool(3);
-        private static final java.util.Map<String, File> sLocalCoverFiles = java.util.Collections.synchronizedMap(new java.util.HashMap<>());
-        private static final java.util.Set<String> sLocalCoverMissing = java.util.Collections.synchronizedSet(new java.util.HashSet<>());
-        static {
-            int maxMem = (int) (Runtime.getRuntime().maxMemory() / 1024);
-            int cacheSize = Math.max(1024 * 8, Math.min(1024 * 64, maxMem / 16)); 
-            sCoverCache = new android.util.LruCache<String, android.graphics.Bitmap>(cacheSize) {
-                @Override protected int sizeOf(String key, android.graphics.Bitmap value) {
-                    return value.getByteCount() / 1024;
-                }
-            };
-        }
+        // Cover file per GameEntry.id; NO_LOCAL_COVER once a lookup found none. Guarded by itself.
+        private static final android.util.LongSparseArray<File> sLocalCoverFiles = new android.util.LongSparseArray<>();
+        private static final File NO_LOCAL_COVER = new File("");
+        // Memory cache key per CoverRequestScheduler.key, so a bind does not rebuild it. Guarded by sLocalCoverFiles.
+        private static final android.util.LongSparseArray<String> sMemoryKeys = new android.util.LongSparseArray<>();
+        private int gridCoverWidth;
+        private int gridCoverHeight;
+        private int prefetchRows = DEFAULT_COVER_PREFETCH_ROWS;
+        private GridFocusNavigator navigator;
+        // Last read-ahead range; onScrolled fires every frame but the range changes once per row.
+        private int prefetchFrom = -1;
+        private int prefetchTo = -1;
         static void clearLocalCoverCache() {
-            sLocalCoverFiles.clear();
-            sLocalCoverMissing.clear();
+            synchronized (sLocalCoverFiles) {
+                sLocalCoverFiles.clear();
+                sMemoryKeys.clear();
+            }
+        }
+        @Nullable
+        private static File localCoverFile(long id) {
+            synchronized (sLocalCoverFiles) {
+                return sLocalCoverFiles.get(id);
+            }
+        }
+        private static void setLocalCoverFile(long id, File file) {
+            synchronized (sLocalCoverFiles) {
+                File previous = sLocalCoverFiles.get(id);
+                sLocalCoverFiles.put(id, file);
+                // Keys are only cached for found files; one replaced by another file is rare enough to drop them all.
+                if (previous != null && previous != NO_LOCAL_COVER && !previous.equals(file)) sMemoryKeys.clear();
+            }
         }
 
         static void registerCachedCover(GameEntry entry, File file) {
             if (entry == null || file == null || !file.exists()) {
                 return;
             }
-            String key = coverKey(entry);
-            if (TextUtils.isEmpty(key)) {
-                return;
+            setLocalCoverFile(entry.id, file);
+            entry.coverPath = file.getAbsolutePath();
+            GameLibraryIndex index = GameLibraryIndex.peek();
+            if (index != null) index.update(entry);
+        }
+    GamesAdapter(List<GameEntry> d, OnClick oc) { data = d; onClick = oc; setHasStableIds(true); rowsChanged(); }
+        private final java.util.Map<Uri, GameEntry> byUri = new java.util.HashMap<>();
+        void update(List<GameEntry> d) {
+            clearLocalCoverCache();
+            data.clear();
+            data.addAll(d);
+            byUri.clear();
+            for (GameEntry e : data) {
+                if (e != null && e.uri != null) byUri.put(e.uri, e);
+            }
+            rowsChanged();
+        }
+        /** Adds scan results as they arrive, keeping {@link MainActivity#GAME_ENTRY_ORDER} and skipping known entries. */
+        void mergeEntries(List<GameEntry> batch) {
+            boolean changed = false;
+            for (GameEntry e : batch) {
+                if (e == null || e.uri == null) continue;
+                GameEntry existing = byUri.get(e.uri);
+                if (existing != null) {
+                    existing.volumeId = e.volumeId;
+                    existing.discDate = e.discDate;
+                    if (!TextUtils.equals(existing.serial, e.serial) || !TextUtils.equals(existing.gameTitle, e.gameTitle)) {
+                        existing.serial = e.serial;
+                        existing.gameTitle = e.gameTitle;
+                        changed = true;
+                    }
+                    continue;
+                }
+                int pos = Collections.binarySearch(data, e, GAME_ENTRY_ORDER);
+                if (pos < 0) pos = -pos - 1;
+                data.add(pos, e);
+                byUri.put(e.uri, e);
+                changed = true;
+            }
+            if (changed) rowsChanged();
+        }
+        /**
+         * Copies Redump results into the adapter's own entry for the same document; the diff rebinds
+         * only its cell. Results arrive in bursts, so the rows are rebuilt once per frame. Main thread.
+         */
+        void applyMetadata(GameEntry e) {
+            if (e == null || e.uri == null) return;
+            GameEntry existing = byUri.get(e.uri);
+            if (existing == null) return;
+            if (existing != e) {
+                existing.metadataResolved = e.metadataResolved;
+                if (TextUtils.equals(existing.serial, e.serial) && TextUtils.equals(existing.gameTitle, e.gameTitle)) return;
+                existing.serial = e.serial;
+                existing.gameTitle = e.gameTitle;
+            }
+            if (!metadataFramePending) {
+                metadataFramePending = true;
+                android.view.Choreographer.getInstance().postFrameCallback(metadataFrame);
+            }
+        }
+        private boolean metadataFramePending;
+        private final android.view.Choreographer.FrameCallback metadataFrame = frameTimeNanos -> {
+            metadataFramePending = false;
+            rowsChanged();
+        };
+        /** Reloads every cover without touching titles, after covers changed on disk. */
+        void refreshCovers() {
+            notifyItemRangeChanged(0, getItemCount(), PAYLOAD_COVER);
+        }
+        GameEntry getEntry(int position) {
+            return differ.getCurrentList().get(position).entry;
+        }
+        void removeEntries(java.util.Collection<Uri> uris) {
+            boolean changed = false;
+            for (Uri uri : uris) {
+                GameEntry existing = byUri.remove(uri);
+                if (existing != null) {
+                    data.remove(existing);
+                    changed = true;
+                }
             }
-            sLocalCoverFiles.put(key, file);
-            sLocalCoverMissing.remove(key);
+            if (changed) rowsChanged();
         }
-    GamesAdapter(List<GameEntry> d, OnClick oc) { data = d; filtered.addAll(d); onClick = oc; setHasStableIds(true); }
-        void update(List<GameEntry> d) { clearLocalCoverCache(); data.clear(); data.addAll(d); applyFilter(currentFilter); }
         int getItemCountTotal() { return data.size(); }
         private String currentFilter = "";
-        void setFilter(String q) { currentFilter = q == null ? "" : q.trim(); applyFilter(currentFilter); }
-        private void applyFilter(String q) {
-            filtered.clear();
-            if (TextUtils.isEmpty(q)) {
-                filtered.addAll(data);
-            } else {
-                String needle = q.toLowerCase();
-                for (GameEntry e : data) {
-                    String t = e != null && e.title != null ? e.title.toLowerCase() : "";
-                    String s = e != null && e.serial != null ? e.serial.toLowerCase() : "";
-                    if (t.contains(needle) || s.contains(needle)) filtered.add(e);
-                }
+        private final LibrarySearch search = new LibrarySearch(rows -> differ.submitList(rows));
+        void setFilter(String q) { setFilter(q, false); }
+        /** @param typing debounce, the query is still being typed */
+        void setFilter(String q, boolean typing) {
+            currentFilter = q == null ? "" : q.trim();
+            applyFilter(currentFilter, typing);
+        }
+        // Snapshot of data, rebuilt only when an entry or what a cell shows of it changes; rowsVersion
+        // tells the search when its index is stale, so a new query reuses it.
+        private List<Row> rows = Collections.emptyList();
+        private int rowsVersion;
+        private void rowsChanged() {
+            List<Row> next = new ArrayList<>(data.size());
+            for (GameEntry e : data) {
+                if (e != null) next.add(new Row(e));
             }
-            notifyDataSetChanged();
+            rows = next;
+            rowsVersion++;
+            applyFilter(currentFilter, false);
+        }
+        private void applyFilter(String q, boolean typing) {
+            search.submit(rows, rowsVersion, q, typing);
         }
         void setListMode(boolean list) { this.listMode = list; notifyDataSetChanged(); }
         @Override public int getItemViewType(int position) { return listMode ? 1 : 0; }
         @NonNull @Override public VH onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
             int layout = (viewType == 1) ? R.layout.item_game_list : R.layout.item_game;
             View v = getLayoutInflater(parent).inflate(layout, parent, false);
-            return new VH(v);
+            VH holder = new VH(v);
+            attachListeners(holder);
+            return holder;
         }
         @Override public long getItemId(int position) {
-            try {
-                GameEntry e = data.get(position);
-                String key = (e.uri != null ? e.uri.toString() : e.title) + "|" + (e.title != null ? e.title : "");
-                return (long) key.hashCode();
-            } catch (Throwable ignored) { return position; }
+            return getEntry(position).id;
         }
         @Override public void onViewRecycled(@NonNull VH holder) {
             super.onViewRecycled(holder);
             try {
                 holder.img.setTag(R.id.tag_request_key, null);
-                holder.img.setImageDrawable(null);
+                CoverRequestScheduler.get().cancel(holder.img);
+                sCoverCache.setImage(holder.img, null);
             } catch (Throwable ignored) {}
         }
+        @Override public void onBindViewHolder(@NonNull VH holder, int position, @NonNull List<Object> payloads) {
+            int changed = 0;
+            for (int i = 0; i < payloads.size(); i++) {
+                Object p = payloads.get(i);
+                if (p instanceof Integer) changed |= (Integer) p;
+            }
+            if (payloads.isEmpty() || changed == 0) {
+                onBindViewHolder(holder, position);
+                return;
+            }
+            GameEntry e = getEntry(position);
+            if ((changed & PAYLOAD_COVER) != 0) {
+                bindCover(holder, e);
+            } else {
+                String label = e.gameTitle != null ? e.gameTitle : e.title;
+                if (listMode) setLabel(holder.tv, label);
+                if (holder.tvOverlay != null) setLabel(holder.tvOverlay, label);
+            }
+        }
         @Override public void onBindViewHolder(@NonNull VH holder, int position) {
-            GameEntry e = filtered.get(position);
-            String tpl = ((MainActivity)holder.itemView.getContext()).getCoversUrlTemplate();
+            bindCover(holder, getEntry(position));
+        }
+        /**
+         * Cover and label; the label doubles as the placeholder while the cover loads. Rebinding a
+         * cell whose cover is in memory allocates nothing: listeners are attached once per holder, and
+         * the template, manual cover path and memory cache key are all cached.
+         */
+        private void bindCover(VH holder, GameEntry e) {
+            MainActivity act = (MainActivity) holder.itemView.getContext();
             boolean loaded = false;
-            try { holder.img.setImageDrawable(null); } catch (Throwable ignored) {}
             try { holder.img.setBackgroundColor(android.graphics.Color.TRANSPARENT); } catch (Throwable ignored) {}
             if (holder.tvOverlay != null) holder.tvOverlay.setVisibility(View.GONE);
-            try {
-                String gameKey = gameKeyFromEntry(e);
-                String manual = ((MainActivity)holder.itemView.getContext()).getManualCoverUri(gameKey);
-                if (manual != null && !manual.isEmpty()) {
-                    android.net.Uri mu = android.net.Uri.parse(manual);
-                    try (java.io.InputStream is = holder.itemView.getContext().getContentResolver().openInputStream(mu)) {
-                        if (is != null) {
-                            android.graphics.Bitmap bmp = android.graphics.BitmapFactory.decodeStream(is);
-                            if (bmp != null) {
-                                holder.img.setImageBitmap(bmp);
-                                loaded = true;
-                            }
-                        }
-                    } catch (Throwable ignored) {}
-                }
-            } catch (Throwable ignored) {}
-            if (!loaded) {
-                File cachedLocal = findCachedCoverFile(holder.itemView.getContext(), e);
-                if (cachedLocal != null && cachedLocal.exists()) {
-                    String localKey = cachedLocal.getAbsolutePath();
-                    android.graphics.Bitmap cachedBmp = sCoverCache.get(localKey);
-                    if (cachedBmp != null) {
-                        holder.img.setImageBitmap(cachedBmp);
-                        loaded = true;
-                    } else {
-                        android.graphics.Bitmap bmp = android.graphics.BitmapFactory.decodeFile(localKey);
-                        if (bmp != null) {
-                            holder.img.setImageBitmap(bmp);
-                            sCoverCache.put(localKey, bmp);
-                            loaded = true;
-                        }
-                    }
-                }
-            }
-            boolean online = MainActivity.hasInternetConnection(holder.itemView.getContext());
-            if (!loaded && online && tpl != null && !tpl.isEmpty()) {
-                java.util.List<String> urls = MainActivity.buildCoverCandidateUrls(e, tpl);
-                String requestKey = (e.uri != null ? e.uri.toString() : e.title) + "|" + (e.serial != null ? e.serial : "") + "|" + (e.title != null ? e.title : "");
-                holder.img.setTag(R.id.tag_request_key, requestKey);
-                for (String u : urls) {
-                    if (u == null || u.isEmpty() || u.contains("${")) continue;
-                    android.graphics.Bitmap cached = sCoverCache.get(u);
-                    if (cached != null) {
-                        loaded = true;
-                        holder.img.setImageBitmap(cached);
-                        break;
-                    }
-                }
-                if (!loaded && !urls.isEmpty())
-                    loadImageWithFallback(holder.img, holder.tvOverlay, holder.itemView.getContext(), e, urls, requestKey);
+            holder.img.setTag(R.id.tag_request_key, e);
+            String manual = null;
+            try { manual = act.getManualCoverPath(gameKeyFromEntry(e)); } catch (Throwable ignored) {}
+            int tw = coverTargetWidth(act);
+            int th = coverTargetHeight(act);
+            // Only already decoded covers are shown synchronously; everything else decodes off the UI thread.
+            android.graphics.Bitmap memory = memoryCover(e, manual, tw, th);
+            if (memory != null) {
+                CoverRequestScheduler.get().cancel(holder.img);
+                sCoverCache.setImage(holder.img, memory);
+                loaded = true;
+            } else {
+                try { sCoverCache.setImage(holder.img, null); } catch (Throwable ignored) {}
+                loadCoverAsync(new CoverRequestScheduler.Target(holder.img, e.id, holder.tvOverlay), act, e, manual, act.getCoversUrlTemplate(), tw, th);
             }
             holder.img.setVisibility(View.VISIBLE);
             if (listMode) {
                 holder.tv.setVisibility(View.VISIBLE);
-                holder.tv.setText(e.gameTitle != null ? e.gameTitle : e.title);
+                setLabel(holder.tv, e.gameTitle != null ? e.gameTitle : e.title);
                 if (holder.tvOverlay != null) holder.tvOverlay.setVisibility(View.GONE);
             } else {
                 if (loaded) {
@@ -4714,232 +5035,318 @@ public class MainActivity extends AppCompatActivity {
                 } else {
                     holder.tv.setVisibility(View.GONE);
                     if (holder.tvOverlay != null) {
-                        holder.tvOverlay.setText(e.gameTitle != null ? e.gameTitle : e.title);
+                        setLabel(holder.tvOverlay, e.gameTitle != null ? e.gameTitle : e.title);
                         holder.tvOverlay.setVisibility(View.VISIBLE);
                         holder.tvOverlay.bringToFront();
                     }
                 }
             }
-            holder.itemView.setOnClickListener(v -> onClick.onClick(e));
-            holder.itemView.setOnKeyListener((v, keyCode, event) -> {
-                if (event.getAction() != KeyEvent.ACTION_DOWN) return false;
-                RecyclerView rv = (RecyclerView) holder.itemView.getParent();
-                RecyclerView.LayoutManager lm = rv.getLayoutManager();
-                if (!(lm instanceof GridLayoutManager)) return false;
-                int span = ((GridLayoutManager) lm).getSpanCount();
+        }
+        private static void setLabel(TextView tv, String label) {
+            // setText re-lays out the cell even for the same text.
+            if (!TextUtils.equals(tv.getText(), label)) tv.setText(label);
+        }
+        /** Once per holder; the listeners look up whichever entry the holder is bound to. */
+        private void attachListeners(VH holder) {
+            holder.itemView.setOnClickListener(v -> {
                 int pos = holder.getAdapterPosition();
-                if (pos == RecyclerView.NO_POSITION) return false;
-                switch (keyCode) {
-                    case KeyEvent.KEYCODE_DPAD_LEFT:
-                        if (pos % span > 0) {
-                            int target = pos - 1;
-                            rv.smoothScrollToPosition(target);
-                            rv.post(() -> {
-                                RecyclerView.ViewHolder tvh = rv.findViewHolderForAdapterPosition(target);
-                                if (tvh != null) tvh.itemView.requestFocus();
-                            });
-                        }
-                        return true;
-                    case KeyEvent.KEYCODE_DPAD_RIGHT:
-                        if (pos + 1 < getItemCount()) {
-                            int target = pos + 1;
-                            rv.smoothScrollToPosition(target);
-                            rv.post(() -> {
-                                RecyclerView.ViewHolder tvh = rv.findViewHolderForAdapterPosition(target);
-                                if (tvh != null) tvh.itemView.requestFocus();
-                            });
-                        }
-                        return true;
-                    case KeyEvent.KEYCODE_DPAD_UP:
-                        if (pos - span >= 0) {
-                            int target = pos - span;
-                            rv.smoothScrollToPosition(target);
-                            rv.post(() -> {
-                                RecyclerView.ViewHolder tvh = rv.findViewHolderForAdapterPosition(target);
-                                if (tvh != null) tvh.itemView.requestFocus();
-                            });
-                        }
-                        return true;
-                    case KeyEvent.KEYCODE_DPAD_DOWN:
-                        if (pos + span < getItemCount()) {
-                            int target = pos + span;
-                            rv.smoothScrollToPosition(target);
-                            rv.post(() -> {
-                                RecyclerView.ViewHolder tvh = rv.findViewHolderForAdapterPosition(target);
-                                if (tvh != null) tvh.itemView.requestFocus();
-                            });
-                        }
-                        return true;
-                    case KeyEvent.KEYCODE_BUTTON_A:
-                    case KeyEvent.KEYCODE_BUTTON_START:
-                    case KeyEvent.KEYCODE_ENTER:
-                        v.performClick();
-                        return true;
-                }
-                return false;
+                if (pos != RecyclerView.NO_POSITION) onClick.onClick(getEntry(pos));
             });
+            holder.itemView.setOnKeyListener((v, keyCode, event) -> navigator != null && navigator.onKey(v, keyCode, event));
             holder.itemView.setOnLongClickListener(v -> {
-                try { ((MainActivity)holder.itemView.getContext()).promptChooseManualCover(e); } catch (Throwable ignored) {}
+                int pos = holder.getAdapterPosition();
+                if (pos == RecyclerView.NO_POSITION) return false;
+                try { ((MainActivity)holder.itemView.getContext()).promptChooseManualCover(getEntry(pos)); } catch (Throwable ignored) {}
                 return true;
             });
         }
-    @Override public int getItemCount() { return filtered.size(); }
+    @Override public int getItemCount() { return differ.getCurrentList().size(); }
+        void setNavigator(GridFocusNavigator navigator) {
+            this.navigator = navigator;
+        }
+        void setPrefetchRows(int rows) {
+            prefetchRows = Math.max(0, rows);
+        }
+        /**
+         * Queues read-ahead loads for the {@link #prefetchRows} rows past the visible ones in the
+         * direction of the scroll, so they are decoded (or downloaded) before they come on screen.
+         */
+        void prefetchAhead(RecyclerView rv, int dy) {
+            if (prefetchRows <= 0 || dy == 0 || !(rv.getLayoutManager() instanceof LinearLayoutManager)) return;
+            LinearLayoutManager lm = (LinearLayoutManager) rv.getLayoutManager();
+            int span = lm instanceof GridLayoutManager ? ((GridLayoutManager) lm).getSpanCount() : 1;
+            int count = prefetchRows * span;
+            int from;
+            int to;
+            if (dy > 0) {
+                from = lm.findLastVisibleItemPosition() + 1;
+                to = Math.min(getItemCount(), from + count);
+            } else {
+                to = lm.findFirstVisibleItemPosition();
+                from = Math.max(0, to - count);
+            }
+            if (from < 0 || to <= from || (from == prefetchFrom && to == prefetchTo)) return;
+            prefetchFrom = from;
+            prefetchTo = to;
+            Context ctx = rv.getContext();
+            MainActivity act = (MainActivity) ctx;
+            String tpl = act.getCoversUrlTemplate();
+            int tw = coverTargetWidth(ctx);
+            int th = coverTargetHeight(ctx);
+            for (int i = from; i < to; i++) {
+                GameEntry e = getEntry(i);
+                String manual = null;
+                try { manual = act.getManualCoverPath(gameKeyFromEntry(e)); } catch (Throwable ignored) {}
+                if (memoryCover(e, manual, tw, th) == null) {
+                    loadCoverAsync(null, ctx, e, manual, tpl, tw, th);
+                }
+            }
+        }
+        private static android.graphics.Bitmap memoryCover(GameEntry e, String manual, int tw, int th) {
+            long slot = CoverRequestScheduler.key(e.id, manual, tw, th);
+            String key;
+            synchronized (sLocalCoverFiles) {
+                key = sMemoryKeys.get(slot);
+            }
+            if (key == null) {
+                String source = manual;
+                if (TextUtils.isEmpty(source)) {
+                    File known = localCoverFile(e.id);
+                    if (known == null || known == NO_LOCAL_COVER) return null;
+                    source = known.getAbsolutePath();
+                }
+                key = CoverLoader.cacheKey(source, tw, th);
+                synchronized (sLocalCoverFiles) {
+                    sMemoryKeys.put(slot, key);
+                }
+            }
+            return sCoverCache.getBitmap(key);
+        }
+        /** Size of a grid cover cell in pixels, measured by the activity once the grid is laid out. */
+        void setGridCoverSize(int width, int height) {
+            gridCoverWidth = width;
+            gridCoverHeight = height;
+        }
+        private int coverTargetWidth(Context ctx) {
+            float density = ctx.getResources().getDisplayMetrics().density;
+            if (listMode) return Math.round(80 * density);
+            if (gridCoverWidth > 0) return gridCoverWidth;
+            int span = Math.max(1, ctx.getResources().getInteger(R.integer.game_selector_span_count));
+            return ctx.getResources().getDisplayMetrics().widthPixels / span;
+        }
+        private int coverTargetHeight(Context ctx) {
+            if (!listMode && gridCoverHeight > 0) return gridCoverHeight;
+            return coverTargetWidth(ctx) * 3 / 2;
+        }
+
+        /** Queues the cover for {@code target}, or a read-ahead when it is null; requests for the same game and size share one load. */
+        private void loadCoverAsync(CoverRequestScheduler.Target target, Context ctx, GameEntry entry,
+                                    String manual, String tpl, int tw, int th) {
+            final Context appCtx = ctx.getApplicationContext();
+            long key = CoverRequestScheduler.key(entry.id, manual, tw, th);
+            CoverRequestScheduler.Step local = request -> {
+                android.graphics.Bitmap bmp = null;
+                String source = null;
+                if (!TextUtils.isEmpty(manual)) {
+                    File manualFile = new File(manual);
+                    bmp = decodeThumbnail(appCtx, manual, manualFile.lastModified(), tw, th,
+                            () -> CoverLoader.decodeFile(manualFile, tw, th));
+                    source = manual;
+                }
+                if (bmp == null) {
+                    File cached = findCachedCoverFile(appCtx, entry);
+                    if (cached != null) {
+                        bmp = decodeThumbnail(appCtx, cached.getAbsolutePath(), cached.lastModified(), tw, th,
+                                () -> CoverLoader.decodeFile(cached, tw, th));
+                        source = cached.getAbsolutePath();
+                    }
+                }
+                if (bmp != null) sCoverCache.putBitmap(CoverLoader.cacheKey(source, tw, th), bmp);
+                return bmp;
+            };
+            CoverRequestScheduler.Step remote = null;
+            if (!TextUtils.isEmpty(tpl)) {
+                remote = request -> {
+                    // Resolved before, or probed and missing: no request until the template changes.
+                    CoverSourceCache sources = CoverSourceCache.get(appCtx);
+                    String baseName = computeCoverBaseName(entry);
+                    if (sources.isKnownMissing(baseName)) return null;
+                    if (!MainActivity.hasInternetConnection(appCtx)) return null;
+                    java.util.List<String> urls = MainActivity.coverCandidateUrls(entry, tpl);
+                    CoverSourceCache.Source resolved = sources.resolved(baseName);
+                    if (resolved != null) {
+                        urls = new java.util.ArrayList<>(urls);
+                        urls.remove(resolved.url);
+                        urls.add(0, resolved.url);
+                    }
+                    return urls.isEmpty() ? null : loadImageWithFallback(request, appCtx, entry, urls, tw, th);
+                };
+            }
+            CoverRequestScheduler.get().submit(key, target, local, remote);
+        }
+        /** Cell-sized WebP from {@link ThumbnailCache}, falling back to {@code decode} when there is no cover dir. */
+        private static android.graphics.Bitmap decodeThumbnail(Context ctx, String source, long sourceModified, int tw, int th,
+                                                               java.util.function.Supplier<android.graphics.Bitmap> decode) {
+            ThumbnailCache thumbs = ThumbnailCache.get(ctx);
+            return thumbs != null ? thumbs.getOrCreate(source, sourceModified, tw, th, decode) : decode.get();
+        }
         private static android.view.LayoutInflater getLayoutInflater(ViewGroup parent) {
             return android.view.LayoutInflater.from(parent.getContext());
         }
 
-        private void loadImageWithFallback(android.widget.ImageView iv, TextView overlayView, Context ctx, GameEntry entry, java.util.List<String> urls, String requestKey) {
-            try {
-                sExec.execute(() -> {
-                    try {
-                        android.graphics.Bitmap bmp = null;
-                        String hitUrl = null;
-                        byte[] downloadedBytes = null;
-                        String downloadExtension = null;
-                        for (String ustr : urls) {
-                            if (ustr == null || ustr.isEmpty() || ustr.contains("${")) continue;
-                            Object tag = iv.getTag(R.id.tag_request_key);
-                            if (!(requestKey.equals(tag))) { break; }
-                            if (sNegativeCache.contains(ustr)) continue;
-                            android.graphics.Bitmap cached = sCoverCache.get(ustr);
-                            if (cached != null) { bmp = cached; hitUrl = ustr; break; }
-                            try {
-                                java.net.HttpURLConnection c = (java.net.HttpURLConnection) new java.net.URL(ustr).openConnection();
-                                c.setConnectTimeout(4000); c.setReadTimeout(6000);
-                                c.setInstanceFollowRedirects(true);
-                                c.setRequestMethod("GET");
-                                int code = c.getResponseCode();
-                                if (code == 200) {
-                                    try (java.io.InputStream is = c.getInputStream();
-                                         java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream()) {
-                                        byte[] buffer = new byte[8192];
-                                        int read;
-                                        while ((read = is.read(buffer)) != -1) {
-                                            baos.write(buffer, 0, read);
-                                        }
-                                        byte[] data = baos.toByteArray();
-                                        if (data.length > 0) {
-                                            android.graphics.Bitmap candidate = android.graphics.BitmapFactory.decodeByteArray(data, 0, data.length);
-                                            if (candidate != null) {
-                                                bmp = candidate;
-                                                downloadedBytes = data;
-                                                downloadExtension = guessImageExtension(ustr, c.getContentType());
-                                                hitUrl = ustr;
-                                                break;
-                                            }
-                                        }
-                                    }
-                                } else if (code == 404) {
-                                    sNegativeCache.add(ustr);
-                                    continue; 
-                                } else {
-                                    try { DebugLog.d("Covers", "HTTP " + code + " for " + ustr); } catch (Throwable ignored) {}
-                                }
-                            } catch (Exception ex) {
-                                try { DebugLog.d("Covers", "Error loading cover: " + ex.getMessage()); } catch (Throwable ignored) {}
-                            }
-                        }
-                        if (downloadedBytes != null && downloadedBytes.length > 0 && entry != null && ctx != null) {
-                            try { storeCoverBytes(ctx, entry, downloadedBytes, downloadExtension); } catch (Throwable ignored) {}
+        /** Tries each candidate URL in turn on the network lane, giving up once no cell wants the cover. */
+        private static android.graphics.Bitmap loadImageWithFallback(CoverRequestScheduler.Request request, Context ctx, GameEntry entry, java.util.List<String> urls, int tw, int th) {
+            android.graphics.Bitmap bmp = null;
+            String hitUrl = null;
+            File downloadedFile = null;
+            String downloadExtension = null;
+            String etag = null;
+            String lastModified = null;
+            boolean probed = false;
+            boolean allNotFound = true;
+            for (String ustr : urls) {
+                if (ustr == null || ustr.isEmpty() || ustr.contains("${")) continue;
+                if (request.isCancelled()) { allNotFound = false; break; }
+                probed = true;
+                if (sNegativeCache.contains(ustr)) continue;
+                android.graphics.Bitmap cached = sCoverCache.getBitmap(CoverLoader.cacheKey(ustr, tw, th));
+                if (cached != null) { bmp = cached; hitUrl = ustr; break; }
+                try {
+                    java.net.HttpURLConnection c = (java.net.HttpURLConnection) new java.net.URL(ustr).openConnection();
+                    c.setConnectTimeout(4000); c.setReadTimeout(6000);
+                    c.setInstanceFollowRedirects(true);
+                    c.setRequestMethod("GET");
+                    int code = c.getResponseCode();
+                    if (code == 200) {
+                        allNotFound = false;
+                        String ext = guessImageExtension(ustr, c.getContentType());
+                        File partial = streamToPartialFile(ctx, c, ext);
+                        // Bounds first, then only the subsampled pixels; the full image is never in memory.
+                        android.graphics.Bitmap candidate = partial != null ? CoverLoader.decodeFile(partial, tw, th) : null;
+                        if (candidate != null) {
+                            bmp = candidate;
+                            downloadedFile = partial;
+                            downloadExtension = ext;
+                            etag = c.getHeaderField("ETag");
+                            lastModified = c.getHeaderField("Last-Modified");
+                            hitUrl = ustr;
+                            break;
                         }
-                        final android.graphics.Bitmap fb = bmp;
-                        final String fUrl = hitUrl;
-                        iv.post(() -> {
-                            Object tagNow = iv.getTag(R.id.tag_request_key);
-                            if (requestKey.equals(tagNow) && fb != null) {
-                                iv.setImageBitmap(fb);
-                                if (fUrl != null) sCoverCache.put(fUrl, fb);
-                                if (overlayView != null) overlayView.setVisibility(View.GONE);
-                            }
-                        });
-                    } catch (Throwable ignored) {}
-                });
-            } catch (Throwable ignored) {}
+                        if (partial != null) partial.delete();
+                    } else if (code == 404) {
+                        sNegativeCache.add(ustr);
+                        continue; 
+                    } else {
+                        allNotFound = false;
+                        try { DebugLog.d("Covers", "HTTP " + code + " for " + ustr); } catch (Throwable ignored) {}
+                    }
+                } catch (Exception ex) {
+                    allNotFound = false;
+                    try { DebugLog.d("Covers", "Error loading cover: " + ex.getMessage()); } catch (Throwable ignored) {}
+                }
+            }
+            if (entry != null && ctx != null) {
+                CoverSourceCache sources = CoverSourceCache.get(ctx);
+                if (hitUrl != null && downloadedFile != null) {
+                    sources.putResolved(computeCoverBaseName(entry), hitUrl, etag, lastModified);
+                    sources.saveAsync();
+                } else if (hitUrl == null && probed && allNotFound) {
+                    sources.putMissing(computeCoverBaseName(entry));
+                    sources.saveAsync();
+                }
+            }
+            if (downloadedFile != null) {
+                File stored = commitCoverFile(ctx, entry, downloadedFile, downloadExtension);
+                // Let the next bind find the decoded bitmap through the cached file as well.
+                if (stored != null && bmp != null) {
+                    ThumbnailCache thumbs = ThumbnailCache.get(ctx);
+                    if (thumbs != null) bmp = thumbs.put(stored.getAbsolutePath(), tw, th, bmp);
+                    sCoverCache.putBitmap(CoverLoader.cacheKey(stored.getAbsolutePath(), tw, th), bmp);
+                }
+            }
+            if (bmp != null && hitUrl != null) sCoverCache.putBitmap(CoverLoader.cacheKey(hitUrl, tw, th), bmp);
+            return bmp;
         }
 
         private File findCachedCoverFile(Context ctx, GameEntry entry) {
             if (ctx == null || entry == null || entry.uri == null) {
                 return null;
             }
-            String key = coverKey(entry);
-            if (TextUtils.isEmpty(key)) {
+            File cached = localCoverFile(entry.id);
+            if (cached == NO_LOCAL_COVER) {
                 return null;
             }
-            File cached = sLocalCoverFiles.get(key);
             if (cached != null && cached.exists()) {
                 return cached;
             }
-            if (sLocalCoverMissing.contains(key)) {
-                return null;
+            if (!TextUtils.isEmpty(entry.coverPath)) {
+                File indexed = new File(entry.coverPath);
+                if (indexed.isFile() && indexed.length() > 0) {
+                    setLocalCoverFile(entry.id, indexed);
+                    return indexed;
+                }
             }
             File cacheDir = MainActivity.getCoversCacheDir(ctx);
             if (cacheDir == null) {
-                sLocalCoverMissing.add(key);
+                setLocalCoverFile(entry.id, NO_LOCAL_COVER);
                 return null;
             }
             String baseName = computeCoverBaseName(entry);
-            File coverFile = MainActivity.findExistingCoverFile(cacheDir, baseName);
+            File coverFile = MainActivity.findExistingCoverFile(ctx, baseName);
             if (coverFile != null && coverFile.isFile() && coverFile.length() > 0) {
-                sLocalCoverFiles.put(key, coverFile);
-                sLocalCoverMissing.remove(key);
+                setLocalCoverFile(entry.id, coverFile);
                 return coverFile;
             }
-            sLocalCoverMissing.add(key);
+            setLocalCoverFile(entry.id, NO_LOCAL_COVER);
             return null;
         }
 
-        private static void storeCoverBytes(Context ctx, GameEntry entry, byte[] data, String extension) {
-            if (ctx == null || entry == null || data == null || data.length == 0) {
-                return;
-            }
-            File cacheDir = MainActivity.getCoversCacheDir(ctx);
-            if (cacheDir == null) {
-                return;
-            }
-            String baseName = computeCoverBaseName(entry);
-            if (TextUtils.isEmpty(baseName)) {
-                return;
-            }
-            String ext = extension;
-            if (TextUtils.isEmpty(ext)) {
-                ext = ".jpg";
-            }
-            if (!ext.startsWith(".")) {
-                ext = "." + ext;
+        /** Streams the response body into a partial file in the covers directory; null if it failed or was empty. */
+        private static File streamToPartialFile(Context ctx, java.net.HttpURLConnection c, String extension) {
+            CoverIndex index = CoverIndex.get(ctx);
+            if (index == null) {
+                return null;
             }
-            File target = new File(cacheDir, baseName + ext);
-            File parent = target.getParentFile();
-            if (parent != null && !parent.exists() && !parent.mkdirs()) {
-                return;
+            File partial;
+            try {
+                partial = index.newPartialFile(extension);
+            } catch (IOException e) {
+                return null;
             }
-            File temp = new File(cacheDir, baseName + "_tmp" + ext);
-            try (FileOutputStream fos = new FileOutputStream(temp)) {
-                fos.write(data);
-                fos.flush();
-            } catch (IOException ignored) {
-                temp.delete();
-                return;
+            long length = 0;
+            try (java.io.InputStream is = c.getInputStream(); FileOutputStream fos = new FileOutputStream(partial)) {
+                byte[] buffer = new byte[16 * 1024];
+                int read;
+                while ((read = is.read(buffer)) != -1) {
+                    fos.write(buffer, 0, read);
+                    length += read;
+                }
+            } catch (IOException e) {
+                partial.delete();
+                return null;
             }
-            if (!temp.renameTo(target)) {
-                temp.delete();
-                return;
+            if (length == 0) {
+                partial.delete();
+                return null;
             }
-            GamesAdapter.registerCachedCover(entry, target);
-            try { DebugLog.d("Covers", "Stored cover cache file: " + target.getAbsolutePath()); } catch (Throwable ignored) {}
+            return partial;
         }
 
-        private static String coverKey(GameEntry entry) {
-            if (entry == null) {
+        /** Renames a decoded download into the cover cache under the game's base name. */
+        private static File commitCoverFile(Context ctx, GameEntry entry, File partial, String extension) {
+            CoverIndex index = CoverIndex.get(ctx);
+            String baseName = entry != null ? computeCoverBaseName(entry) : null;
+            if (index == null || TextUtils.isEmpty(baseName)) {
+                partial.delete();
                 return null;
             }
-            if (entry.uri != null) {
-                return entry.uri.toString();
-            }
-            String fallback = entry.title;
-            if (TextUtils.isEmpty(fallback)) {
-                fallback = entry.fileTitleNoExt();
+            File target = index.commit(partial, baseName, extension);
+            if (target == null) {
+                return null;
             }
-            return fallback;
+            GamesAdapter.registerCachedCover(entry, target);
+            try { DebugLog.d("Covers", "Stored cover cache file: " + target.getAbsolutePath()); } catch (Throwable ignored) {}
+            return target;
         }
 
     }
@@ -0,0 +1,236 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import kr.co.iefriends.pcsx2.util.BitmapCache;
+import kr.co.iefriends.pcsx2.util.DebugLog;
+
+/**
+ * Covers the user picked for a single game. The picked image is copied once into
+ * {@code armsx2_covers/manual}, named by a hash of the game key, and the game key to file name
+ * table lives in the {@link GameLibraryIndex}; a bind looks the cover up in memory and decodes a
+ * local file instead of going back to the document provider.
+ * <p>
+ * Older versions kept the picked {@code content://} URI in the shared preferences;
+ * {@link #migrate} copies those once and removes them.
+ */
+final class ManualCovers {
+    private static final String TAG = "ManualCovers";
+    static final String DIR_NAME = "manual";
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final Object INSTANCE_LOCK = new Object();
+    private static ManualCovers sInstance;
+
+    private final Context appContext;
+    private final File dir;
+    // file name -> absolute path; looked up on every cover bind.
+    private final HashMap<String, String> paths = new HashMap<>();
+
+    private ManualCovers(Context appContext, File dir) {
+        this.appContext = appContext;
+        this.dir = dir;
+    }
+
+    @Nullable
+    static ManualCovers get(Context context) {
+        synchronized (INSTANCE_LOCK) {
+            if (sInstance == null) {
+                File covers = MainActivity.getCoversCacheDir(context);
+                if (covers == null) {
+                    return null;
+                }
+                Context appCtx = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+                sInstance = new ManualCovers(appCtx, new File(covers, DIR_NAME));
+            }
+            return sInstance;
+        }
+    }
+
+    static void reset() {
+        synchronized (INSTANCE_LOCK) {
+            sInstance = null;
+        }
+    }
+
+    /** Absolute path of the game's manual cover, or null if none was picked. No disk access. */
+    @Nullable
+    String path(String gameKey) {
+        String name = GameLibraryIndex.get(appContext).manualCover(gameKey);
+        if (name == null) {
+            return null;
+        }
+        synchronized (paths) {
+            String path = paths.get(name);
+            if (path == null) {
+                path = new File(dir, name).getAbsolutePath();
+                paths.put(name, path);
+            }
+            return path;
+        }
+    }
+
+    /**
+     * Copies {@code source} into the manual covers directory and makes it the game's cover,
+     * replacing an earlier pick. Blocks on I/O. @return the stored file, or null if the copy failed.
+     */
+    @Nullable
+    File store(String gameKey, Uri source) {
+        ContentResolver cr = appContext.getContentResolver();
+        String ext = MainActivity.guessImageExtension(source.toString(), cr.getType(source));
+        CoverIndex index = CoverIndex.get(appContext);
+        if (index == null || (!dir.exists() && !dir.mkdirs())) {
+            return null;
+        }
+        File partial;
+        try {
+            partial = index.newPartialFile(ext);
+        } catch (IOException e) {
+            return null;
+        }
+        long length = 0;
+        try (InputStream in = cr.openInputStream(source);
+             FileOutputStream out = new FileOutputStream(partial)) {
+            if (in == null) {
+                throw new IOException("Unable to open " + source);
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                length += read;
+            }
+        } catch (IOException | SecurityException e) {
+            partial.delete();
+            try { DebugLog.e(TAG, "Failed to copy cover " + source + ": " + e.getMessage()); } catch (Throwable ignored) {}
+            return null;
+        }
+        File target = new File(dir, fileName(gameKey, ext));
+        // Not a picture; keep whatever cover the game had.
+        if (length == 0 || !isImage(partial) || !partial.renameTo(target)) {
+            partial.delete();
+            return null;
+        }
+        String previous = GameLibraryIndex.get(appContext).putManualCover(gameKey, target.getName());
+        if (previous != null && !previous.equals(target.getName())) {
+            discard(new File(dir, previous));
+        }
+        // Same name as the previous pick: its bitmaps are stale, its thumbnails are older than the file.
+        CoverLoader.forget(Collections.singleton(target.getAbsolutePath()));
+        return target;
+    }
+
+    /** Builds the cell-sized thumbnail now, so the first bind after a pick decodes a few KB. */
+    void prepareThumbnail(File cover, int width, int height) {
+        ThumbnailCache thumbs = ThumbnailCache.get(appContext);
+        if (thumbs == null || width <= 0 || height <= 0) {
+            return;
+        }
+        BitmapCache.get().offer(thumbs.getOrCreate(cover.getAbsolutePath(), cover.lastModified(), width, height,
+                () -> CoverLoader.decodeFile(cover, width, height)));
+    }
+
+    void remove(String gameKey) {
+        String previous = GameLibraryIndex.get(appContext).putManualCover(gameKey, null);
+        if (previous != null) {
+            discard(new File(dir, previous));
+        }
+    }
+
+    /**
+     * Moves manual covers stored as preference URIs by older versions into the directory, and drops
+     * the preferences and their persisted URI grants. Blocks on I/O. @return covers migrated.
+     */
+    int migrate(SharedPreferences prefs, String prefix) {
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, ?> e : prefs.getAll().entrySet()) {
+            if (e.getKey().startsWith(prefix) && e.getValue() instanceof String) {
+                keys.add(e.getKey());
+            }
+        }
+        if (keys.isEmpty()) {
+            return 0;
+        }
+        ContentResolver cr = appContext.getContentResolver();
+        SharedPreferences.Editor editor = prefs.edit();
+        int migrated = 0;
+        for (String key : keys) {
+            String uri = prefs.getString(key, null);
+            String gameKey = key.substring(prefix.length());
+            // An unreadable URI never showed a cover either; it is dropped rather than retried forever.
+            if (uri != null && GameLibraryIndex.get(appContext).manualCover(gameKey) == null) {
+                Uri source = Uri.parse(uri);
+                if (store(gameKey, source) != null) {
+                    migrated++;
+                }
+                try {
+                    cr.releasePersistableUriPermission(source, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                } catch (SecurityException ignored) {}
+            }
+            editor.remove(key);
+        }
+        editor.apply();
+        GameLibraryIndex.get(appContext).saveAsync();
+        try { DebugLog.d(TAG, "Migrated " + migrated + " of " + keys.size() + " manual covers from preferences"); } catch (Throwable ignored) {}
+        return migrated;
+    }
+
+    private void discard(File cover) {
+        cover.delete();
+        ThumbnailCache thumbs = ThumbnailCache.get(appContext);
+        if (thumbs != null) {
+            thumbs.invalidateAsync(cover.getAbsolutePath());
+        }
+        CoverLoader.forget(Collections.singleton(cover.getAbsolutePath()));
+    }
+
+    private static boolean isImage(File file) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), bounds);
+        return bounds.outWidth > 0 && bounds.outHeight > 0;
+    }
+
+    /** The game's identity in hex; game keys are document URIs and not usable as file names. */
+    private static String fileName(String gameKey, String ext) {
+        return String.format(Locale.ROOT, "%016x", MainActivity.GameEntry.identity(gameKey)) + ext;
+    }
+}
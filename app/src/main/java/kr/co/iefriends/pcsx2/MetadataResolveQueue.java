@@ -0,0 +1,395 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import kr.co.iefriends.pcsx2.util.DebugLog;
+
+/**
+ * Single queue for Redump identification. Jobs are keyed by document URI, so a game queued by a
+ * scan and again by the cover prefetch is matched once and the result applied to both entries.
+ * One low-priority worker drains the queue. The pending URIs are written under the data root when
+ * games are queued or cancelled and every few jobs, so a killed process picks up close to where it
+ * stopped via {@link #resume}; the few finished games it replays are skipped as already resolved.
+ */
+final class MetadataResolveQueue {
+    private static final String TAG = "MetadataResolve";
+    private static final String FILE_NAME = "resolve_queue.idx";
+    private static final int MAGIC = 0x41585251; // "AXRQ"
+    private static final int VERSION = 1;
+    // Flush the library index, hash cache and queue file this often so a crash loses little work.
+    private static final int SAVE_INTERVAL = 8;
+    private static final ExecutorService SAVE_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ResolveQueueSave");
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    interface Listener {
+        /** Main thread. {@code total} is the size of the current run; 0 once the queue is idle. */
+        void onProgress(int done, int total);
+
+        /** Main thread, once per game whose serial or title changed. */
+        void onResolved(MainActivity.GameEntry entry);
+    }
+
+    private static final class Job {
+        final String key;
+        // The same document may be held by several lists (adapter, prefetch); all get the result.
+        final List<MainActivity.GameEntry> entries = new ArrayList<>(1);
+
+        Job(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final Object INSTANCE_LOCK = new Object();
+    private static MetadataResolveQueue sInstance;
+
+    private final Context appContext;
+    private final File file;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LinkedHashMap<String, Job> pending = new LinkedHashMap<>();
+    private final List<String> restored = new ArrayList<>();
+    @Nullable private Job running;
+    @Nullable private Thread worker;
+    @Nullable private Listener listener;
+    private int done;
+    private int total;
+    private boolean saveQueued;
+
+    private MetadataResolveQueue(Context appContext, File file) {
+        this.appContext = appContext;
+        this.file = file;
+    }
+
+    static MetadataResolveQueue get(Context context) {
+        synchronized (INSTANCE_LOCK) {
+            if (sInstance == null) {
+                Context appCtx = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+                File dir = new File(DataDirectoryManager.getDataRoot(appCtx), GameLibraryIndex.DIR_NAME);
+                sInstance = new MetadataResolveQueue(appCtx, new File(dir, FILE_NAME));
+                sInstance.load();
+            }
+            return sInstance;
+        }
+    }
+
+    /** Stops the current run and forgets the instance so the next {@link #get} uses the new data root. */
+    static void reset() {
+        synchronized (INSTANCE_LOCK) {
+            if (sInstance != null) {
+                sInstance.cancel();
+            }
+            sInstance = null;
+        }
+    }
+
+    static boolean needsResolve(@Nullable MainActivity.GameEntry e) {
+        return e != null && e.uri != null && !e.metadataResolved
+                && (TextUtils.isEmpty(e.serial) || TextUtils.isEmpty(e.gameTitle))
+                && RedumpMatcher.isMatchable(e);
+    }
+
+    synchronized void setListener(@Nullable Listener l) {
+        listener = l;
+        postProgress();
+    }
+
+    synchronized void clearListener(Listener l) {
+        if (listener == l) {
+            listener = null;
+        }
+    }
+
+    /** Queues every entry that still lacks Redump metadata; entries already queued are merged. */
+    synchronized int enqueue(Collection<MainActivity.GameEntry> entries) {
+        int added = 0;
+        for (MainActivity.GameEntry e : entries) {
+            if (!needsResolve(e)) continue;
+            String key = e.uri.toString();
+            Job job = running != null && running.key.equals(key) ? running : pending.get(key);
+            if (job == null) {
+                job = new Job(key);
+                pending.put(key, job);
+                added++;
+            }
+            if (!job.entries.contains(e)) {
+                job.entries.add(e);
+            }
+        }
+        if (added > 0) {
+            total += added;
+            persistAsync();
+            start();
+            postProgress();
+        }
+        return added;
+    }
+
+    /**
+     * Queues {@code entries} and blocks until each has been matched, or the queue is cancelled.
+     * Used by the cover prefetch, which needs serials before it can build cover URLs.
+     */
+    void resolveBlocking(List<MainActivity.GameEntry> entries) throws InterruptedException {
+        enqueue(entries);
+        synchronized (this) {
+            while (worker != null && isAnyQueued(entries)) {
+                wait();
+            }
+        }
+    }
+
+    private boolean isAnyQueued(List<MainActivity.GameEntry> entries) {
+        for (MainActivity.GameEntry e : entries) {
+            if (e == null || e.uri == null) continue;
+            String key = e.uri.toString();
+            if (pending.containsKey(key) || (running != null && running.key.equals(key))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Re-queues the work left over from a previous process, using the entries in the library index. */
+    void resume() {
+        List<String> keys;
+        synchronized (this) {
+            if (restored.isEmpty()) return;
+            keys = new ArrayList<>(restored);
+            restored.clear();
+        }
+        GameLibraryIndex index = GameLibraryIndex.get(appContext);
+        List<MainActivity.GameEntry> entries = new ArrayList<>();
+        for (String key : keys) {
+            MainActivity.GameEntry e = index.entryFor(Uri.parse(key));
+            if (e != null) entries.add(e);
+        }
+        int n = enqueue(entries);
+        try { DebugLog.d(TAG, "Resumed " + n + " of " + keys.size() + " queued games"); } catch (Throwable ignored) {}
+    }
+
+    /** Drops everything queued and interrupts the match in progress; unmatched games stay unresolved. */
+    void cancel() {
+        Thread t;
+        synchronized (this) {
+            pending.clear();
+            restored.clear();
+            persistAsync();
+            t = worker;
+            notifyAll();
+        }
+        if (t != null) {
+            t.interrupt();
+        }
+    }
+
+    private void start() {
+        if (worker != null || pending.isEmpty()) return;
+        Thread t = new Thread(this::drain, "MetadataResolve");
+        t.setPriority(Thread.MIN_PRIORITY);
+        worker = t;
+        t.start();
+    }
+
+    private void drain() {
+        RedumpMatcher matcher = RedumpMatcher.get(appContext);
+        GameLibraryIndex index = GameLibraryIndex.get(appContext);
+        android.content.ContentResolver cr = appContext.getContentResolver();
+        int sinceSave = 0;
+        while (true) {
+            Job job;
+            synchronized (this) {
+                if (pending.isEmpty() || Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                String key = pending.keySet().iterator().next();
+                job = pending.remove(key);
+                running = job;
+            }
+            resolve(job, matcher, cr, index);
+            synchronized (this) {
+                running = null;
+                done++;
+                notifyAll();
+                postProgress();
+            }
+            if (++sinceSave >= SAVE_INTERVAL) {
+                sinceSave = 0;
+                index.saveAsync();
+                matcher.saveAsync();
+                synchronized (this) {
+                    persistAsync();
+                }
+            }
+        }
+        index.saveAsync();
+        matcher.saveAsync();
+        synchronized (this) {
+            running = null;
+            // Empty unless cancelled with work queued again; an empty queue removes the file.
+            persistAsync();
+            worker = null;
+            done = 0;
+            total = pending.size();
+            notifyAll();
+            postProgress();
+            // Work queued after a cancel (e.g. a fresh scan) starts a new run.
+            start();
+        }
+    }
+
+    private void resolve(Job job, RedumpMatcher matcher, android.content.ContentResolver cr, GameLibraryIndex index) {
+        MainActivity.GameEntry first;
+        synchronized (this) {
+            first = job.entries.get(0);
+        }
+        MainActivity.RedumpDB.Result rd = matcher.match(appContext, cr, first);
+        if (Thread.interrupted()) {
+            // Cancelled mid-hash; leave the game unresolved so a later scan queues it again.
+            Thread.currentThread().interrupt();
+            return;
+        }
+        List<MainActivity.GameEntry> targets;
+        synchronized (this) {
+            targets = new ArrayList<>(job.entries);
+        }
+        boolean changed = false;
+        for (MainActivity.GameEntry e : targets) {
+            e.metadataResolved = true;
+            if (rd != null) {
+                if (TextUtils.isEmpty(e.serial) && !TextUtils.isEmpty(rd.serial)) {
+                    e.serial = rd.serial;
+                    changed = true;
+                }
+                if (TextUtils.isEmpty(e.gameTitle) && !TextUtils.isEmpty(rd.name)) {
+                    e.gameTitle = rd.name;
+                    changed = true;
+                }
+            }
+        }
+        index.update(first);
+        if (changed) {
+            mainHandler.post(() -> {
+                Listener l;
+                synchronized (this) { l = listener; }
+                if (l != null) l.onResolved(first);
+            });
+        }
+    }
+
+    private void postProgress() {
+        final int d = done;
+        final int t = worker != null ? total : 0;
+        mainHandler.post(() -> {
+            Listener l;
+            synchronized (this) { l = listener; }
+            if (l != null) l.onProgress(d, t);
+        });
+    }
+
+    /**
+     * Caller holds the lock. Writes the queue as it stands when the save runs, so requests made
+     * before then are folded into one write.
+     */
+    private void persistAsync() {
+        if (saveQueued) return;
+        saveQueued = true;
+        SAVE_EXECUTOR.execute(() -> {
+            List<String> keys;
+            synchronized (this) {
+                saveQueued = false;
+                keys = new ArrayList<>(restored.size() + pending.size() + 1);
+                keys.addAll(restored);
+                if (running != null) keys.add(running.key);
+                keys.addAll(pending.keySet());
+            }
+            persist(keys);
+        });
+    }
+
+    private void persist(List<String> keys) {
+        if (keys.isEmpty()) {
+            file.delete();
+            return;
+        }
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(keys.size());
+            for (String key : keys) {
+                out.writeUTF(key);
+            }
+        } catch (IOException e) {
+            temp.delete();
+            try { DebugLog.e(TAG, "Failed to write resolve queue: " + e.getMessage()); } catch (Throwable ignored) {}
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+        }
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                restored.add(in.readUTF());
+            }
+        } catch (IOException e) {
+            restored.clear();
+            try { DebugLog.e(TAG, "Failed to read resolve queue: " + e.getMessage()); } catch (Throwable ignored) {}
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2;
+
+import android.content.ContentResolver;
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import kr.co.iefriends.pcsx2.disc.CdImageProber;
+import kr.co.iefriends.pcsx2.disc.DiscReader;
+import kr.co.iefriends.pcsx2.disc.Iso9660Walker;
+import kr.co.iefriends.pcsx2.disc.SafRandomAccessReader;
+import kr.co.iefriends.pcsx2.util.DebugLog;
+
+/**
+ * Matches images against the Redump database without hashing whole discs where possible.
+ * Candidates are narrowed by exact size and by the serial from SYSTEM.CNF; a single dump is taken
+ * without hashing only when both agree, otherwise the full MD5 decides. Full hashes are remembered in a sidecar file keyed by a cheap
+ * fingerprint (size, primary volume descriptor and SYSTEM.CNF), so renamed or moved files and
+ * rebuilt library indexes never hash the same disc twice.
+ */
+final class RedumpMatcher {
+    private static final String TAG = "RedumpMatcher";
+    private static final String FILE_NAME = "redump_hashes.idx";
+    private static final int MAGIC = 0x4158524D; // "AXRM"
+    private static final int VERSION = 1;
+    private static final int HASH_BUFFER = 1024 * 1024;
+    private static final int EDGE_BYTES = 64 * 1024;
+
+    private static final Object INSTANCE_LOCK = new Object();
+    private static RedumpMatcher sInstance;
+
+    private static final ExecutorService SAVE_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "RedumpHashSave");
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private final File file;
+    // fingerprint (hex) -> full-image MD5 (hex)
+    private final Map<String, String> hashes = new HashMap<>();
+    private boolean dirty;
+
+    private RedumpMatcher(File file) {
+        this.file = file;
+    }
+
+    static RedumpMatcher get(Context context) {
+        synchronized (INSTANCE_LOCK) {
+            if (sInstance == null) {
+                Context appCtx = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+                File dir = new File(DataDirectoryManager.getDataRoot(appCtx), GameLibraryIndex.DIR_NAME);
+                sInstance = new RedumpMatcher(new File(dir, FILE_NAME));
+                sInstance.load();
+            }
+            return sInstance;
+        }
+    }
+
+    static void reset() {
+        synchronized (INSTANCE_LOCK) {
+            sInstance = null;
+        }
+    }
+
+    /** Only raw images can match; Redump hashes describe uncompressed tracks. */
+    static boolean isMatchable(MainActivity.GameEntry entry) {
+        String name = entry != null && entry.title != null ? entry.title.toLowerCase(Locale.ROOT) : "";
+        return name.endsWith(".iso") || name.endsWith(".img") || name.endsWith(".bin");
+    }
+
+    @Nullable
+    MainActivity.RedumpDB.Result match(Context context, ContentResolver cr, MainActivity.GameEntry entry) {
+        if (!isMatchable(entry) || entry.uri == null) {
+            return null;
+        }
+        try (SafRandomAccessReader reader = SafRandomAccessReader.open(cr, entry.uri)) {
+            long size = entry.size > 0 ? entry.size : reader.length();
+            List<MainActivity.RedumpDB.Result> candidates = MainActivity.RedumpDB.candidatesForSize(context, size);
+            if (candidates.isEmpty()) {
+                return null;
+            }
+            List<MainActivity.RedumpDB.Result> sameSerial = withSerial(candidates, entry.serial);
+            if (sameSerial.size() == 1) {
+                return sameSerial.get(0);
+            }
+            if (!sameSerial.isEmpty()) {
+                candidates = sameSerial;
+            } else if (entry.serial != null && candidates.size() == 1 && candidates.get(0).serial != null) {
+                // The only dump of this size is another game; not worth hashing the disc to confirm.
+                return null;
+            }
+            String fingerprint = fingerprint(reader, size);
+            String md5;
+            synchronized (this) {
+                md5 = hashes.get(fingerprint);
+            }
+            if (md5 == null) {
+                md5 = fullMd5(reader, size);
+                if (md5 == null) {
+                    return null;
+                }
+                synchronized (this) {
+                    hashes.put(fingerprint, md5);
+                    dirty = true;
+                }
+                try { DebugLog.d(TAG, "Hashed " + entry.title + " to pick among " + candidates.size() + " dumps"); } catch (Throwable ignored) {}
+            }
+            for (MainActivity.RedumpDB.Result r : candidates) {
+                if (md5.equals(r.md5)) {
+                    return r;
+                }
+            }
+        } catch (Throwable t) {
+            try { DebugLog.d(TAG, "Match failed for " + entry.title + ": " + t.getMessage()); } catch (Throwable ignored) {}
+        }
+        return null;
+    }
+
+    /** The dumps whose serial matches {@code serial}; empty when it is unknown or none do. */
+    private static List<MainActivity.RedumpDB.Result> withSerial(List<MainActivity.RedumpDB.Result> candidates, @Nullable String serial) {
+        List<MainActivity.RedumpDB.Result> out = new ArrayList<>();
+        if (serial == null) {
+            return out;
+        }
+        String wanted = normalizeSerial(serial);
+        for (MainActivity.RedumpDB.Result r : candidates) {
+            if (r.serial != null && normalizeSerial(r.serial).contains(wanted)) {
+                out.add(r);
+            }
+        }
+        return out;
+    }
+
+    private static String normalizeSerial(String serial) {
+        return serial.toUpperCase(Locale.ROOT).replace("-", "").replace("_", "").replace(".", "");
+    }
+
+    /**
+     * A few kilobytes that identify a dump: its size, the primary volume descriptor, SYSTEM.CNF and
+     * the last 64 KB (which catches most patched images). Without an ISO9660 filesystem the first
+     * 64 KB stand in for the descriptor.
+     */
+    private static String fingerprint(DiscReader reader, long size) throws IOException {
+        MessageDigest md = md5();
+        for (int i = 7; i >= 0; i--) md.update((byte) (size >>> (i * 8)));
+        CdImageProber.Layout layout = CdImageProber.detect(reader, null);
+        if (layout != null) {
+            DiscReader data = CdImageProber.userData(reader, layout);
+            byte[] pvd = data.readBytes(16L * Iso9660Walker.SECTOR_SIZE, Iso9660Walker.SECTOR_SIZE);
+            if (pvd != null) md.update(pvd);
+            Iso9660Walker walker = Iso9660Walker.open(data);
+            Iso9660Walker.Entry cnf = walker != null ? walker.find("SYSTEM.CNF") : null;
+            byte[] cnfData = cnf != null ? walker.readFile(cnf, 4096) : null;
+            if (cnfData != null) md.update(cnfData);
+        } else {
+            byte[] head = reader.readBytes(0, EDGE_BYTES);
+            if (head != null) md.update(head);
+        }
+        byte[] tail = reader.readBytes(Math.max(0, size - EDGE_BYTES), EDGE_BYTES);
+        if (tail != null) md.update(tail);
+        return hex(md.digest());
+    }
+
+    @Nullable
+    private static String fullMd5(DiscReader reader, long size) throws IOException {
+        MessageDigest md = md5();
+        byte[] buf = new byte[HASH_BUFFER];
+        long pos = 0;
+        while (pos < size) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Hash cancelled");
+            }
+            int n = reader.readFully(pos, buf, 0, (int) Math.min(buf.length, size - pos));
+            if (n <= 0) break;
+            md.update(buf, 0, n);
+            pos += n;
+        }
+        return pos == size ? hex(md.digest()) : null;
+    }
+
+    private static MessageDigest md5() throws IOException {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = digits[(bytes[i] >> 4) & 0xF];
+            out[i * 2 + 1] = digits[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+
+    void saveAsync() {
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+        }
+        SAVE_EXECUTOR.execute(this::save);
+    }
+
+    void save() {
+        Map<String, String> snapshot;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            snapshot = new HashMap<>(hashes);
+            dirty = false;
+        }
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, String> e : snapshot.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue());
+            }
+        } catch (IOException e) {
+            temp.delete();
+            synchronized (this) { dirty = true; }
+            try { DebugLog.e(TAG, "Failed to write hash cache: " + e.getMessage()); } catch (Throwable ignored) {}
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            synchronized (this) { dirty = true; }
+        }
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String fingerprint = in.readUTF();
+                hashes.put(fingerprint, in.readUTF());
+            }
+        } catch (IOException e) {
+            hashes.clear();
+            try { DebugLog.e(TAG, "Failed to read hash cache: " + e.getMessage()); } catch (Throwable ignored) {}
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Read-only view of the compiled Redump database. The app module's {@code compileRedumpDatabase}
+ * task writes the table from RedumpDatabase.yaml at build time; a YAML edited in the data root is
+ * compiled by {@link Builder} on first use and cached next to the library index. An unedited copy
+ * of the bundled YAML caches the bundled table there instead, stamped with the copy's length and
+ * mtime, so later starts skip the checksum.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ *   header   int magic "AXRD", int version, long sourceLength, long sourceModified,
+ *            long sourceCrc, int recordCount, int stringCount
+ *   records  long size, long md5High, long md5Low, int serial, int name  (sorted by size, then md5)
+ *   strings  int offset[stringCount + 1] into the UTF-8 bytes that follow
+ * </pre>
+ * Records are located by binary search on size; strings are decoded only for the records returned.
+ */
+final class RedumpTable {
+    static final String ASSET_NAME = "redump.rdb";
+    static final String FILE_NAME = "redump.rdb";
+    private static final int MAGIC = 0x41585244; // "AXRD"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 40;
+    private static final int RECORD_SIZE = 32;
+
+    static final RedumpTable EMPTY = new RedumpTable();
+
+    private final ByteBuffer buf;
+    /** Length and mtime of the YAML this table was compiled from; mtime is 0 for the bundled table. */
+    final long sourceLength;
+    final long sourceModified;
+    /** CRC-32 of that YAML; recorded for the bundled table and its cached copies only, 0 otherwise. */
+    final long sourceCrc;
+    private final int count;
+    private final int stringCount;
+    private final int stringTable;
+    private final int stringData;
+
+    private RedumpTable() {
+        buf = ByteBuffer.allocate(0);
+        sourceLength = -1L;
+        sourceModified = -1L;
+        sourceCrc = 0L;
+        count = 0;
+        stringCount = 0;
+        stringTable = 0;
+        stringData = 0;
+    }
+
+    private RedumpTable(ByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw new IOException("Not a Redump table");
+        }
+        sourceLength = buf.getLong(8);
+        sourceModified = buf.getLong(16);
+        sourceCrc = buf.getLong(24);
+        count = buf.getInt(32);
+        stringCount = buf.getInt(36);
+        stringTable = HEADER_SIZE + count * RECORD_SIZE;
+        stringData = stringTable + (stringCount + 1) * 4;
+        if (count < 0 || stringCount < 0 || stringData > buf.capacity()
+                || stringData + buf.getInt(stringData - 4) > buf.capacity()) {
+            throw new IOException("Truncated Redump table");
+        }
+    }
+
+    /** The table bundled with the APK, or null if this build does not ship one. */
+    @Nullable
+    static RedumpTable mapAsset(Context context) throws IOException {
+        AssetFileDescriptor afd;
+        try {
+            afd = context.getAssets().openFd(ASSET_NAME);
+        } catch (IOException e) {
+            // Missing, or stored compressed by a build without the noCompress rule.
+            return null;
+        }
+        try (FileInputStream in = afd.createInputStream(); FileChannel ch = in.getChannel()) {
+            return new RedumpTable(ch.map(FileChannel.MapMode.READ_ONLY, afd.getStartOffset(), afd.getLength()));
+        } finally {
+            try { afd.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    @Nullable
+    static RedumpTable mapFile(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileInputStream in = new FileInputStream(file); FileChannel ch = in.getChannel()) {
+            return new RedumpTable(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    /** Dumps whose image is exactly {@code size} bytes. */
+    List<MainActivity.RedumpDB.Result> candidatesForSize(long size) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sizeAt(mid) < size) lo = mid + 1; else hi = mid;
+        }
+        if (lo >= count || sizeAt(lo) != size) {
+            return Collections.emptyList();
+        }
+        List<MainActivity.RedumpDB.Result> out = new ArrayList<>(1);
+        for (int i = lo; i < count && sizeAt(i) == size; i++) {
+            int at = HEADER_SIZE + i * RECORD_SIZE;
+            MainActivity.RedumpDB.Result r = new MainActivity.RedumpDB.Result();
+            r.size = size;
+            r.md5 = String.format(Locale.ROOT, "%016x%016x", buf.getLong(at + 8), buf.getLong(at + 16));
+            r.serial = string(buf.getInt(at + 24));
+            r.name = string(buf.getInt(at + 28));
+            out.add(r);
+        }
+        return out;
+    }
+
+    private long sizeAt(int index) {
+        return buf.getLong(HEADER_SIZE + index * RECORD_SIZE);
+    }
+
+    @Nullable
+    private String string(int index) {
+        if (index < 0 || index >= stringCount) {
+            return null;
+        }
+        int start = buf.getInt(stringTable + index * 4);
+        int end = buf.getInt(stringTable + index * 4 + 4);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = buf.duplicate();
+        view.position(stringData + start);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** CRC-32 of a file's contents, as the build step records it for the bundled YAML. */
+    static long crc32(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[64 * 1024];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                crc.update(chunk, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /** Writes the table atomically so a crash never leaves a half-written cache behind. */
+    void writeTo(File file) throws IOException {
+        writeTo(file, sourceLength, sourceModified);
+    }
+
+    /** {@link #writeTo(File)}, recording {@code sourceLength} and {@code sourceModified} as the source. */
+    void writeTo(File file, long sourceLength, long sourceModified) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp); FileChannel ch = out.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            ByteBuffer src = buf.duplicate();
+            src.clear();
+            src.limit(HEADER_SIZE);
+            header.put(src);
+            header.putLong(8, sourceLength).putLong(16, sourceModified);
+            header.flip();
+            while (header.hasRemaining()) {
+                ch.write(header);
+            }
+            src.limit(src.capacity());
+            while (src.hasRemaining()) {
+                ch.write(src);
+            }
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    /** Compiles parsed YAML rows into the same layout the build step produces. */
+    static final class Builder {
+        private final List<long[]> rows = new ArrayList<>(16384);
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final List<byte[]> pool = new ArrayList<>();
+        private int poolBytes;
+
+        /** @return false if the hash is not a 32-digit MD5, which no image could ever match. */
+        boolean add(String md5, long size, String serial, @Nullable String name) {
+            if (md5 == null || md5.length() != 32 || serial == null) {
+                return false;
+            }
+            long high;
+            long low;
+            try {
+                high = Long.parseUnsignedLong(md5.substring(0, 16), 16);
+                low = Long.parseUnsignedLong(md5.substring(16), 16);
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            int serialIndex = intern(serial);
+            int nameIndex = name != null ? intern(name) : serialIndex;
+            rows.add(new long[]{size, high, low, serialIndex, nameIndex});
+            return true;
+        }
+
+        private int intern(String s) {
+            Integer index = strings.get(s);
+            if (index == null) {
+                index = pool.size();
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                pool.add(bytes);
+                poolBytes += bytes.length;
+                strings.put(s, index);
+            }
+            return index;
+        }
+
+        RedumpTable build(long sourceLength, long sourceModified, long sourceCrc) throws IOException {
+            Collections.sort(rows, (a, b) -> {
+                int c = Long.compare(a[0], b[0]);
+                if (c == 0) c = Long.compareUnsigned(a[1], b[1]);
+                if (c == 0) c = Long.compareUnsigned(a[2], b[2]);
+                return c;
+            });
+            ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + rows.size() * RECORD_SIZE
+                    + (pool.size() + 1) * 4 + poolBytes);
+            out.putInt(MAGIC).putInt(VERSION).putLong(sourceLength).putLong(sourceModified).putLong(sourceCrc)
+                    .putInt(rows.size()).putInt(pool.size());
+            for (long[] row : rows) {
+                out.putLong(row[0]).putLong(row[1]).putLong(row[2]).putInt((int) row[3]).putInt((int) row[4]);
+            }
+            int offset = 0;
+            for (byte[] bytes : pool) {
+                out.putInt(offset);
+                offset += bytes.length;
+            }
+            out.putInt(offset);
+            for (byte[] bytes : pool) {
+                out.put(bytes);
+            }
+            out.clear();
+            return new RedumpTable(out);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import kr.co.iefriends.pcsx2.util.BitmapCache;
+import kr.co.iefriends.pcsx2.util.DebugLog;
+
+/**
+ * Second cover tier: WebP thumbnails already scaled to a grid or list cell, kept in
+ * {@code armsx2_covers/thumbs}. A bind then decodes a few KB instead of the full download.
+ * Files are named {@code <source hash>_<w>x<h>.webp}; a thumbnail older than its source file is
+ * rebuilt, and the directory is trimmed least-recently-used first once it exceeds {@link #MAX_BYTES}.
+ * Invalidation from the UI thread goes through {@link #invalidateAsync} and {@link #clearAsync}, since
+ * the first use lists the whole directory.
+ */
+final class ThumbnailCache {
+    private static final String TAG = "ThumbnailCache";
+    static final String DIR_NAME = "thumbs";
+    private static final long MAX_BYTES = 32L * 1024 * 1024;
+    private static final int QUALITY = 80;
+
+    private static final Object INSTANCE_LOCK = new Object();
+    private static ThumbnailCache sInstance;
+    private static final ExecutorService IO_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ThumbnailCache");
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private final File dir;
+    // file name -> size, in access order; mirrors the directory once loaded
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes;
+    private boolean loaded;
+
+    private ThumbnailCache(File dir) {
+        this.dir = dir;
+    }
+
+    @Nullable
+    static ThumbnailCache get(Context context) {
+        synchronized (INSTANCE_LOCK) {
+            if (sInstance == null) {
+                File covers = MainActivity.getCoversCacheDir(context);
+                if (covers == null) {
+                    return null;
+                }
+                sInstance = new ThumbnailCache(new File(covers, DIR_NAME));
+            }
+            return sInstance;
+        }
+    }
+
+    static void reset() {
+        synchronized (INSTANCE_LOCK) {
+            sInstance = null;
+        }
+    }
+
+    /**
+     * Returns the cell-sized thumbnail of {@code source}, building it with {@code decode} when it is
+     * missing or older than {@code sourceModified} (0 for sources without a timestamp).
+     */
+    @Nullable
+    Bitmap getOrCreate(String source, long sourceModified, int width, int height, Supplier<Bitmap> decode) {
+        if (width <= 0 || height <= 0) {
+            return decode.get();
+        }
+        File thumb = new File(dir, name(source, width, height));
+        if (contains(thumb.getName()) && thumb.lastModified() >= sourceModified) {
+            Bitmap bmp = CoverLoader.decodeFile(thumb, width, height);
+            if (bmp != null) {
+                thumb.setLastModified(System.currentTimeMillis());
+                return bmp;
+            }
+        }
+        Bitmap full = decode.get();
+        return full != null ? put(source, width, height, full) : null;
+    }
+
+    /** Scales {@code bitmap} to fit the cell, stores it, and returns the scaled bitmap. */
+    Bitmap put(String source, int width, int height, Bitmap bitmap) {
+        Bitmap scaled = scaleToFit(bitmap, width, height);
+        if (scaled != bitmap) {
+            // The full decode is garbage from here on; the next decode can reuse its memory.
+            BitmapCache.get().offer(bitmap);
+        }
+        File thumb = new File(dir, name(source, width, height));
+        if (!dir.exists() && !dir.mkdirs()) {
+            return scaled;
+        }
+        File temp = new File(dir, thumb.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            scaled.compress(webpFormat(), QUALITY, out);
+        } catch (IOException e) {
+            temp.delete();
+            return scaled;
+        }
+        if (!temp.renameTo(thumb)) {
+            temp.delete();
+            return scaled;
+        }
+        synchronized (this) {
+            ensureLoaded();
+            Long previous = files.put(thumb.getName(), thumb.length());
+            if (previous != null) totalBytes -= previous;
+            totalBytes += thumb.length();
+            trim();
+        }
+        return scaled;
+    }
+
+    /** Drops every size of {@code source}'s thumbnail, e.g. after a manual cover was replaced. */
+    synchronized void invalidate(String source) {
+        ensureLoaded();
+        String prefix = hash(source) + "_";
+        for (Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Long> e = it.next();
+            if (e.getKey().startsWith(prefix)) {
+                new File(dir, e.getKey()).delete();
+                totalBytes -= e.getValue();
+                it.remove();
+            }
+        }
+    }
+
+    /** {@link #invalidate} on a background thread. */
+    void invalidateAsync(String source) {
+        IO_EXECUTOR.execute(() -> invalidate(source));
+    }
+
+    /** {@link #clear} on a background thread. */
+    void clearAsync() {
+        IO_EXECUTOR.execute(this::clear);
+    }
+
+    /** Deletes all thumbnails; used when the cover source template changes. */
+    synchronized void clear() {
+        ensureLoaded();
+        for (String name : files.keySet()) {
+            new File(dir, name).delete();
+        }
+        files.clear();
+        totalBytes = 0;
+    }
+
+    private synchronized boolean contains(String name) {
+        ensureLoaded();
+        return files.get(name) != null;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        File[] list = dir.listFiles();
+        if (list == null) return;
+        // Oldest first, so the access-ordered map starts out in least-recently-used order. Each
+        // lastModified is a stat, so read them once rather than in the comparator.
+        long[] mtimes = new long[list.length];
+        Integer[] order = new Integer[list.length];
+        for (int i = 0; i < list.length; i++) {
+            mtimes[i] = list[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(mtimes[a], mtimes[b]));
+        for (int i : order) {
+            File f = list[i];
+            if (!f.isFile()) continue;
+            if (f.getName().endsWith(".tmp")) {
+                f.delete();
+                continue;
+            }
+            long length = f.length();
+            files.put(f.getName(), length);
+            totalBytes += length;
+        }
+        trim();
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+        int evicted = 0;
+        while (totalBytes > MAX_BYTES && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            new File(dir, eldest.getKey()).delete();
+            totalBytes -= eldest.getValue();
+            it.remove();
+            evicted++;
+        }
+        if (evicted > 0) {
+            try { DebugLog.d(TAG, "Evicted " + evicted + " thumbnails"); } catch (Throwable ignored) {}
+        }
+    }
+
+    private static String name(String source, int width, int height) {
+        return hash(source) + "_" + width + "x" + height + ".webp";
+    }
+
+    /** 64-bit FNV-1a; file names only need to be distinct, not secret. */
+    private static String hash(String source) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < source.length(); i++) {
+            h ^= source.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return String.format(Locale.ROOT, "%016x", h);
+    }
+
+    private static Bitmap scaleToFit(Bitmap src, int width, int height) {
+        float scale = Math.min((float) width / src.getWidth(), (float) height / src.getHeight());
+        if (scale >= 1f) {
+            return src;
+        }
+        int w = Math.max(1, Math.round(src.getWidth() * scale));
+        int h = Math.max(1, Math.round(src.getHeight() * scale));
+        return Bitmap.createScaledBitmap(src, w, h, true);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Bitmap.CompressFormat webpFormat() {
+        return Build.VERSION.SDK_INT >= 30 ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2.disc;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Detects the sector layout of a disc image (plain 2048-byte ISO, raw 2352-byte BIN in Mode 1 or
+ * Mode 2 Form 1, or 2336-byte Mode 2 dumps) and exposes its 2048-byte user data as a {@link DiscReader}
+ * for {@link Iso9660Walker}. Detection reads two or three small header ranges around sector 16.
+ */
+public final class CdImageProber {
+    public static final int SECTOR_USER = 2048;
+    public static final int SECTOR_RAW = 2352;
+    public static final int SECTOR_MODE2 = 2336;
+    private static final int DESCRIPTOR_SECTOR = 16;
+    static final byte[] SYNC = {
+            0x00, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+            (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x00
+    };
+    private static final Pattern CUE_TRACK = Pattern.compile(
+            "^\\s*TRACK\\s+\\d+\\s+(MODE1|MODE2)/(\\d+)", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+
+    public static final class Layout {
+        public static final Layout PLAIN = new Layout(SECTOR_USER, 0, 0);
+
+        public final int sectorSize;
+        /** Offset of the user data inside each physical sector. */
+        public final int dataOffset;
+        /** CD mode of the data track, 0 for a plain 2048-byte image. */
+        public final int mode;
+
+        Layout(int sectorSize, int dataOffset, int mode) {
+            this.sectorSize = sectorSize;
+            this.dataOffset = dataOffset;
+            this.mode = mode;
+        }
+
+        @Override
+        public String toString() {
+            return mode == 0 ? "ISO/2048" : String.format(Locale.ROOT, "MODE%d/%d", mode, sectorSize);
+        }
+    }
+
+    private CdImageProber() {
+    }
+
+    /** Sector format of the first data track in a cue sheet, or null if the sheet names none. */
+    @Nullable
+    public static Layout parseCue(@Nullable String cueText) {
+        if (cueText == null) return null;
+        Matcher m = CUE_TRACK.matcher(cueText);
+        if (!m.find()) return null;
+        int mode = "MODE1".equalsIgnoreCase(m.group(1)) ? 1 : 2;
+        int size;
+        try {
+            size = Integer.parseInt(m.group(2));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (size == SECTOR_RAW) return new Layout(SECTOR_RAW, mode == 1 ? 16 : 24, mode);
+        if (size == SECTOR_MODE2) return new Layout(SECTOR_MODE2, 8, 2);
+        if (size == SECTOR_USER) return Layout.PLAIN;
+        return null;
+    }
+
+    /**
+     * Finds the layout whose sector 16 holds an ISO9660 volume descriptor. The cue sheet's layout,
+     * if any, is tried first.
+     *
+     * @return null if no layout yields a filesystem (audio discs, unsupported containers).
+     */
+    @Nullable
+    public static Layout detect(DiscReader image, @Nullable Layout cueHint) throws IOException {
+        if (cueHint != null && hasDescriptor(image, cueHint)) return cueHint;
+        if (hasDescriptor(image, Layout.PLAIN)) return Layout.PLAIN;
+        byte[] header = new byte[16];
+        if (image.readFully((long) DESCRIPTOR_SECTOR * SECTOR_RAW, header, 0, header.length) == header.length
+                && hasSync(header)) {
+            int mode = header[15] & 0xFF;
+            Layout raw = mode == 1 ? new Layout(SECTOR_RAW, 16, 1)
+                    : mode == 2 ? new Layout(SECTOR_RAW, 24, 2) : null;
+            if (raw != null && hasDescriptor(image, raw)) return raw;
+        }
+        Layout mode2 = new Layout(SECTOR_MODE2, 8, 2);
+        if (hasDescriptor(image, mode2)) return mode2;
+        return null;
+    }
+
+    /** A 2048-byte-sector view of {@code image}; closing the view does not close the image. */
+    public static DiscReader userData(DiscReader image, Layout layout) {
+        return new SectorView(image, layout);
+    }
+
+    private static boolean hasDescriptor(DiscReader image, Layout layout) throws IOException {
+        byte[] id = new byte[6];
+        long pos = (long) DESCRIPTOR_SECTOR * layout.sectorSize + layout.dataOffset;
+        if (image.readFully(pos, id, 0, id.length) < id.length) return false;
+        return id[1] == 'C' && id[2] == 'D' && id[3] == '0' && id[4] == '0' && id[5] == '1';
+    }
+
+    private static boolean hasSync(byte[] header) {
+        for (int i = 0; i < SYNC.length; i++) {
+            if (header[i] != SYNC[i]) return false;
+        }
+        return true;
+    }
+
+    private static final class SectorView implements DiscReader {
+        private final DiscReader image;
+        private final Layout layout;
+
+        SectorView(DiscReader image, Layout layout) {
+            this.image = image;
+            this.layout = layout;
+        }
+
+        @Override
+        public int read(long position, byte[] dst, int off, int len) throws IOException {
+            if (len <= 0) return 0;
+            if (position < 0) return -1;
+            long sector = position / SECTOR_USER;
+            int inner = (int) (position % SECTOR_USER);
+            int n = Math.min(len, SECTOR_USER - inner);
+            return image.read(sector * layout.sectorSize + layout.dataOffset + inner, dst, off, n);
+        }
+
+        @Override
+        public long length() {
+            long raw = image.length();
+            return raw < 0 ? -1L : (raw / layout.sectorSize) * SECTOR_USER;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,531 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2.disc;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the logical contents of a CHD v5 image one hunk at a time. Only the header, the part of the
+ * hunk map up to the highest hunk read, the track metadata and the hunks actually touched are read.
+ * Hunks compressed with {@code zlib}, {@code lzma}, {@code cdzl} or {@code cdlz} are supported; other codecs
+ * ({@code huff}, {@code flac}, {@code zstd} and their CD variants) and parent-referencing hunks raise an
+ * {@link IOException}, so callers fall back to the file name.
+ */
+public final class ChdReader implements DiscReader {
+    private static final int HEADER_V5_SIZE = 124;
+    private static final int CD_FRAME_SIZE = 2448;
+    private static final int CD_SECTOR_DATA = 2352;
+    private static final int HUNK_CACHE_SIZE = 4;
+    // Sanity bound on the hunk count; anything larger means a corrupt header.
+    private static final long MAX_HUNKS = 1L << 24;
+
+    private static final int CODEC_NONE = 0;
+    private static final int CODEC_ZLIB = fourCc("zlib");
+    private static final int CODEC_LZMA = fourCc("lzma");
+    private static final int CODEC_CD_ZLIB = fourCc("cdzl");
+    private static final int CODEC_CD_LZMA = fourCc("cdlz");
+    private static final int META_CD_TRACK2 = fourCc("CHT2");
+    private static final int META_CD_TRACK = fourCc("CHTR");
+    private static final int META_DVD = fourCc("DVD ");
+
+    // Map entry types, as written by chdman.
+    private static final int COMPRESSION_TYPE_3 = 3;
+    private static final int COMPRESSION_NONE = 4;
+    private static final int COMPRESSION_SELF = 5;
+    private static final int COMPRESSION_PARENT = 6;
+    private static final int COMPRESSION_RLE_SMALL = 7;
+    private static final int COMPRESSION_RLE_LARGE = 8;
+    private static final int COMPRESSION_SELF_0 = 9;
+    private static final int COMPRESSION_SELF_1 = 10;
+    private static final int COMPRESSION_PARENT_SELF = 11;
+    private static final int COMPRESSION_PARENT_0 = 12;
+    private static final int COMPRESSION_PARENT_1 = 13;
+
+    private static final Pattern TRACK_TYPE = Pattern.compile("TRACK:1\\s+TYPE:(\\S+)");
+
+    private final DiscReader file;
+    private final int[] compressors = new int[4];
+    private final long logicalBytes;
+    private final int hunkBytes;
+    private final int unitBytes;
+    private final int hunkCount;
+    @Nullable private final CdImageProber.Layout layout;
+
+    // Map state: types are decoded up front, offsets lazily up to the highest hunk requested.
+    private final boolean compressedMap;
+    private final long mapOffset;
+    private byte[] types;
+    private long[] offsets = new long[0];
+    private int[] lengths = new int[0];
+    private int mapped;
+    private BitReader mapBits;
+    private int lengthBits;
+    private int selfBits;
+    private int parentBits;
+    private long nextOffset;
+    private long lastSelf;
+    private long lastParent;
+
+    private final LinkedHashMap<Integer, byte[]> hunks = new LinkedHashMap<Integer, byte[]>(HUNK_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+            return size() > HUNK_CACHE_SIZE;
+        }
+    };
+    private Inflater inflater;
+    private LzmaDecoder lzma;
+    private byte[] compressed;
+
+    private ChdReader(DiscReader file, byte[] header) throws IOException {
+        this.file = file;
+        for (int i = 0; i < 4; i++) compressors[i] = (int) u32be(header, 16 + i * 4);
+        logicalBytes = u64be(header, 32);
+        mapOffset = u64be(header, 40);
+        long metaOffset = u64be(header, 48);
+        hunkBytes = (int) u32be(header, 56);
+        unitBytes = (int) u32be(header, 60);
+        if (hunkBytes <= 0 || unitBytes <= 0 || logicalBytes <= 0) throw new IOException("Invalid CHD geometry");
+        long count = (logicalBytes + hunkBytes - 1) / hunkBytes;
+        if (count > MAX_HUNKS) throw new IOException("CHD map too large");
+        hunkCount = (int) count;
+        compressedMap = compressors[0] != CODEC_NONE;
+        layout = readLayout(metaOffset);
+    }
+
+    /** Opens a CHD v5 image; {@code file} stays owned by the caller. */
+    public static ChdReader open(DiscReader file) throws IOException {
+        byte[] header = new byte[HEADER_V5_SIZE];
+        if (file.readFully(0, header, 0, header.length) < header.length
+                || !new String(header, 0, 8, StandardCharsets.US_ASCII).equals("MComprHD")) {
+            throw new IOException("Not a CHD image");
+        }
+        long version = u32be(header, 12);
+        if (version != 5) throw new IOException("Unsupported CHD version " + version);
+        return new ChdReader(file, header);
+    }
+
+    /**
+     * Where the first data track's user data sits inside the logical CHD stream, from the CD track
+     * metadata; {@link CdImageProber.Layout#PLAIN} for DVD images, null when the metadata is unknown.
+     */
+    @Nullable
+    public CdImageProber.Layout layout() {
+        return layout;
+    }
+
+    @Override
+    public long length() {
+        return logicalBytes;
+    }
+
+    @Override
+    public synchronized int read(long position, byte[] dst, int off, int len) throws IOException {
+        if (len <= 0) return 0;
+        if (position < 0 || position >= logicalBytes) return -1;
+        int hunk = (int) (position / hunkBytes);
+        int inner = (int) (position % hunkBytes);
+        byte[] data = hunk(hunk);
+        int n = (int) Math.min(Math.min(len, hunkBytes - inner), logicalBytes - position);
+        System.arraycopy(data, inner, dst, off, n);
+        return n;
+    }
+
+    @Override
+    public synchronized void close() {
+        hunks.clear();
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+
+    private byte[] hunk(int index) throws IOException {
+        byte[] cached = hunks.get(index);
+        if (cached != null) return cached;
+        byte[] out = new byte[hunkBytes];
+        readHunk(index, out, 0);
+        hunks.put(index, out);
+        return out;
+    }
+
+    private void readHunk(int index, byte[] out, int depth) throws IOException {
+        if (depth > 8) throw new IOException("CHD self-reference loop");
+        if (!compressedMap) {
+            readUncompressedMapHunk(index, out);
+            return;
+        }
+        ensureMapped(index);
+        int type = types[index] & 0xFF;
+        long offset = offsets[index];
+        int length = lengths[index];
+        if (type <= COMPRESSION_TYPE_3) {
+            decompress(compressors[type], offset, length, out);
+        } else if (type == COMPRESSION_NONE) {
+            if (file.readFully(offset, out, 0, hunkBytes) < hunkBytes) throw new IOException("Truncated CHD hunk");
+        } else if (type == COMPRESSION_SELF) {
+            byte[] cached = hunks.get((int) offset);
+            if (cached != null) {
+                System.arraycopy(cached, 0, out, 0, hunkBytes);
+            } else {
+                readHunk((int) offset, out, depth + 1);
+            }
+        } else {
+            throw new IOException("CHD hunk needs a parent image");
+        }
+    }
+
+    private void readUncompressedMapHunk(int index, byte[] out) throws IOException {
+        byte[] entry = new byte[4];
+        if (file.readFully(mapOffset + 4L * index, entry, 0, 4) < 4) throw new IOException("Truncated CHD map");
+        long block = u32be(entry, 0);
+        if (block == 0) {
+            Arrays.fill(out, (byte) 0);
+            return;
+        }
+        if (file.readFully(block * hunkBytes, out, 0, hunkBytes) < hunkBytes) throw new IOException("Truncated CHD hunk");
+    }
+
+    private void decompress(int codec, long offset, int length, byte[] out) throws IOException {
+        if (compressed == null || compressed.length < length) compressed = new byte[length];
+        if (file.readFully(offset, compressed, 0, length) < length) throw new IOException("Truncated CHD hunk");
+        if (codec == CODEC_ZLIB) {
+            inflate(compressed, 0, length, out, 0, hunkBytes);
+        } else if (codec == CODEC_LZMA) {
+            lzma(compressed, 0, length, out, 0, hunkBytes);
+        } else if (codec == CODEC_CD_ZLIB || codec == CODEC_CD_LZMA) {
+            decompressCd(codec, length, out);
+        } else {
+            throw new IOException("Unsupported CHD codec " + fourCcName(codec));
+        }
+    }
+
+    /**
+     * CD codecs store the 2352-byte sector data and the subcode as two streams behind a header of
+     * per-frame "ECC stripped" flags. Only the sector data is decoded; the subcode is left zeroed.
+     */
+    private void decompressCd(int codec, int length, byte[] out) throws IOException {
+        int frames = hunkBytes / CD_FRAME_SIZE;
+        int eccBytes = (frames + 7) / 8;
+        int lenBytes = hunkBytes < 65536 ? 2 : 3;
+        int headerBytes = eccBytes + lenBytes;
+        if (length < headerBytes) throw new IOException("Corrupt CHD CD hunk");
+        int baseLength = ((compressed[eccBytes] & 0xFF) << 8) | (compressed[eccBytes + 1] & 0xFF);
+        if (lenBytes == 3) baseLength = (baseLength << 8) | (compressed[eccBytes + 2] & 0xFF);
+        if (headerBytes + baseLength > length) throw new IOException("Corrupt CHD CD hunk");
+        byte[] sectors = new byte[frames * CD_SECTOR_DATA];
+        if (codec == CODEC_CD_ZLIB) {
+            inflate(compressed, headerBytes, baseLength, sectors, 0, sectors.length);
+        } else {
+            lzma(compressed, headerBytes, baseLength, sectors, 0, sectors.length);
+        }
+        Arrays.fill(out, (byte) 0);
+        for (int f = 0; f < frames; f++) {
+            System.arraycopy(sectors, f * CD_SECTOR_DATA, out, f * CD_FRAME_SIZE, CD_SECTOR_DATA);
+            if ((compressed[f >> 3] & (1 << (f & 7))) != 0) {
+                // Sync pattern was stripped along with the ECC; put it back so the sector looks raw again.
+                System.arraycopy(CdImageProber.SYNC, 0, out, f * CD_FRAME_SIZE, CdImageProber.SYNC.length);
+            }
+        }
+    }
+
+    private void inflate(byte[] src, int off, int len, byte[] dst, int dstOff, int dstLen) throws IOException {
+        if (inflater == null) inflater = new Inflater(true);
+        inflater.reset();
+        inflater.setInput(src, off, len);
+        int done = 0;
+        try {
+            while (done < dstLen) {
+                int n = inflater.inflate(dst, dstOff + done, dstLen - done);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) break;
+                done += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflate hunk", e);
+        }
+        if (done < dstLen) throw new IOException("Short deflate hunk");
+    }
+
+    private void lzma(byte[] src, int off, int len, byte[] dst, int dstOff, int dstLen) throws IOException {
+        // chdman encodes at level 9 defaults: lc=3, lp=0, pb=2.
+        if (lzma == null) lzma = new LzmaDecoder(3, 0, 2);
+        lzma.decode(src, off, len, dst, dstOff, dstLen);
+    }
+
+    /** Decodes the map's type pass on first use, then offsets and lengths up to {@code index}. */
+    private void ensureMapped(int index) throws IOException {
+        if (types == null) decodeMapTypes();
+        if (index < mapped) return;
+        if (offsets.length <= index) {
+            int size = Math.min(hunkCount, Math.max(index + 1, offsets.length * 2));
+            offsets = Arrays.copyOf(offsets, size);
+            lengths = Arrays.copyOf(lengths, size);
+        }
+        for (; mapped <= index; mapped++) {
+            int type = types[mapped] & 0xFF;
+            long offset = nextOffset;
+            int length = 0;
+            if (type <= COMPRESSION_TYPE_3) {
+                length = mapBits.read(lengthBits);
+                nextOffset += length;
+                mapBits.read(16); // crc
+            } else if (type == COMPRESSION_NONE) {
+                length = hunkBytes;
+                nextOffset += length;
+                mapBits.read(16);
+            } else if (type == COMPRESSION_SELF) {
+                lastSelf = offset = mapBits.readLong(selfBits);
+            } else if (type == COMPRESSION_PARENT) {
+                lastParent = offset = mapBits.readLong(parentBits);
+            } else if (type == COMPRESSION_SELF_0 || type == COMPRESSION_SELF_1) {
+                if (type == COMPRESSION_SELF_1) lastSelf++;
+                types[mapped] = COMPRESSION_SELF;
+                offset = lastSelf;
+            } else if (type == COMPRESSION_PARENT_SELF) {
+                types[mapped] = COMPRESSION_PARENT;
+                lastParent = offset = ((long) mapped * hunkBytes) / unitBytes;
+            } else if (type == COMPRESSION_PARENT_0 || type == COMPRESSION_PARENT_1) {
+                if (type == COMPRESSION_PARENT_1) lastParent += hunkBytes / unitBytes;
+                types[mapped] = COMPRESSION_PARENT;
+                offset = lastParent;
+            } else {
+                throw new IOException("Corrupt CHD map entry");
+            }
+            offsets[mapped] = offset;
+            lengths[mapped] = length;
+        }
+    }
+
+    private void decodeMapTypes() throws IOException {
+        byte[] header = new byte[16];
+        if (file.readFully(mapOffset, header, 0, header.length) < header.length) throw new IOException("Truncated CHD map");
+        long mapBytes = u32be(header, 0);
+        nextOffset = ((u32be(header, 4) << 16) | ((header[8] & 0xFF) << 8) | (header[9] & 0xFF));
+        lengthBits = header[12] & 0xFF;
+        selfBits = header[13] & 0xFF;
+        parentBits = header[14] & 0xFF;
+        mapBits = new BitReader(file, mapOffset + header.length, mapBytes);
+        Huffman huffman = Huffman.importRle(mapBits);
+        types = new byte[hunkCount];
+        int last = 0;
+        int repeat = 0;
+        for (int i = 0; i < hunkCount; i++) {
+            if (repeat > 0) {
+                types[i] = (byte) last;
+                repeat--;
+                continue;
+            }
+            int value = huffman.decode(mapBits);
+            if (value == COMPRESSION_RLE_SMALL) {
+                types[i] = (byte) last;
+                repeat = 2 + huffman.decode(mapBits);
+            } else if (value == COMPRESSION_RLE_LARGE) {
+                types[i] = (byte) last;
+                repeat = 2 + 16 + (huffman.decode(mapBits) << 4);
+                repeat += huffman.decode(mapBits);
+            } else {
+                types[i] = (byte) value;
+                last = value;
+            }
+        }
+    }
+
+    @Nullable
+    private CdImageProber.Layout readLayout(long metaOffset) throws IOException {
+        byte[] header = new byte[16];
+        long offset = metaOffset;
+        for (int guard = 0; offset != 0 && guard < 64; guard++) {
+            if (file.readFully(offset, header, 0, header.length) < header.length) return null;
+            int tag = (int) u32be(header, 0);
+            int length = (int) (u32be(header, 4) & 0xFFFFFF);
+            long next = u64be(header, 8);
+            if (tag == META_DVD) return CdImageProber.Layout.PLAIN;
+            if ((tag == META_CD_TRACK2 || tag == META_CD_TRACK) && length > 0 && length < 1024) {
+                byte[] text = new byte[length];
+                if (file.readFully(offset + header.length, text, 0, length) < length) return null;
+                Matcher m = TRACK_TYPE.matcher(new String(text, StandardCharsets.US_ASCII));
+                if (m.find()) return cdLayout(m.group(1));
+            }
+            offset = next;
+        }
+        return null;
+    }
+
+    @Nullable
+    private static CdImageProber.Layout cdLayout(String type) {
+        switch (type) {
+            case "MODE1":
+                return new CdImageProber.Layout(CD_FRAME_SIZE, 0, 1);
+            case "MODE2_FORM1":
+                return new CdImageProber.Layout(CD_FRAME_SIZE, 0, 2);
+            case "MODE1_RAW":
+                return new CdImageProber.Layout(CD_FRAME_SIZE, 16, 1);
+            case "MODE2_RAW":
+                return new CdImageProber.Layout(CD_FRAME_SIZE, 24, 2);
+            case "MODE2":
+            case "MODE2_FORM_MIX":
+                return new CdImageProber.Layout(CD_FRAME_SIZE, 8, 2);
+            default:
+                return null;
+        }
+    }
+
+    private static int fourCc(String s) {
+        return (s.charAt(0) << 24) | (s.charAt(1) << 16) | (s.charAt(2) << 8) | s.charAt(3);
+    }
+
+    private static String fourCcName(int v) {
+        return new String(new char[]{(char) (v >>> 24), (char) ((v >>> 16) & 0xFF), (char) ((v >>> 8) & 0xFF), (char) (v & 0xFF)});
+    }
+
+    private static long u32be(byte[] a, int i) {
+        return ((a[i] & 0xFFL) << 24) | ((a[i + 1] & 0xFFL) << 16) | ((a[i + 2] & 0xFFL) << 8) | (a[i + 3] & 0xFFL);
+    }
+
+    private static long u64be(byte[] a, int i) {
+        return (u32be(a, i) << 32) | u32be(a, i + 4);
+    }
+
+    /** MSB-first bit reader over a region of the file, refilled in small chunks. */
+    private static final class BitReader {
+        private final DiscReader file;
+        private final long end;
+        private long position;
+        private final byte[] buffer = new byte[4096];
+        private int bufferPos;
+        private int bufferLen;
+        private long bits;
+        private int bitCount;
+
+        BitReader(DiscReader file, long start, long length) {
+            this.file = file;
+            this.position = start;
+            this.end = start + length;
+        }
+
+        int peek(int count) throws IOException {
+            while (bitCount < count) {
+                bits = (bits << 8) | nextByte();
+                bitCount += 8;
+            }
+            return (int) ((bits >>> (bitCount - count)) & ((1L << count) - 1));
+        }
+
+        void skip(int count) {
+            bitCount -= count;
+        }
+
+        int read(int count) throws IOException {
+            if (count == 0) return 0;
+            int v = peek(count);
+            skip(count);
+            return v;
+        }
+
+        long readLong(int count) throws IOException {
+            if (count <= 24) return read(count);
+            long high = read(count - 24);
+            return (high << 24) | read(24);
+        }
+
+        private int nextByte() throws IOException {
+            if (bufferPos >= bufferLen) {
+                if (position >= end) return 0; // zero padding past the end, as chdman's reader does
+                int want = (int) Math.min(buffer.length, end - position);
+                bufferLen = file.readFully(position, buffer, 0, want);
+                if (bufferLen <= 0) throw new IOException("Truncated CHD map");
+                position += bufferLen;
+                bufferPos = 0;
+            }
+            return buffer[bufferPos++] & 0xFF;
+        }
+    }
+
+    /** The 16-symbol canonical Huffman code chdman uses for map entry types. */
+    private static final class Huffman {
+        private static final int NUM_CODES = 16;
+        private static final int MAX_BITS = 8;
+        private final short[] lookup = new short[1 << MAX_BITS];
+
+        static Huffman importRle(BitReader bits) throws IOException {
+            int[] lengths = new int[NUM_CODES];
+            int node = 0;
+            while (node < NUM_CODES) {
+                int nodeBits = bits.read(4);
+                if (nodeBits != 1) {
+                    lengths[node++] = nodeBits;
+                    continue;
+                }
+                nodeBits = bits.read(4);
+                if (nodeBits == 1) {
+                    lengths[node++] = nodeBits;
+                    continue;
+                }
+                int repeat = bits.read(4) + 3;
+                while (repeat-- > 0 && node < NUM_CODES) {
+                    lengths[node++] = nodeBits;
+                }
+            }
+            return new Huffman(lengths);
+        }
+
+        private Huffman(int[] lengths) throws IOException {
+            int[] histogram = new int[33];
+            for (int len : lengths) {
+                if (len > MAX_BITS) throw new IOException("Corrupt CHD map tree");
+                histogram[len]++;
+            }
+            int start = 0;
+            for (int len = 32; len > 0; len--) {
+                int next = (start + histogram[len]) >> 1;
+                if (len != 1 && next * 2 != start + histogram[len]) throw new IOException("Corrupt CHD map tree");
+                histogram[len] = start;
+                start = next;
+            }
+            for (int symbol = 0; symbol < NUM_CODES; symbol++) {
+                int len = lengths[symbol];
+                if (len == 0) continue;
+                int code = histogram[len]++;
+                int shift = MAX_BITS - len;
+                int first = code << shift;
+                int last = first | ((1 << shift) - 1);
+                for (int i = first; i <= last && i < lookup.length; i++) {
+                    lookup[i] = (short) ((symbol << 5) | len);
+                }
+            }
+        }
+
+        int decode(BitReader bits) throws IOException {
+            int entry = lookup[bits.peek(MAX_BITS)];
+            bits.skip(entry & 0x1F);
+            return entry >> 5;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2.disc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Random-access view over a disc image. Positions are absolute byte offsets into the image.
+ */
+public interface DiscReader extends Closeable {
+    /**
+     * Reads up to {@code len} bytes starting at {@code position}.
+     *
+     * @return the number of bytes read, or -1 if {@code position} is at or past the end.
+     */
+    int read(long position, byte[] dst, int off, int len) throws IOException;
+
+    /** Image length in bytes, or -1 if the provider does not report one. */
+    long length();
+
+    /**
+     * Reads until {@code len} bytes were copied or the end of the image was reached.
+     *
+     * @return the number of bytes read, 0 at end of image.
+     */
+    default int readFully(long position, byte[] dst, int off, int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            int r = read(position + total, dst, off + total, len - total);
+            if (r <= 0) break;
+            total += r;
+        }
+        return total;
+    }
+
+    /** Convenience wrapper returning a fresh array, truncated at end of image, or null if nothing was read. */
+    default byte[] readBytes(long position, int len) throws IOException {
+        if (len <= 0) return null;
+        byte[] buf = new byte[len];
+        int n = readFully(position, buf, 0, len);
+        if (n <= 0) return null;
+        return n < len ? Arrays.copyOf(buf, n) : buf;
+    }
+}
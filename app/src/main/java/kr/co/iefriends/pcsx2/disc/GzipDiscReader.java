@@ -0,0 +1,231 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2.disc;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Random access into a gzip-compressed image by inflating forward from the nearest checkpoint.
+ * Checkpoints are recorded at gzip member boundaries, so multi-member files (BGZF and other
+ * block-gzip tools) seek cheaply; a single-member file is inflated from its start.
+ * Java's {@link Inflater} cannot be primed mid-byte, which rules out zran-style access points
+ * inside a member. Inflating past {@code budget} bytes raises an {@link IOException} so a probe
+ * never decompresses a whole disc.
+ */
+public final class GzipDiscReader implements DiscReader {
+    /** Enough to reach the descriptors, root directory and SYSTEM.CNF of any disc we have seen. */
+    public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+    private static final int BLOCK_SIZE = 4096;
+    private static final int CACHE_BLOCKS = 16;
+    private static final int INPUT_CHUNK = 64 * 1024;
+    private static final int FLAG_HCRC = 0x02;
+    private static final int FLAG_EXTRA = 0x04;
+    private static final int FLAG_NAME = 0x08;
+    private static final int FLAG_COMMENT = 0x10;
+
+    private final DiscReader file;
+    private final long budget;
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] input = new byte[INPUT_CHUNK];
+    private final byte[] scratch = new byte[BLOCK_SIZE];
+    private long inputPos;
+    private long position;
+    private long inflatedTotal;
+    private boolean needsMember = true;
+    private boolean atEnd;
+    // Member starts: compressed offset of the gzip header and the uncompressed offset it begins at.
+    private long[] checkpointCompressed = new long[8];
+    private long[] checkpointPosition = new long[8];
+    private int checkpoints;
+
+    private final LinkedHashMap<Long, byte[]> cache = new LinkedHashMap<Long, byte[]>(CACHE_BLOCKS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > CACHE_BLOCKS;
+        }
+    };
+
+    public GzipDiscReader(DiscReader file, long budget) {
+        this.file = file;
+        this.budget = budget;
+    }
+
+    public GzipDiscReader(DiscReader file) {
+        this(file, DEFAULT_BUDGET);
+    }
+
+    /** Whether {@code file} starts with a gzip member header. */
+    public static boolean isGzip(DiscReader file) throws IOException {
+        byte[] magic = new byte[3];
+        return file.readFully(0, magic, 0, 3) == 3
+                && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B && magic[2] == 8;
+    }
+
+    @Override
+    public long length() {
+        // ISIZE only covers the last member, modulo 4 GiB; unknown until fully inflated.
+        return -1L;
+    }
+
+    @Override
+    public synchronized int read(long position, byte[] dst, int off, int len) throws IOException {
+        if (len <= 0) return 0;
+        if (position < 0) return -1;
+        long index = position / BLOCK_SIZE;
+        int inner = (int) (position % BLOCK_SIZE);
+        byte[] block = block(index);
+        if (inner >= block.length) return -1;
+        int n = Math.min(len, block.length - inner);
+        System.arraycopy(block, inner, dst, off, n);
+        return n;
+    }
+
+    @Override
+    public synchronized void close() {
+        cache.clear();
+        inflater.end();
+    }
+
+    private byte[] block(long index) throws IOException {
+        byte[] cached = cache.get(index);
+        if (cached != null) return cached;
+        long start = index * BLOCK_SIZE;
+        seek(start);
+        byte[] buf = new byte[BLOCK_SIZE];
+        int total = 0;
+        while (total < BLOCK_SIZE) {
+            int n = inflate(buf, total, BLOCK_SIZE - total);
+            if (n <= 0) break;
+            total += n;
+        }
+        byte[] block = total == BLOCK_SIZE ? buf : Arrays.copyOf(buf, total);
+        cache.put(index, block);
+        return block;
+    }
+
+    private void seek(long target) throws IOException {
+        if (target < position) {
+            int best = -1;
+            for (int i = 0; i < checkpoints; i++) {
+                if (checkpointPosition[i] <= target) best = i;
+            }
+            inputPos = best >= 0 ? checkpointCompressed[best] : 0;
+            position = best >= 0 ? checkpointPosition[best] : 0;
+            needsMember = true;
+            atEnd = false;
+        }
+        while (position < target) {
+            int n = inflate(scratch, 0, (int) Math.min(scratch.length, target - position));
+            if (n <= 0) return;
+        }
+    }
+
+    private int inflate(byte[] dst, int off, int len) throws IOException {
+        while (!atEnd) {
+            if (needsMember && !startMember()) {
+                atEnd = true;
+                break;
+            }
+            if (inflater.needsInput()) {
+                int n = file.read(inputPos, input, 0, input.length);
+                if (n <= 0) {
+                    atEnd = true;
+                    break;
+                }
+                inflater.setInput(input, 0, n);
+                inputPos += n;
+            }
+            int n;
+            try {
+                n = inflater.inflate(dst, off, len);
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt gzip stream", e);
+            }
+            if (n > 0) {
+                position += n;
+                inflatedTotal += n;
+                if (inflatedTotal > budget) throw new IOException("gzip inflate budget exceeded");
+                return n;
+            }
+            if (inflater.finished()) {
+                // Skip the CRC32/ISIZE trailer; the next member, if any, follows it.
+                inputPos = inputPos - inflater.getRemaining() + 8;
+                needsMember = true;
+            } else if (inflater.needsDictionary()) {
+                throw new IOException("Corrupt gzip stream");
+            }
+        }
+        return -1;
+    }
+
+    private boolean startMember() throws IOException {
+        long start = inputPos;
+        byte[] header = new byte[10];
+        if (file.readFully(start, header, 0, header.length) < header.length) return false;
+        if ((header[0] & 0xFF) != 0x1F || (header[1] & 0xFF) != 0x8B || header[2] != 8) return false;
+        int flags = header[3] & 0xFF;
+        long pos = start + header.length;
+        if ((flags & FLAG_EXTRA) != 0) {
+            byte[] xlen = new byte[2];
+            if (file.readFully(pos, xlen, 0, 2) < 2) return false;
+            pos += 2 + ((xlen[0] & 0xFF) | ((xlen[1] & 0xFF) << 8));
+        }
+        if ((flags & FLAG_NAME) != 0) pos = skipZeroTerminated(pos);
+        if ((flags & FLAG_COMMENT) != 0) pos = skipZeroTerminated(pos);
+        if (pos < 0) return false;
+        if ((flags & FLAG_HCRC) != 0) pos += 2;
+        addCheckpoint(start, position);
+        inflater.reset();
+        inputPos = pos;
+        needsMember = false;
+        return true;
+    }
+
+    private void addCheckpoint(long compressed, long uncompressed) {
+        if (checkpoints > 0 && checkpointPosition[checkpoints - 1] >= uncompressed) return;
+        if (checkpoints == checkpointCompressed.length) {
+            checkpointCompressed = Arrays.copyOf(checkpointCompressed, checkpoints * 2);
+            checkpointPosition = Arrays.copyOf(checkpointPosition, checkpoints * 2);
+        }
+        checkpointCompressed[checkpoints] = compressed;
+        checkpointPosition[checkpoints] = uncompressed;
+        checkpoints++;
+    }
+
+    private long skipZeroTerminated(long pos) throws IOException {
+        if (pos < 0) return -1;
+        byte[] buf = new byte[256];
+        for (int guard = 0; guard < 64; guard++) {
+            int n = file.read(pos, buf, 0, buf.length);
+            if (n <= 0) return -1;
+            for (int i = 0; i < n; i++) {
+                if (buf[i] == 0) return pos + i + 1;
+            }
+            pos += n;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2.disc;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Minimal ISO9660 reader that walks directories one sector at a time through a {@link DiscReader}.
+ * The reader must expose 2048-byte logical sectors: a plain ISO, or {@link CdImageProber#userData} over a raw image.
+ * Multi-extent files and directories spanning many sectors are supported; Joliet and Rock Ridge are ignored.
+ * UDF descriptors are only detected: PS2 DVDs are UDF bridge discs whose ISO9660 tree carries the same files.
+ */
+public final class Iso9660Walker {
+    public static final int SECTOR_SIZE = 2048;
+    private static final int FIRST_DESCRIPTOR = 16;
+    private static final int MAX_DESCRIPTORS = 32;
+    private static final int MAX_PATH_DEPTH = 8;
+    // Far beyond any real disc; stops a corrupt extent size from walking the whole image.
+    private static final long MAX_DIRECTORY_SECTORS = 1024;
+    private static final int FLAG_DIRECTORY = 0x02;
+    private static final int FLAG_MULTI_EXTENT = 0x80;
+
+    public static final class VolumeInfo {
+        public final String systemId;
+        public final String volumeId;
+        public final String publisherId;
+        /** Creation date as {@code yyyy-MM-dd}, or null when the descriptor leaves it blank. */
+        @Nullable public final String creationDate;
+        public final long volumeSectors;
+        public final boolean udf;
+
+        VolumeInfo(String systemId, String volumeId, String publisherId, @Nullable String creationDate,
+                   long volumeSectors, boolean udf) {
+            this.systemId = systemId;
+            this.volumeId = volumeId;
+            this.publisherId = publisherId;
+            this.creationDate = creationDate;
+            this.volumeSectors = volumeSectors;
+            this.udf = udf;
+        }
+    }
+
+    public static final class Entry {
+        public final String name;
+        public final boolean directory;
+        public final long size;
+        final long[] extentLbas;
+        final long[] extentSizes;
+
+        Entry(String name, boolean directory, long[] extentLbas, long[] extentSizes) {
+            this.name = name;
+            this.directory = directory;
+            this.extentLbas = extentLbas;
+            this.extentSizes = extentSizes;
+            long total = 0;
+            for (long s : extentSizes) total += s;
+            this.size = total;
+        }
+
+        /** First sector of the entry's data. */
+        public long lba() {
+            return extentLbas.length > 0 ? extentLbas[0] : 0;
+        }
+    }
+
+    public interface Visitor {
+        /** @return false to stop the listing. */
+        boolean onEntry(Entry entry);
+    }
+
+    private final DiscReader reader;
+    private final VolumeInfo volume;
+    private final Entry root;
+
+    private Iso9660Walker(DiscReader reader, VolumeInfo volume, Entry root) {
+        this.reader = reader;
+        this.volume = volume;
+        this.root = root;
+    }
+
+    /** Reads the volume descriptor set, or returns null if the image carries no ISO9660 primary descriptor. */
+    @Nullable
+    public static Iso9660Walker open(DiscReader reader) throws IOException {
+        byte[] buf = new byte[SECTOR_SIZE];
+        byte[] pvd = null;
+        boolean udf = false;
+        for (int i = 0; i < MAX_DESCRIPTORS; i++) {
+            if (reader.readFully((long) (FIRST_DESCRIPTOR + i) * SECTOR_SIZE, buf, 0, SECTOR_SIZE) < SECTOR_SIZE) break;
+            if (hasId(buf, "CD001")) {
+                int type = buf[0] & 0xFF;
+                if (type == 1 && pvd == null) pvd = buf.clone();
+                // The UDF recognition sequence follows the ISO terminator (type 255), so keep going.
+            } else if (hasId(buf, "BEA01") || hasId(buf, "NSR02") || hasId(buf, "NSR03")) {
+                udf = true;
+            } else if (hasId(buf, "TEA01") || pvd != null) {
+                break;
+            }
+        }
+        if (pvd == null) return null;
+        Entry root = parseRecord(pvd, 156, "");
+        if (root == null || !root.directory) return null;
+        VolumeInfo info = new VolumeInfo(
+                text(pvd, 8, 32),
+                text(pvd, 40, 32),
+                text(pvd, 318, 128),
+                date(pvd, 813),
+                u32le(pvd, 80),
+                udf);
+        return new Iso9660Walker(reader, info, root);
+    }
+
+    public VolumeInfo volume() {
+        return volume;
+    }
+
+    public Entry root() {
+        return root;
+    }
+
+    /**
+     * Resolves a path such as {@code SYSTEM.CNF} or {@code /DATA/ICON.SYS}. Separators may be
+     * {@code /} or {@code \}, comparison ignores case and {@code ;1} version suffixes.
+     */
+    @Nullable
+    public Entry find(String path) throws IOException {
+        if (path == null) return null;
+        String[] parts = path.split("[/\\\\]");
+        Entry current = root;
+        int depth = 0;
+        for (String part : parts) {
+            if (part.isEmpty()) continue;
+            if (current == null || !current.directory || ++depth > MAX_PATH_DEPTH) return null;
+            current = findChild(current, part);
+        }
+        return current;
+    }
+
+    @Nullable
+    public Entry findChild(Entry dir, String name) throws IOException {
+        final Entry[] hit = new Entry[1];
+        walk(dir, normalizeName(name), entry -> {
+            hit[0] = entry;
+            return false;
+        });
+        return hit[0];
+    }
+
+    /** Lists the children of {@code dir} in on-disc order, skipping the {@code .} and {@code ..} records. */
+    public void list(Entry dir, Visitor visitor) throws IOException {
+        walk(dir, null, visitor);
+    }
+
+    /** Reads up to {@code max} bytes of a file, or null if nothing could be read. */
+    @Nullable
+    public byte[] readFile(Entry file, int max) throws IOException {
+        if (file == null || file.directory) return null;
+        int len = (int) Math.min(file.size, Math.max(0, max));
+        if (len <= 0) return null;
+        byte[] out = new byte[len];
+        int done = 0;
+        for (int i = 0; i < file.extentLbas.length && done < len; i++) {
+            int want = (int) Math.min(file.extentSizes[i], len - done);
+            int n = reader.readFully(file.extentLbas[i] * SECTOR_SIZE, out, done, want);
+            done += n;
+            if (n < want) break;
+        }
+        if (done == 0) return null;
+        return done < len ? Arrays.copyOf(out, done) : out;
+    }
+
+    private void walk(Entry dir, @Nullable String wanted, Visitor visitor) throws IOException {
+        if (dir == null || !dir.directory) return;
+        // One sector buffer per listing, so a visitor may look up other paths while iterating.
+        byte[] sector = new byte[SECTOR_SIZE];
+        // Parts of a multi-extent file seen so far; only the last record clears the flag.
+        String pendingName = null;
+        long[] pendingLbas = null;
+        long[] pendingSizes = null;
+        for (int x = 0; x < dir.extentLbas.length; x++) {
+            long sectors = Math.min((dir.extentSizes[x] + SECTOR_SIZE - 1) / SECTOR_SIZE, MAX_DIRECTORY_SECTORS);
+            for (long s = 0; s < sectors; s++) {
+                if (reader.readFully((dir.extentLbas[x] + s) * SECTOR_SIZE, sector, 0, SECTOR_SIZE) < SECTOR_SIZE) return;
+                int off = 0;
+                while (off < SECTOR_SIZE) {
+                    int len = sector[off] & 0xFF;
+                    // Records never cross a sector boundary; a zero length pads to the next sector.
+                    if (len == 0 || len < 34 || off + len > SECTOR_SIZE) break;
+                    int nameLen = sector[off + 32] & 0xFF;
+                    int namePos = off + 33;
+                    if (nameLen == 0 || namePos + nameLen > off + len
+                            || (nameLen == 1 && (sector[namePos] == 0 || sector[namePos] == 1))) {
+                        off += len;
+                        continue;
+                    }
+                    if (wanted != null && !nameMatches(sector, namePos, nameLen, wanted)) {
+                        off += len;
+                        continue;
+                    }
+                    int flags = sector[off + 25] & 0xFF;
+                    long lba = u32le(sector, off + 2);
+                    long size = u32le(sector, off + 10);
+                    String name = normalizeName(new String(sector, namePos, nameLen, StandardCharsets.US_ASCII));
+                    if (pendingName != null && !pendingName.equals(name)) {
+                        pendingName = null;
+                    }
+                    if (pendingName != null) {
+                        pendingLbas = append(pendingLbas, lba);
+                        pendingSizes = append(pendingSizes, size);
+                    } else {
+                        pendingName = name;
+                        pendingLbas = new long[]{lba};
+                        pendingSizes = new long[]{size};
+                    }
+                    if ((flags & FLAG_MULTI_EXTENT) == 0) {
+                        Entry entry = new Entry(name, (flags & FLAG_DIRECTORY) != 0, pendingLbas, pendingSizes);
+                        pendingName = null;
+                        if (!visitor.onEntry(entry)) return;
+                    }
+                    off += len;
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private static Entry parseRecord(byte[] buf, int off, String name) {
+        int len = buf[off] & 0xFF;
+        if (len < 34 || off + len > buf.length) return null;
+        int flags = buf[off + 25] & 0xFF;
+        long lba = u32le(buf, off + 2);
+        long size = u32le(buf, off + 10);
+        if (lba <= 0 || size <= 0) return null;
+        return new Entry(name, (flags & FLAG_DIRECTORY) != 0, new long[]{lba}, new long[]{size});
+    }
+
+    /** Upper-cases and drops the {@code ;1} version suffix and the trailing dot of extension-less names. */
+    static String normalizeName(String name) {
+        int end = name.indexOf(';');
+        if (end < 0) end = name.length();
+        while (end > 0 && name.charAt(end - 1) == '.') end--;
+        return name.substring(0, end).toUpperCase(Locale.ROOT);
+    }
+
+    private static boolean nameMatches(byte[] buf, int pos, int len, String wanted) {
+        int end = pos + len;
+        for (int i = pos; i < end; i++) {
+            if (buf[i] == ';') {
+                end = i;
+                break;
+            }
+        }
+        while (end > pos && buf[end - 1] == '.') end--;
+        if (end - pos != wanted.length()) return false;
+        for (int i = 0; i < wanted.length(); i++) {
+            int c = buf[pos + i] & 0xFF;
+            if (c >= 'a' && c <= 'z') c -= 32;
+            if (c != wanted.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean hasId(byte[] buf, String id) {
+        for (int i = 0; i < id.length(); i++) {
+            if (buf[1 + i] != id.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static String text(byte[] buf, int off, int len) {
+        return new String(buf, off, len, StandardCharsets.US_ASCII).trim();
+    }
+
+    @Nullable
+    private static String date(byte[] buf, int off) {
+        for (int i = 0; i < 8; i++) {
+            int c = buf[off + i];
+            if (c < '0' || c > '9') return null;
+        }
+        String digits = new String(buf, off, 8, StandardCharsets.US_ASCII);
+        if (digits.startsWith("0000")) return null;
+        return digits.substring(0, 4) + "-" + digits.substring(4, 6) + "-" + digits.substring(6, 8);
+    }
+
+    private static long[] append(long[] a, long v) {
+        long[] out = Arrays.copyOf(a, a.length + 1);
+        out[a.length] = v;
+        return out;
+    }
+
+    static long u32le(byte[] a, int i) {
+        return (a[i] & 0xFFL) | ((a[i + 1] & 0xFFL) << 8) | ((a[i + 2] & 0xFFL) << 16) | ((a[i + 3] & 0xFFL) << 24);
+    }
+}
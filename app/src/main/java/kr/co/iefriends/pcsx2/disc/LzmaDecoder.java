@@ -0,0 +1,274 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2.disc;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Single-shot raw LZMA decoder (no .lzma header) for CHD hunks. The whole output buffer doubles as the
+ * dictionary, which is all a hunk needs since CHD compresses every hunk independently.
+ * Follows the reference decoder in the LZMA SDK specification.
+ */
+final class LzmaDecoder {
+    private static final int PROB_INIT = 1024;
+    private static final int NUM_STATES = 12;
+    private static final int POS_BITS_MAX = 4;
+    private static final int LEN_STATES = 4;
+    private static final int ALIGN_BITS = 4;
+    private static final int END_POS_MODEL_INDEX = 14;
+    private static final int FULL_DISTANCES = 1 << (END_POS_MODEL_INDEX >> 1);
+    private static final int MATCH_MIN_LEN = 2;
+
+    private final int lc;
+    private final int lp;
+    private final int pb;
+
+    // Range coder state
+    private byte[] in;
+    private int inPos;
+    private int inEnd;
+    private int range;
+    private int code;
+
+    private final short[] literalProbs;
+    private final short[] isMatch = new short[NUM_STATES << POS_BITS_MAX];
+    private final short[] isRep = new short[NUM_STATES];
+    private final short[] isRepG0 = new short[NUM_STATES];
+    private final short[] isRepG1 = new short[NUM_STATES];
+    private final short[] isRepG2 = new short[NUM_STATES];
+    private final short[] isRep0Long = new short[NUM_STATES << POS_BITS_MAX];
+    private final short[] posSlot = new short[LEN_STATES << 6];
+    private final short[] posDecoders = new short[1 + FULL_DISTANCES - END_POS_MODEL_INDEX];
+    private final short[] align = new short[1 << ALIGN_BITS];
+    private final LenDecoder lenDecoder = new LenDecoder();
+    private final LenDecoder repLenDecoder = new LenDecoder();
+
+    LzmaDecoder(int lc, int lp, int pb) {
+        this.lc = lc;
+        this.lp = lp;
+        this.pb = pb;
+        this.literalProbs = new short[0x300 << (lc + lp)];
+    }
+
+    /**
+     * Decodes exactly {@code dstLen} bytes.
+     *
+     * @throws IOException if the stream is corrupt or ends early.
+     */
+    void decode(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen) throws IOException {
+        reset();
+        in = src;
+        inPos = srcOff;
+        inEnd = srcOff + srcLen;
+        range = 0xFFFFFFFF;
+        code = 0;
+        if (nextByte() != 0) throw new IOException("Corrupt LZMA stream");
+        for (int i = 0; i < 4; i++) code = (code << 8) | nextByte();
+
+        int out = dstOff;
+        final int end = dstOff + dstLen;
+        int state = 0;
+        int rep0 = 0, rep1 = 0, rep2 = 0, rep3 = 0;
+        final int pbMask = (1 << pb) - 1;
+        final int lpMask = (1 << lp) - 1;
+        while (out < end) {
+            int pos = out - dstOff;
+            int posState = pos & pbMask;
+            if (bit(isMatch, (state << POS_BITS_MAX) + posState) == 0) {
+                int prev = out > dstOff ? dst[out - 1] & 0xFF : 0;
+                int base = 0x300 * (((pos & lpMask) << lc) + (prev >>> (8 - lc)));
+                int symbol = 1;
+                if (state >= 7) {
+                    int matchByte = dst[out - rep0 - 1] & 0xFF;
+                    do {
+                        int matchBit = (matchByte >>> 7) & 1;
+                        matchByte <<= 1;
+                        int b = bit(literalProbs, base + ((1 + matchBit) << 8) + symbol);
+                        symbol = (symbol << 1) | b;
+                        if (matchBit != b) break;
+                    } while (symbol < 0x100);
+                }
+                while (symbol < 0x100) {
+                    symbol = (symbol << 1) | bit(literalProbs, base + symbol);
+                }
+                dst[out++] = (byte) symbol;
+                state = state < 4 ? 0 : (state < 10 ? state - 3 : state - 6);
+                continue;
+            }
+            int len;
+            if (bit(isRep, state) != 0) {
+                if (out == dstOff) throw new IOException("Corrupt LZMA stream");
+                if (bit(isRepG0, state) == 0) {
+                    if (bit(isRep0Long, (state << POS_BITS_MAX) + posState) == 0) {
+                        state = state < 7 ? 9 : 11;
+                        dst[out] = dst[out - rep0 - 1];
+                        out++;
+                        continue;
+                    }
+                } else {
+                    int dist;
+                    if (bit(isRepG1, state) == 0) {
+                        dist = rep1;
+                    } else {
+                        if (bit(isRepG2, state) == 0) {
+                            dist = rep2;
+                        } else {
+                            dist = rep3;
+                            rep3 = rep2;
+                        }
+                        rep2 = rep1;
+                    }
+                    rep1 = rep0;
+                    rep0 = dist;
+                }
+                len = repLenDecoder.decode(posState);
+                state = state < 7 ? 8 : 11;
+            } else {
+                rep3 = rep2;
+                rep2 = rep1;
+                rep1 = rep0;
+                len = lenDecoder.decode(posState);
+                state = state < 7 ? 7 : 10;
+                rep0 = decodeDistance(len);
+                if (rep0 == 0xFFFFFFFF) break; // end marker
+                if (rep0 < 0 || rep0 >= out - dstOff) throw new IOException("Corrupt LZMA distance");
+            }
+            len += MATCH_MIN_LEN;
+            int copyEnd = Math.min(end, out + len);
+            int from = out - rep0 - 1;
+            while (out < copyEnd) {
+                dst[out++] = dst[from++];
+            }
+        }
+        if (out < end) throw new IOException("Truncated LZMA stream");
+    }
+
+    private void reset() {
+        Arrays.fill(literalProbs, (short) PROB_INIT);
+        Arrays.fill(isMatch, (short) PROB_INIT);
+        Arrays.fill(isRep, (short) PROB_INIT);
+        Arrays.fill(isRepG0, (short) PROB_INIT);
+        Arrays.fill(isRepG1, (short) PROB_INIT);
+        Arrays.fill(isRepG2, (short) PROB_INIT);
+        Arrays.fill(isRep0Long, (short) PROB_INIT);
+        Arrays.fill(posSlot, (short) PROB_INIT);
+        Arrays.fill(posDecoders, (short) PROB_INIT);
+        Arrays.fill(align, (short) PROB_INIT);
+        lenDecoder.reset();
+        repLenDecoder.reset();
+    }
+
+    private int decodeDistance(int len) throws IOException {
+        int lenState = Math.min(len, LEN_STATES - 1);
+        int slot = bitTree(posSlot, lenState << 6, 6);
+        if (slot < 4) return slot;
+        int numDirectBits = (slot >>> 1) - 1;
+        int dist = (2 | (slot & 1)) << numDirectBits;
+        if (slot < END_POS_MODEL_INDEX) {
+            return dist + reverseBitTree(posDecoders, dist - slot, numDirectBits);
+        }
+        dist += directBits(numDirectBits - ALIGN_BITS) << ALIGN_BITS;
+        return dist + reverseBitTree(align, 0, ALIGN_BITS);
+    }
+
+    private int nextByte() throws IOException {
+        if (inPos >= inEnd) throw new IOException("Truncated LZMA stream");
+        return in[inPos++] & 0xFF;
+    }
+
+    private void normalize() throws IOException {
+        if (Integer.compareUnsigned(range, 1 << 24) < 0) {
+            range <<= 8;
+            code = (code << 8) | nextByte();
+        }
+    }
+
+    private int bit(short[] probs, int index) throws IOException {
+        int prob = probs[index];
+        int bound = (range >>> 11) * prob;
+        int result;
+        if (Integer.compareUnsigned(code, bound) < 0) {
+            range = bound;
+            probs[index] = (short) (prob + ((2048 - prob) >>> 5));
+            result = 0;
+        } else {
+            range -= bound;
+            code -= bound;
+            probs[index] = (short) (prob - (prob >>> 5));
+            result = 1;
+        }
+        normalize();
+        return result;
+    }
+
+    private int directBits(int numBits) throws IOException {
+        int result = 0;
+        for (; numBits > 0; numBits--) {
+            range >>>= 1;
+            code -= range;
+            int t = 0 - (code >>> 31);
+            code += range & t;
+            result = (result << 1) + (t + 1);
+            normalize();
+        }
+        return result;
+    }
+
+    private int bitTree(short[] probs, int offset, int numBits) throws IOException {
+        int m = 1;
+        for (int i = 0; i < numBits; i++) {
+            m = (m << 1) + bit(probs, offset + m);
+        }
+        return m - (1 << numBits);
+    }
+
+    private int reverseBitTree(short[] probs, int offset, int numBits) throws IOException {
+        int m = 1;
+        int symbol = 0;
+        for (int i = 0; i < numBits; i++) {
+            int b = bit(probs, offset + m);
+            m = (m << 1) + b;
+            symbol |= b << i;
+        }
+        return symbol;
+    }
+
+    private final class LenDecoder {
+        private final short[] choice = new short[2];
+        private final short[] low = new short[(1 << POS_BITS_MAX) << 3];
+        private final short[] mid = new short[(1 << POS_BITS_MAX) << 3];
+        private final short[] high = new short[1 << 8];
+
+        void reset() {
+            Arrays.fill(choice, (short) PROB_INIT);
+            Arrays.fill(low, (short) PROB_INIT);
+            Arrays.fill(mid, (short) PROB_INIT);
+            Arrays.fill(high, (short) PROB_INIT);
+        }
+
+        int decode(int posState) throws IOException {
+            if (bit(choice, 0) == 0) return bitTree(low, posState << 3, 3);
+            if (bit(choice, 1) == 0) return 8 + bitTree(mid, posState << 3, 3);
+            return 16 + bitTree(high, 0, 8);
+        }
+    }
+}
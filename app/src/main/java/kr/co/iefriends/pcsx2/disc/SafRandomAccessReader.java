@@ -0,0 +1,218 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2.disc;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import kr.co.iefriends.pcsx2.util.DebugLog;
+
+/**
+ * {@link DiscReader} over a SAF document. Reads are positional ({@code pread}) on the document's
+ * {@link FileChannel} and go through a small block cache, so probing a multi-gigabyte image only
+ * touches the sectors that are actually parsed.
+ * Providers that only hand out pipes (some cloud providers) fall back to a single forward-only
+ * stream that is reopened when a read goes backwards.
+ */
+public final class SafRandomAccessReader implements DiscReader {
+    private static final String TAG = "SafReader";
+    static final int BLOCK_SIZE = 4096;
+    private static final int CACHE_BLOCKS = 32;
+    // Larger reads bypass the cache; they are rarely re-read and would evict the directory sectors.
+    private static final int DIRECT_READ_THRESHOLD = 4 * BLOCK_SIZE;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ContentResolver resolver;
+    private final Uri uri;
+    private final long length;
+    private ParcelFileDescriptor pfd;
+    private FileChannel channel;
+    private InputStream stream;
+    private long streamPos;
+    private long bytesFromSource;
+
+    private final LinkedHashMap<Long, byte[]> cache = new LinkedHashMap<Long, byte[]>(CACHE_BLOCKS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > CACHE_BLOCKS;
+        }
+    };
+
+    private SafRandomAccessReader(ContentResolver resolver, Uri uri, ParcelFileDescriptor pfd) {
+        this.resolver = resolver;
+        this.uri = uri;
+        this.pfd = pfd;
+        long statSize = pfd.getStatSize();
+        this.length = statSize > 0 ? statSize : -1L;
+        this.channel = new FileInputStream(pfd.getFileDescriptor()).getChannel();
+    }
+
+    public static SafRandomAccessReader open(ContentResolver resolver, Uri uri) throws IOException {
+        ParcelFileDescriptor pfd = resolver.openFileDescriptor(uri, "r");
+        if (pfd == null) {
+            throw new FileNotFoundException("No descriptor for " + uri);
+        }
+        SafRandomAccessReader reader = new SafRandomAccessReader(resolver, uri, pfd);
+        try {
+            // Warms block 0 and tells us whether the descriptor is seekable at all.
+            reader.block(0);
+        } catch (IOException e) {
+            reader.switchToStream(e);
+        }
+        return reader;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /** Bytes actually pulled from the provider so far, for diagnostics. */
+    public synchronized long bytesFromSource() {
+        return bytesFromSource;
+    }
+
+    @Override
+    public synchronized int read(long position, byte[] dst, int off, int len) throws IOException {
+        if (len <= 0) return 0;
+        if (position < 0 || (length >= 0 && position >= length)) return -1;
+        if (len >= DIRECT_READ_THRESHOLD && channel != null) {
+            int n = readChannel(position, dst, off, len);
+            return n > 0 ? n : -1;
+        }
+        long index = position / BLOCK_SIZE;
+        int inner = (int) (position % BLOCK_SIZE);
+        byte[] block = block(index);
+        if (inner >= block.length) return -1;
+        int n = Math.min(len, block.length - inner);
+        System.arraycopy(block, inner, dst, off, n);
+        return n;
+    }
+
+    @Override
+    public synchronized void close() {
+        cache.clear();
+        if (channel != null) {
+            try { channel.close(); } catch (Throwable ignored) {}
+            channel = null;
+        }
+        if (pfd != null) {
+            try { pfd.close(); } catch (Throwable ignored) {}
+            pfd = null;
+        }
+        closeStream();
+    }
+
+    private byte[] block(long index) throws IOException {
+        byte[] cached = cache.get(index);
+        if (cached != null) return cached;
+        byte[] buf = new byte[BLOCK_SIZE];
+        long position = index * BLOCK_SIZE;
+        int n = channel != null ? readChannel(position, buf, 0, BLOCK_SIZE) : readStream(position, buf, BLOCK_SIZE);
+        byte[] block;
+        if (n <= 0) {
+            block = EMPTY;
+        } else if (n < BLOCK_SIZE) {
+            block = new byte[n];
+            System.arraycopy(buf, 0, block, 0, n);
+        } else {
+            block = buf;
+        }
+        cache.put(index, block);
+        return block;
+    }
+
+    private int readChannel(long position, byte[] dst, int off, int len) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(dst, off, len);
+        int total = 0;
+        while (bb.hasRemaining()) {
+            int r = channel.read(bb, position + total);
+            if (r <= 0) break;
+            total += r;
+        }
+        bytesFromSource += total;
+        return total;
+    }
+
+    private int readStream(long position, byte[] dst, int len) throws IOException {
+        if (stream == null || position < streamPos) {
+            closeStream();
+            stream = resolver.openInputStream(uri);
+            streamPos = 0;
+            if (stream == null) {
+                throw new FileNotFoundException("No stream for " + uri);
+            }
+        }
+        byte[] skipBuf = null;
+        while (streamPos < position) {
+            long skipped = stream.skip(position - streamPos);
+            if (skipped <= 0) {
+                if (skipBuf == null) skipBuf = new byte[8192];
+                int r = stream.read(skipBuf, 0, (int) Math.min(skipBuf.length, position - streamPos));
+                if (r <= 0) return 0;
+                skipped = r;
+            }
+            streamPos += skipped;
+            bytesFromSource += skipped;
+        }
+        int total = 0;
+        while (total < len) {
+            int r = stream.read(dst, total, len - total);
+            if (r <= 0) break;
+            total += r;
+        }
+        streamPos += total;
+        bytesFromSource += total;
+        return total;
+    }
+
+    private void switchToStream(IOException cause) {
+        try { DebugLog.d(TAG, "Descriptor not seekable, using stream reads for " + uri + ": " + cause.getMessage()); } catch (Throwable ignored) {}
+        if (channel != null) {
+            try { channel.close(); } catch (Throwable ignored) {}
+            channel = null;
+        }
+        if (pfd != null) {
+            try { pfd.close(); } catch (Throwable ignored) {}
+            pfd = null;
+        }
+        cache.clear();
+        bytesFromSource = 0;
+    }
+
+    private void closeStream() {
+        if (stream != null) {
+            try { stream.close(); } catch (Throwable ignored) {}
+            stream = null;
+        }
+        streamPos = 0;
+    }
+}
@@ -48,22 +48,10 @@ import kr.co.iefriends.pcsx2.R;
 public final class AvatarLoader {
     private static final String KEY_PREFIX_LOCAL = "local:";
     private static final String KEY_PREFIX_REMOTE = "remote:";
-    private static final int MAX_CACHE_KB;
-    private static final android.util.LruCache<String, Bitmap> CACHE;
+    private static final BitmapCache CACHE = BitmapCache.get();
     private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(2);
     private static final Handler MAIN = new Handler(Looper.getMainLooper());
 
-    static {
-        final long maxMemoryKb = Runtime.getRuntime().maxMemory() / 1024L;
-        MAX_CACHE_KB = (int) Math.min(maxMemoryKb / 16L, 2560L); 
-        CACHE = new android.util.LruCache<String, Bitmap>(MAX_CACHE_KB) {
-            @Override
-            protected int sizeOf(String key, Bitmap value) {
-                return value.getByteCount() / 1024;
-            }
-        };
-    }
-
     private AvatarLoader() {
     }
 
@@ -80,12 +68,14 @@ public final class AvatarLoader {
             return;
         }
         target.setTag(R.id.tag_avatar_loader, null);
+        CACHE.setImage(target, null);
         target.setImageResource(R.drawable.ic_avatar_placeholder);
     }
 
     @Nullable
     public static Bitmap getCachedLocal(@Nullable String path) {
-        return CACHE.get(keyForLocal(path));
+        String key = keyForLocal(path);
+        return key != null ? CACHE.getBitmap(key) : null;
     }
 
     private static void loadInternal(ImageView target, @Nullable String cacheKey,
@@ -97,12 +87,13 @@ public final class AvatarLoader {
             clear(target);
             return;
         }
-        Bitmap cached = CACHE.get(cacheKey);
+        Bitmap cached = CACHE.getBitmap(cacheKey);
         target.setTag(R.id.tag_avatar_loader, cacheKey);
-        if (cached != null && !cached.isRecycled()) {
-            target.setImageBitmap(cached);
+        if (cached != null) {
+            CACHE.setImage(target, cached);
             return;
         }
+        CACHE.setImage(target, null);
         target.setImageResource(R.drawable.ic_avatar_placeholder);
         WeakReference<ImageView> viewRef = new WeakReference<>(target);
         EXECUTOR.execute(() -> {
@@ -111,7 +102,7 @@ public final class AvatarLoader {
                 if (bitmap == null) {
                     return;
                 }
-                CACHE.put(cacheKey, bitmap);
+                CACHE.putBitmap(cacheKey, bitmap);
                 MAIN.post(() -> {
                     ImageView imageView = viewRef.get();
                     if (imageView == null) {
@@ -121,7 +112,7 @@ public final class AvatarLoader {
                     if (!Objects.equals(cacheKey, currentTag)) {
                         return;
                     }
-                    imageView.setImageBitmap(bitmap);
+                    CACHE.setImage(imageView, bitmap);
                 });
             } catch (IOException ignored) {
                // we ball
@@ -152,7 +143,7 @@ public final class AvatarLoader {
         if (!file.exists()) {
             return null;
         }
-        return BitmapFactory.decodeFile(path);
+        return CACHE.decode(new BitmapFactory.Options(), opts -> BitmapFactory.decodeFile(path, opts));
     }
 
     @Nullable
@@ -174,7 +165,7 @@ public final class AvatarLoader {
             if (data.length == 0) {
                 return null;
             }
-            return BitmapFactory.decodeByteArray(data, 0, data.length);
+            return CACHE.decode(new BitmapFactory.Options(), opts -> BitmapFactory.decodeByteArray(data, 0, data.length, opts));
         } finally {
             connection.disconnect();
         }
@@ -0,0 +1,379 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2.util;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.WeakHashMap;
+import java.util.function.Predicate;
+
+/**
+ * One memory cache for every bitmap the UI decodes (covers, avatars, backgrounds), under a single
+ * budget, plus a small pool of bitmaps that are no longer used and can be handed to
+ * {@code BitmapFactory} as {@code inBitmap}.
+ * <p>
+ * A bitmap is only reused once nothing can draw it any more: it has left the cache, no view shown
+ * through {@link #setImage} still holds it, and it has not been handed out for a couple of seconds
+ * (which covers a decode that is on its way to the main thread). Bitmaps that do not meet all three
+ * are simply left to the GC.
+ * <p>
+ * The budget shrinks while a game runs and on {@link #onTrimMemory}, so the emulator core gets the
+ * memory back; {@link #metrics()} reports hit rate and evictions for the log.
+ */
+public final class BitmapCache {
+    private static final String TAG = "BitmapCache";
+    // Newest bitmap handed out before this long ago may still be on its way to a view.
+    private static final long REUSE_AFTER_MS = 2000L;
+    // A pooled bitmap larger than this multiple of the request would pin memory for little gain.
+    private static final int MAX_REUSE_WASTE = 2;
+
+    private static final BitmapCache INSTANCE = new BitmapCache();
+
+    /** Counters since process start. */
+    public static final class Metrics {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final long evictedKb;
+        public final long reused;
+        public final long pooled;
+        public final int sizeKb;
+        public final int maxKb;
+        public final int poolKb;
+
+        Metrics(long hits, long misses, long evictions, long evictedKb, long reused, long pooled,
+                int sizeKb, int maxKb, int poolKb) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.evictedKb = evictedKb;
+            this.reused = reused;
+            this.pooled = pooled;
+            this.sizeKb = sizeKb;
+            this.maxKb = maxKb;
+            this.poolKb = poolKb;
+        }
+
+        public float hitRate() {
+            long total = hits + misses;
+            return total > 0 ? (float) hits / total : 0f;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%d/%d KB (+%d KB pool), hit rate %.1f%% (%d/%d), %d evictions (%d KB), %d reused of %d pooled",
+                    sizeKb, maxKb, poolKb, hitRate() * 100f, hits, hits + misses, evictions, evictedKb, reused, pooled);
+        }
+    }
+
+    /** Decodes with whatever {@code inBitmap} {@link #decode} put into the options. */
+    public interface Decoder {
+        @Nullable
+        Bitmap decode(BitmapFactory.Options opts) throws IOException;
+    }
+
+    private static final class Usage {
+        int cached;
+        int shown;
+        long handedOutAt;
+    }
+
+    private final int budgetKb;
+    private final LruCache<String, Bitmap> cache;
+    // Weak keys: a view or bitmap dropped without going through setImage must not be kept alive here.
+    private final WeakHashMap<Bitmap, Usage> usage = new WeakHashMap<>();
+    private final WeakHashMap<ImageView, Bitmap> shown = new WeakHashMap<>();
+    private final ArrayList<Bitmap> pool = new ArrayList<>();
+    private int poolKb;
+    private boolean emulationRunning;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long evictedKb;
+    private long reused;
+    private long pooled;
+
+    private BitmapCache() {
+        int maxMemKb = (int) (Runtime.getRuntime().maxMemory() / 1024);
+        budgetKb = Math.max(1024 * 8, Math.min(1024 * 64, maxMemKb / 12));
+        cache = new LruCache<String, Bitmap>(budgetKb) {
+            @Override protected int sizeOf(String key, Bitmap value) {
+                return kb(value);
+            }
+
+            @Override protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                // Also for a key put again with the same bitmap: putBitmap counted it twice.
+                onUncached(oldValue, evicted);
+            }
+        };
+    }
+
+    public static BitmapCache get() {
+        return INSTANCE;
+    }
+
+    @Nullable
+    public Bitmap getBitmap(String key) {
+        Bitmap bmp = cache.get(key);
+        synchronized (this) {
+            // A bitmap evicted between the lookup and here may already be pooled, or taken from the
+            // pool for another decode; pooling drops its usage, so that reads as a miss.
+            Usage u = bmp != null ? usage.get(bmp) : null;
+            if (u == null || bmp.isRecycled()) {
+                misses++;
+                return null;
+            }
+            hits++;
+            u.handedOutAt = SystemClock.uptimeMillis();
+        }
+        return bmp;
+    }
+
+    public void putBitmap(String key, Bitmap bmp) {
+        synchronized (this) {
+            Usage u = usageOf(bmp);
+            u.cached++;
+            u.handedOutAt = SystemClock.uptimeMillis();
+        }
+        cache.put(key, bmp);
+    }
+
+    /**
+     * Shows {@code bmp} in {@code view} (null clears it) and records which bitmap the view holds, so
+     * the one it replaces can be reused. Main thread.
+     */
+    public void setImage(ImageView view, @Nullable Bitmap bmp) {
+        Bitmap previous;
+        synchronized (this) {
+            previous = bmp != null ? shown.put(view, bmp) : shown.remove(view);
+            if (previous == bmp) {
+                // Already shown; setImageBitmap would only wrap it in a new drawable.
+                if (bmp != null) return;
+                previous = null;
+            } else if (bmp != null) {
+                usageOf(bmp).shown++;
+            }
+        }
+        if (bmp != null) {
+            view.setImageBitmap(bmp);
+        } else {
+            view.setImageDrawable(null);
+        }
+        if (previous != null) {
+            synchronized (this) {
+                Usage u = usage.get(previous);
+                if (u != null && u.shown > 0) u.shown--;
+                maybePool(previous, u);
+            }
+        }
+    }
+
+    /** Drops every cached bitmap whose key matches, e.g. covers whose file was replaced. */
+    public void removeIf(Predicate<String> keyFilter) {
+        for (String key : cache.snapshot().keySet()) {
+            if (keyFilter.test(key)) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    /** Gives back a bitmap that was never cached or shown, e.g. a full decode that was scaled down. */
+    public void offer(@Nullable Bitmap bmp) {
+        if (bmp == null) {
+            return;
+        }
+        synchronized (this) {
+            Usage u = usage.get(bmp);
+            if (u == null || (u.cached == 0 && u.shown == 0)) {
+                addToPool(bmp);
+            }
+        }
+    }
+
+    /**
+     * Runs {@code decoder} with a pooled bitmap of sufficient size as {@code inBitmap}, once bounds
+     * and {@code inSampleSize}/{@code inPreferredConfig} are set; falls back to a plain decode when
+     * none fits or the platform refuses it. The result is always mutable so it can be reused later.
+     */
+    @Nullable
+    public Bitmap decode(BitmapFactory.Options opts, Decoder decoder) throws IOException {
+        opts.inMutable = true;
+        Bitmap reuse = opts.outWidth > 0 && opts.outHeight > 0 ? takeFromPool(requiredBytes(opts)) : null;
+        if (reuse != null) {
+            opts.inBitmap = reuse;
+            try {
+                Bitmap bmp = decoder.decode(opts);
+                if (bmp != null) {
+                    return bmp;
+                }
+            } catch (IllegalArgumentException ignored) {
+                // Not reusable for this image after all; the pooled bitmap may be half written, drop it.
+            }
+            opts.inBitmap = null;
+        }
+        return decoder.decode(opts);
+    }
+
+    /** Cuts the cache down to a few screens of covers while the VM runs, and restores it after. */
+    public void setEmulationRunning(boolean running) {
+        synchronized (this) {
+            if (emulationRunning == running) {
+                return;
+            }
+            emulationRunning = running;
+            if (running) {
+                clearPool();
+            }
+        }
+        cache.resize(running ? Math.max(1024 * 2, budgetKb / 8) : budgetKb);
+        try { DebugLog.d(TAG, (running ? "Game started: " : "Game stopped: ") + metrics()); } catch (Throwable ignored) {}
+    }
+
+    /** {@link ComponentCallbacks2#onTrimMemory} levels, forwarded by the application. */
+    @SuppressWarnings("deprecation")
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimToSize(cache.maxSize() / 4);
+        } else {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+        synchronized (this) {
+            clearPool();
+        }
+        try { DebugLog.d(TAG, "Trim level " + level + ": " + metrics()); } catch (Throwable ignored) {}
+    }
+
+    public Metrics metrics() {
+        int size = cache.size();
+        int max = cache.maxSize();
+        synchronized (this) {
+            return new Metrics(hits, misses, evictions, evictedKb, reused, pooled, size, max, poolKb);
+        }
+    }
+
+    private void onUncached(Bitmap bmp, boolean evicted) {
+        synchronized (this) {
+            if (evicted) {
+                evictions++;
+                evictedKb += kb(bmp);
+            }
+            Usage u = usage.get(bmp);
+            if (u != null && u.cached > 0) u.cached--;
+            maybePool(bmp, u);
+        }
+    }
+
+    /** Caller holds the lock. */
+    private void maybePool(Bitmap bmp, @Nullable Usage u) {
+        if (u == null || u.cached > 0 || u.shown > 0) {
+            return;
+        }
+        if (SystemClock.uptimeMillis() - u.handedOutAt < REUSE_AFTER_MS) {
+            return;
+        }
+        addToPool(bmp);
+    }
+
+    /** Caller holds the lock. */
+    private void addToPool(Bitmap bmp) {
+        if (emulationRunning || !bmp.isMutable() || bmp.isRecycled() || pool.contains(bmp)) {
+            return;
+        }
+        int size = kb(bmp);
+        // The pool lives inside the budget: a quarter at most, and only what the cache leaves free.
+        int limit = Math.min(cache.maxSize() / 4, cache.maxSize() - cache.size());
+        if (size > limit) {
+            return;
+        }
+        while (poolKb + size > limit && !pool.isEmpty()) {
+            poolKb -= kb(pool.remove(0));
+        }
+        usage.remove(bmp);
+        pool.add(bmp);
+        poolKb += size;
+        pooled++;
+    }
+
+    @Nullable
+    private synchronized Bitmap takeFromPool(int bytes) {
+        Bitmap best = null;
+        int bestIndex = -1;
+        for (int i = 0; i < pool.size(); i++) {
+            Bitmap candidate = pool.get(i);
+            int size = candidate.getAllocationByteCount();
+            if (size >= bytes && size <= bytes * MAX_REUSE_WASTE
+                    && (best == null || size < best.getAllocationByteCount())) {
+                best = candidate;
+                bestIndex = i;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        pool.remove(bestIndex);
+        poolKb -= kb(best);
+        reused++;
+        return best;
+    }
+
+    private void clearPool() {
+        pool.clear();
+        poolKb = 0;
+    }
+
+    private Usage usageOf(Bitmap bmp) {
+        Usage u = usage.get(bmp);
+        if (u == null) {
+            u = new Usage();
+            usage.put(bmp, u);
+        }
+        return u;
+    }
+
+    private static int requiredBytes(BitmapFactory.Options opts) {
+        int sample = Math.max(1, opts.inSampleSize);
+        int width = (opts.outWidth + sample - 1) / sample;
+        int height = (opts.outHeight + sample - 1) / sample;
+        Bitmap.Config config = opts.inPreferredConfig;
+        int bpp = config == Bitmap.Config.RGB_565 ? 2 : config == Bitmap.Config.ALPHA_8 ? 1 : 4;
+        return width * height * bpp;
+    }
+
+    private static int kb(Bitmap bmp) {
+        return Math.max(1, bmp.getAllocationByteCount() / 1024);
+    }
+}
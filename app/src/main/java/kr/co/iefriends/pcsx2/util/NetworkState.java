@@ -0,0 +1,98 @@
+/*
+
+By MoonPower (Momo-AUX1) GPLv3 License
+   This file is part of ARMSX2.
+
+   ARMSX2 is free software: you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation, either version 3 of the License, or
+   (at your option) any later version.
+
+   ARMSX2 is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with ARMSX2.  If not, see <http://www.gnu.org/licenses/>.
+
+*/
+
+package kr.co.iefriends.pcsx2.util;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Whether the default network can reach the internet, kept up to date by a network callback so
+ * cover loads on worker threads read a field instead of asking {@link ConnectivityManager} each time.
+ * Until {@link #start} has run, {@link #isOnline} asks the system directly.
+ */
+public final class NetworkState {
+    private static final String TAG = "NetworkState";
+
+    private static volatile boolean sStarted;
+    private static volatile boolean sOnline;
+
+    private NetworkState() {
+    }
+
+    /** Registers the callback once for the process; the application context outlives it. */
+    public static synchronized void start(Context context) {
+        if (sStarted) {
+            return;
+        }
+        Context appCtx = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        ConnectivityManager cm = (ConnectivityManager) appCtx.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            return;
+        }
+        sOnline = query(cm);
+        try {
+            cm.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onCapabilitiesChanged(@NonNull Network network, @NonNull NetworkCapabilities caps) {
+                    sOnline = usable(caps);
+                }
+
+                @Override
+                public void onLost(@NonNull Network network) {
+                    sOnline = false;
+                }
+            });
+            sStarted = true;
+        } catch (RuntimeException e) {
+            try { DebugLog.w(TAG, "Network callback unavailable: " + e.getMessage()); } catch (Throwable ignored) {}
+        }
+    }
+
+    public static boolean isOnline(Context context) {
+        if (sStarted) {
+            return sOnline;
+        }
+        if (context == null) {
+            return false;
+        }
+        try {
+            ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            return cm != null && query(cm);
+        } catch (Throwable ignored) {
+            return false;
+        }
+    }
+
+    private static boolean query(ConnectivityManager cm) {
+        Network nw = cm.getActiveNetwork();
+        return nw != null && usable(cm.getNetworkCapabilities(nw));
+    }
+
+    private static boolean usable(NetworkCapabilities nc) {
+        return nc != null && (nc.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)
+                || nc.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)
+                || nc.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET));
+    }
+}
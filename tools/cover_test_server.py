@@ -0,0 +1,183 @@
+#!/usr/bin/env python3
+"""
+Local stand-in for a cover mirror, for benchmarking the cover prefetch offline.
+
+Serves a generated PNG for any path ending in an image extension, over HTTP/1.1 with
+keep-alive, and can inject latency, missing covers and throttling so the download engine's
+per-host limits, connection reuse, revalidation and backoff can be observed.
+
+- Every response carries an ETag and Last-Modified; If-None-Match / If-Modified-Since get a 304.
+- --missing: fraction of paths answered with 404 (stable per path, so retries behave alike).
+- --throttle: fraction of requests answered with 429 + Retry-After, or 503 with --server-errors.
+- Prints a summary every few seconds: requests, status counts, new connections, requests/s.
+  "connections" far below "requests" means keep-alive reuse is working.
+
+Usage:
+  python3 tools/cover_test_server.py --port 8080 --latency 0.15 --missing 0.3
+  adb reverse tcp:8080 tcp:8080
+  # Cover Source in a debug build (cleartext is only allowed there):
+  #   http://127.0.0.1:8080/covers/${serial}.jpg
+  # Then use "Download covers" and read the CoverDownload line in the log for games/s.
+"""
+from __future__ import annotations
+import argparse
+import hashlib
+import io
+import random
+import struct
+import sys
+import threading
+import time
+import zlib
+from email.utils import formatdate, parsedate_to_datetime
+from http.server import BaseHTTPRequestHandler, ThreadingHTTPServer
+
+IMAGE_EXTENSIONS = (".jpg", ".jpeg", ".png", ".webp")
+START_TIME = time.time()
+
+
+class Stats:
+    def __init__(self) -> None:
+        self.lock = threading.Lock()
+        self.requests = 0
+        self.connections = 0
+        self.codes: dict[int, int] = {}
+        self.bytes = 0
+
+    def count(self, code: int, length: int) -> None:
+        with self.lock:
+            self.requests += 1
+            self.codes[code] = self.codes.get(code, 0) + 1
+            self.bytes += length
+
+    def connected(self) -> None:
+        with self.lock:
+            self.connections += 1
+
+    def line(self, elapsed: float) -> str:
+        with self.lock:
+            codes = " ".join(f"{k}:{v}" for k, v in sorted(self.codes.items()))
+            rate = self.requests / elapsed if elapsed > 0 else 0.0
+            return (f"requests={self.requests} connections={self.connections} "
+                    f"bytes={self.bytes} [{codes}] {rate:.1f} req/s")
+
+
+def make_png(seed: int, width: int, height: int) -> bytes:
+    """Solid-colour PNG; Python's stdlib has no JPEG encoder, and the app decodes both."""
+    r, g, b = (seed >> 16) & 0xFF, (seed >> 8) & 0xFF, seed & 0xFF
+    row = b"\x00" + bytes((r, g, b)) * width
+    raw = row * height
+
+    def chunk(tag: bytes, data: bytes) -> bytes:
+        return struct.pack(">I", len(data)) + tag + data + struct.pack(">I", zlib.crc32(tag + data) & 0xFFFFFFFF)
+
+    out = io.BytesIO()
+    out.write(b"\x89PNG\r\n\x1a\n")
+    out.write(chunk(b"IHDR", struct.pack(">IIBBBBB", width, height, 8, 2, 0, 0, 0)))
+    out.write(chunk(b"IDAT", zlib.compress(raw, 6)))
+    out.write(chunk(b"IEND", b""))
+    return out.getvalue()
+
+
+def make_handler(args: argparse.Namespace, stats: Stats):
+    last_modified = formatdate(START_TIME, usegmt=True)
+
+    class Handler(BaseHTTPRequestHandler):
+        protocol_version = "HTTP/1.1"
+
+        def setup(self) -> None:
+            super().setup()
+            stats.connected()
+
+        def log_message(self, fmt: str, *a) -> None:
+            if args.verbose:
+                sys.stderr.write("%s %s\n" % (self.address_string(), fmt % a))
+
+        def send_empty(self, code: int, headers: dict[str, str] | None = None) -> None:
+            self.send_response(code)
+            for k, v in (headers or {}).items():
+                self.send_header(k, v)
+            self.send_header("Content-Length", "0")
+            self.end_headers()
+            stats.count(code, 0)
+
+        def do_GET(self) -> None:
+            if args.latency > 0:
+                time.sleep(args.latency * random.uniform(0.5, 1.5))
+            path = self.path.split("?", 1)[0]
+            if not path.lower().endswith(IMAGE_EXTENSIONS):
+                self.send_empty(404)
+                return
+            digest = hashlib.sha1(path.encode("utf-8")).digest()
+            if random.random() < args.throttle:
+                if args.server_errors:
+                    self.send_empty(503)
+                else:
+                    self.send_empty(429, {"Retry-After": str(args.retry_after)})
+                return
+            if digest[0] / 255.0 < args.missing:
+                self.send_empty(404)
+                return
+            etag = '"%s"' % digest.hex()[:16]
+            if self.headers.get("If-None-Match") == etag:
+                self.send_empty(304, {"ETag": etag})
+                return
+            since = self.headers.get("If-Modified-Since")
+            if since and self.headers.get("If-None-Match") is None:
+                try:
+                    if parsedate_to_datetime(since).timestamp() >= int(START_TIME):
+                        self.send_empty(304, {"Last-Modified": last_modified})
+                        return
+                except (TypeError, ValueError):
+                    pass
+            body = make_png(int.from_bytes(digest[1:4], "big"), args.width, args.height)
+            self.send_response(200)
+            self.send_header("Content-Type", "image/png")
+            self.send_header("Content-Length", str(len(body)))
+            self.send_header("ETag", etag)
+            self.send_header("Last-Modified", last_modified)
+            self.end_headers()
+            self.wfile.write(body)
+            stats.count(200, len(body))
+
+    return Handler
+
+
+def main() -> int:
+    ap = argparse.ArgumentParser(description="Offline cover mirror for download benchmarks")
+    ap.add_argument("--host", default="0.0.0.0")
+    ap.add_argument("--port", type=int, default=8080)
+    ap.add_argument("--latency", type=float, default=0.1, help="mean seconds before each response")
+    ap.add_argument("--missing", type=float, default=0.2, help="fraction of covers that 404")
+    ap.add_argument("--throttle", type=float, default=0.0, help="fraction of requests that get 429/503")
+    ap.add_argument("--server-errors", action="store_true", help="throttle with 503 instead of 429")
+    ap.add_argument("--retry-after", type=int, default=1, help="Retry-After seconds sent with 429")
+    ap.add_argument("--width", type=int, default=512)
+    ap.add_argument("--height", type=int, default=736)
+    ap.add_argument("--interval", type=float, default=5.0, help="seconds between stat lines")
+    ap.add_argument("--verbose", action="store_true", help="log every request")
+    args = ap.parse_args()
+
+    stats = Stats()
+    server = ThreadingHTTPServer((args.host, args.port), make_handler(args, stats))
+    server.daemon_threads = True
+    print(f"Serving covers on http://{args.host}:{args.port}/ (Ctrl+C to stop)")
+
+    def report() -> None:
+        while True:
+            time.sleep(args.interval)
+            print(stats.line(time.time() - START_TIME), flush=True)
+
+    threading.Thread(target=report, daemon=True).start()
+    try:
+        server.serve_forever()
+    except KeyboardInterrupt:
+        pass
+    finally:
+        server.server_close()
+        print(stats.line(time.time() - START_TIME))
+    return 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())